@@ -0,0 +1,102 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Search and JSON serialization of the /api/audio/files payload over a scanned library of
+// short WAV files, with the same map the route builds.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioFilesPayloadBenchmark {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    @Param({"100", "2000"})
+    public int files;
+
+    private AudioLibrary library;
+    private Map<String, String> selection;
+    private Map<String, FadeProfile> fades;
+
+    @Setup
+    public void scanLibrary() throws Exception {
+        Path directory = Files.createTempDirectory("files-benchmark");
+        byte[] pcm = new byte[AudioMixer.FORMAT.getFrameSize() * 64];
+        for (int i = 0; i < files; i++) {
+            try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), AudioMixer.FORMAT, 64)) {
+                AudioSystem.write(stream, AudioFileFormat.Type.WAVE, directory.resolve(String.format("Track %04d - Goal Horn.wav", i)).toFile());
+            }
+        }
+        library = new AudioLibrary(directory, name -> name.endsWith(".wav"), entry -> true, change -> { });
+        library.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (library.entries().size() < files || library.entries().get(files - 1).durationSeconds < 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Library scan did not finish");
+            }
+            Thread.sleep(20);
+        }
+
+        selection = new LinkedHashMap<>();
+        fades = new LinkedHashMap<>();
+        for (RoleRegistry.RoleConfig role : RoleRegistry.defaults()) {
+            selection.put(role.name, role.file);
+            fades.put(role.name, FadeProfile.DEFAULT);
+        }
+    }
+
+    @Benchmark
+    public String fullListing() {
+        return payload(null, null, 0, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String searchPage() {
+        return payload(null, "goal", 0, 50);
+    }
+
+    private String payload(String prefix, String query, int offset, int limit) {
+        AudioLibrary.Page page = library.search(prefix, query, offset, limit);
+        LinkedHashSet<String> names = new LinkedHashSet<>(selection.values());
+        for (AudioLibrary.Entry entry : page.items) {
+            names.add(entry.name);
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("files", names);
+        payload.put("entries", page.items);
+        payload.put("total", page.total);
+        payload.put("offset", page.offset);
+        if (limit != Integer.MAX_VALUE) {
+            payload.put("limit", page.limit);
+        }
+        payload.put("selection", selection);
+        payload.put("fades", fades);
+        payload.put("audioDirectory", "/srv/soundboard/audio-library");
+        return GSON.toJson(payload);
+    }
+}
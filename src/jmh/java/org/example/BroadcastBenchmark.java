@@ -0,0 +1,93 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+// Fan-out of one display message through every session's OutboundQueue, as broadcastTrigger
+// and GamePoller's coalesced clock and score deltas do. The mock sessions complete each send immediately, so this is
+// the queueing cost the command thread pays, not network time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final String TRIGGER = "{\"type\":\"trigger\",\"event\":\"spressed\",\"startAt\":1234567.25}";
+    private static final String SCORE = "{\"type\":\"score\",\"home\":3,\"away\":2}";
+
+    @Param({"1", "16", "128"})
+    public int sessions;
+
+    private OutboundQueue[] queues;
+
+    @Setup
+    public void openSessions() {
+        queues = new OutboundQueue[sessions];
+        for (int i = 0; i < sessions; i++) {
+            queues[i] = new OutboundQueue(mockSession(Integer.toString(i)));
+        }
+    }
+
+    @Benchmark
+    public int trigger() {
+        int accepted = 0;
+        for (OutboundQueue queue : queues) {
+            accepted += queue.offer(TRIGGER) ? 1 : 0;
+        }
+        return accepted;
+    }
+
+    @Benchmark
+    public int coalescedScore() {
+        int accepted = 0;
+        for (OutboundQueue queue : queues) {
+            accepted += queue.offer("score", SCORE) ? 1 : 0;
+        }
+        return accepted;
+    }
+
+    static Session mockSession(String id) {
+        SendResult ok = new SendResult();
+        RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                BroadcastBenchmark.class.getClassLoader(), new Class<?>[] {RemoteEndpoint.Async.class}, (proxy, method, args) -> {
+            if (args != null && args.length == 2 && args[1] instanceof SendHandler) {
+                ((SendHandler) args[1]).onResult(ok);
+            }
+            return null;
+        });
+        return (Session) Proxy.newProxyInstance(
+                BroadcastBenchmark.class.getClassLoader(), new Class<?>[] {Session.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAsyncRemote":
+                    return remote;
+                case "getId":
+                    return id;
+                case "isOpen":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What onMessage does with a command before any audio is mixed: parse the frame in each wire
+// format, look the command up in the role registry and post the resulting plays and fades
+// to the mixer, which then applies them in its next buffer.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+    private static final String LEGACY = "goal_push_panthers";
+    private static final String JSON = "{\"v\":1,\"id\":42,\"cmd\":\"goal_push_panthers\",\"ts\":1718000000000}";
+
+    private ByteBuffer binary;
+    private AudioMixer mixer;
+    private RoleRegistry roles;
+    private PcmSound clip;
+
+    @Setup
+    public void createRegistry() throws Exception {
+        binary = ByteBuffer.allocate(14);
+        binary.put((byte) 1).put((byte) 1).putInt(42).putLong(1718000000000L).flip();
+        mixer = AudioMixer.offline();
+        Path config = Files.createTempDirectory("dispatch-benchmark").resolve("roles.json");
+        roles = new RoleRegistry(mixer, config, new Gson());
+        clip = VoiceBenchmark.noise("clip", 5);
+        mixer.renderBuffer();
+    }
+
+    @Benchmark
+    public CommandProtocol.Request parseLegacy() {
+        return CommandProtocol.parseText(LEGACY, System.nanoTime());
+    }
+
+    @Benchmark
+    public CommandProtocol.Request parseJson() {
+        return CommandProtocol.parseText(JSON, System.nanoTime());
+    }
+
+    @Benchmark
+    public CommandProtocol.Request parseBinary() {
+        return CommandProtocol.parseBinary(binary, System.nanoTime());
+    }
+
+    // A goal push end to end on the command side: parse, resolve bindings, post, apply.
+    @Benchmark
+    public int dispatchGoalPush() {
+        CommandProtocol.Request request = CommandProtocol.parseText(JSON, System.nanoTime());
+        List<RoleRegistry.Binding> bindings = roles.snapshot().bindingsFor(request.name);
+        for (int i = 0; i < bindings.size(); i++) {
+            RoleRegistry.Binding binding = bindings.get(i);
+            if (binding.action == RoleRegistry.Action.PLAY) {
+                binding.role.voice.play(clip, binding.role.gainDb, binding.role.fade, 0, request.receivedNanos);
+            } else {
+                binding.role.voice.fadeOut(binding.role.fade, 0, request.receivedNanos);
+            }
+        }
+        mixer.renderBuffer();
+        return bindings.size();
+    }
+}
@@ -0,0 +1,44 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// SVG to PNG rasterization (the old convertSvgToPng, now LogoRenderer.rasterize) for a
+// team-logo-sized SVG at its own size and at the width a 4K display asks for. This is what
+// a logo cache miss costs once the SVG has been downloaded.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogoRenderBenchmark {
+    private static final byte[] SVG = ("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 320 256\" width=\"320\" height=\"256\">"
+            + "<defs><linearGradient id=\"g\" x1=\"0\" y1=\"0\" x2=\"0\" y2=\"1\">"
+            + "<stop offset=\"0\" stop-color=\"#C8102E\"/><stop offset=\"1\" stop-color=\"#8A0B20\"/></linearGradient></defs>"
+            + "<ellipse cx=\"160\" cy=\"128\" rx=\"140\" ry=\"118\" fill=\"url(#g)\" stroke=\"#B9975B\" stroke-width=\"12\"/>"
+            + "<ellipse cx=\"160\" cy=\"128\" rx=\"90\" ry=\"78\" fill=\"#041E42\"/>"
+            + "<path d=\"M100 170 L160 60 L220 170 Z M130 150 L190 150 L160 95 Z\" fill=\"#FFFFFF\" fill-rule=\"evenodd\"/>"
+            + "<text x=\"160\" y=\"215\" font-family=\"sans-serif\" font-size=\"28\" text-anchor=\"middle\" fill=\"#B9975B\">FLA</text>"
+            + "</svg>").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"0", "1024"})
+    public int width;
+
+    @Benchmark
+    public byte[] rasterize() throws Exception {
+        return LogoRenderer.rasterize(new ByteArrayInputStream(SVG), "file:///logo.svg", width, 0);
+    }
+}
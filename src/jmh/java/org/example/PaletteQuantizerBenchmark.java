@@ -0,0 +1,118 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Histogram quantizer against a straight port of the k-means the display used to run in
+// the browser (boxed pixel lists, random initial centroids, iterate until stable).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteQuantizerBenchmark {
+    private int[] pixels;
+
+    @Setup
+    public void drawLogo() {
+        // A 320x256 logo-like image: transparent background, three anti-aliased brand colors
+        BufferedImage image = new BufferedImage(320, 256, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(0xC8102E));
+        g.fillOval(20, 10, 280, 236);
+        g.setColor(new Color(0x041E42));
+        g.fillOval(70, 50, 180, 156);
+        g.setColor(new Color(0xB9975B));
+        g.setStroke(new BasicStroke(12));
+        g.drawOval(20, 10, 280, 236);
+        g.dispose();
+        pixels = image.getRGB(0, 0, 320, 256, null, 0, 320);
+    }
+
+    @Benchmark
+    public int[] histogramQuantizer() {
+        return PaletteQuantizer.dominantColors(pixels, 3);
+    }
+
+    @Benchmark
+    public int[][] naiveKMeans() {
+        List<int[]> points = new ArrayList<>();
+        for (int pixel : pixels) {
+            int red = (pixel >> 16) & 0xFF;
+            int green = (pixel >> 8) & 0xFF;
+            int blue = pixel & 0xFF;
+            if (pixel >>> 24 == 0 || (red == 255 && green == 255 && blue == 255)) {
+                continue;
+            }
+            points.add(new int[] {red, green, blue});
+        }
+        return kMeans(points, 3, new Random(42));
+    }
+
+    private static int[][] kMeans(List<int[]> points, int k, Random random) {
+        int[][] centroids = new int[k][];
+        for (int i = 0; i < k; i++) {
+            centroids[i] = points.get(random.nextInt(points.size())).clone();
+        }
+
+        int[][] previous;
+        int iterations = 0;
+        do {
+            previous = Arrays.stream(centroids).map(int[]::clone).toArray(int[][]::new);
+            List<List<int[]>> clusters = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                clusters.add(new ArrayList<>());
+            }
+            for (int[] point : points) {
+                clusters.get(nearest(point, centroids)).add(point);
+            }
+            for (int i = 0; i < k; i++) {
+                List<int[]> cluster = clusters.get(i);
+                if (!cluster.isEmpty()) {
+                    long[] sum = new long[3];
+                    for (int[] point : cluster) {
+                        sum[0] += point[0];
+                        sum[1] += point[1];
+                        sum[2] += point[2];
+                    }
+                    centroids[i] = new int[] {(int) (sum[0] / cluster.size()), (int) (sum[1] / cluster.size()), (int) (sum[2] / cluster.size())};
+                }
+            }
+        } while (!Arrays.deepEquals(centroids, previous) && ++iterations < 100);
+        return centroids;
+    }
+
+    private static int nearest(int[] point, int[][] centroids) {
+        double min = Double.MAX_VALUE;
+        int index = 0;
+        for (int i = 0; i < centroids.length; i++) {
+            double distance = Math.hypot(Math.hypot(point[0] - centroids[i][0], point[1] - centroids[i][1]), point[2] - centroids[i][2]);
+            if (distance < min) {
+                min = distance;
+                index = i;
+            }
+        }
+        return index;
+    }
+}
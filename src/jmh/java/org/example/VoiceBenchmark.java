@@ -0,0 +1,76 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Render-thread cost of starting a clip and of mixing a buffer while a voice fades out,
+// on an offline mixer so each operation is exactly one 256-frame buffer (5.8 ms of audio).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoiceBenchmark {
+    private static final long FADE_MILLIS = 2000;
+    private static final int FADE_BUFFERS = 346;  // The buffer the play lands in, then 2 s at 44.1 kHz in 256-frame buffers
+
+    @Param({"LINEAR", "EQUAL_POWER", "EXPONENTIAL"})
+    public String curve;
+
+    private AudioMixer mixer;
+    private Voice voice;
+    private PcmSound clip;
+    private FadeProfile fade;
+
+    @Setup
+    public void createMixer() {
+        mixer = AudioMixer.offline();
+        voice = mixer.newVoice("benchmark");
+        clip = noise("clip", 5);
+        fade = new FadeProfile(FadeCurve.valueOf(curve), FADE_MILLIS, 150);
+        mixer.renderBuffer();
+    }
+
+    // A play posted from the command thread and the first buffer it is heard in.
+    @Benchmark
+    public void voiceStart() {
+        voice.play(clip, -4f, fade);
+        mixer.renderBuffer();
+    }
+
+    // Every buffer of a full fade-out, so each operation is one buffer of per-frame curve steps.
+    @Benchmark
+    @OperationsPerInvocation(FADE_BUFFERS)
+    public void fadeStep() {
+        voice.play(clip, -4f, fade);
+        mixer.renderBuffer();
+        voice.fadeOut(fade);
+        for (int i = 1; i < FADE_BUFFERS; i++) {
+            mixer.renderBuffer();
+        }
+    }
+
+    static PcmSound noise(String name, int seconds) {
+        Random random = new Random(7);
+        short[] samples = new short[(int) (seconds * AudioMixer.SAMPLE_RATE) * AudioMixer.CHANNELS];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextGaussian() * 4000);
+        }
+        return new PcmSound(name, ShortBuffer.wrap(samples));
+    }
+}
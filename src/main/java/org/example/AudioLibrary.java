@@ -0,0 +1,351 @@
+package org.example;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// In-memory index of the audio library directory. A WatchService thread keeps it current,
+// with a periodic reconcile for network shares that do not deliver watch events. Requests
+// read an immutable sorted snapshot, so listing never touches the filesystem. Updates only
+// mark the snapshot stale and the next read re-sorts it, so a scan of N files costs one
+// sort rather than one per probed file. The probe queue is bounded; a file whose probe is
+// turned away keeps its unknown format until the next reconcile submits it again.
+final class AudioLibrary {
+    private static final long RECONCILE_SECONDS = 60;
+    private static final int PROBE_THREADS = 2;
+    private static final int PROBE_QUEUE_CAPACITY = 4096;
+    private static final Metrics.Counter PROBES_REJECTED = Metrics.counter("soundboard_audio_library_probes_rejected_total",
+            "Metadata probes turned away because the probe queue was full");
+
+    private final Path directory;
+    private final Predicate<String> selectable;
+    private final Predicate<Entry> decoded;
+    private final Consumer<Change> listener;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> unprobed = ConcurrentHashMap.newKeySet();  // Probe rejected, retried on reconcile
+    private final ThreadPoolExecutor probeExecutor = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(PROBE_QUEUE_CAPACITY), runnable -> {
+        Thread thread = new Thread(runnable, "audio-library-probe");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final AtomicBoolean stale = new AtomicBoolean();
+    private volatile List<Entry> sorted = List.of();
+
+    AudioLibrary(Path directory, Predicate<String> selectable, Predicate<Entry> decoded, Consumer<Change> listener) {
+        this.directory = directory;
+        this.selectable = selectable;
+        this.decoded = decoded;
+        this.listener = listener;
+        Metrics.pool("audio-library-probe", probeExecutor);
+    }
+
+    void start() {
+        Thread watcher = new Thread(this::watchLoop, "audio-library-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    boolean contains(String fileName) {
+        return entries.containsKey(fileName);
+    }
+
+    Entry get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    List<Entry> entries() {
+        return snapshot();
+    }
+
+    // Case-insensitive prefix and substring filters over the sorted snapshot.
+    Page search(String prefix, String query, int offset, int limit) {
+        String lowerPrefix = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        String lowerQuery = query == null ? "" : query.toLowerCase(Locale.ROOT);
+        List<Entry> snapshot = snapshot();
+        List<Entry> items = new ArrayList<>(Math.min(limit, snapshot.size()));
+        int total = 0;
+
+        for (Entry entry : snapshot) {
+            if (!entry.lowerName.startsWith(lowerPrefix) || !entry.lowerName.contains(lowerQuery)) {
+                continue;
+            }
+            if (total >= offset && items.size() < limit) {
+                items.add(entry.withDecoded(decoded.test(entry)));
+            }
+            total++;
+        }
+        return new Page(total, offset, limit, items);
+    }
+
+    private void watchLoop() {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Files.createDirectories(directory);
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            reconcile();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(RECONCILE_SECONDS, TimeUnit.SECONDS);
+                if (key == null) {
+                    reconcile();
+                    continue;
+                }
+
+                Set<String> touched = new LinkedHashSet<>();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else {
+                        touched.add(((Path) event.context()).getFileName().toString());
+                    }
+                }
+                key.reset();
+
+                if (overflow) {
+                    reconcile();
+                } else {
+                    refresh(touched);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Full pass comparing the directory listing against the index by size and mtime.
+    private void reconcile() {
+        Set<String> present = new LinkedHashSet<>();
+        if (Files.isDirectory(directory)) {
+            try (var paths = Files.list(directory)) {
+                paths.map(path -> path.getFileName().toString())
+                        .filter(selectable)
+                        .forEach(present::add);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        Set<String> touched = new LinkedHashSet<>(present);
+        for (String name : entries.keySet()) {
+            if (!present.contains(name)) {
+                touched.add(name);
+            }
+        }
+        refresh(touched);
+    }
+
+    private void refresh(Set<String> names) {
+        List<String> added = new ArrayList<>();
+        List<String> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        for (String name : names) {
+            if (!selectable.test(name)) {
+                continue;
+            }
+            Path path = directory.resolve(name);
+            BasicFileAttributes attributes = readAttributes(path);
+            Entry existing = entries.get(name);
+
+            if (attributes == null || !attributes.isRegularFile()) {
+                unprobed.remove(name);
+                if (entries.remove(name) != null) {
+                    removed.add(name);
+                }
+                continue;
+            }
+
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            boolean unchanged = isCurrent(existing, size, modified);
+            boolean retry = unprobed.remove(name);
+            if (unchanged && !retry) {
+                continue;
+            }
+
+            if (!unchanged) {
+                entries.put(name, new Entry(name, size, modified));
+                (existing == null ? added : updated).add(name);
+            }
+            submitProbe(name, size, modified);
+        }
+
+        if (added.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        stale.set(true);
+        listener.accept(new Change(added, updated, removed, entries.size()));
+    }
+
+    private void submitProbe(String name, long size, long modified) {
+        try {
+            probeExecutor.execute(() -> probe(name, size, modified));
+        } catch (RejectedExecutionException e) {
+            PROBES_REJECTED.increment();
+            unprobed.add(name);
+        }
+    }
+
+    private void probe(String name, long size, long modified) {
+        if (!isCurrent(entries.get(name), size, modified)) {
+            return;
+        }
+        try {
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(directory.resolve(name).toFile());
+            AudioFormat format = fileFormat.getFormat();
+            double duration = durationSeconds(fileFormat, format);
+            // compute rather than replace(old, new): a tempo landing meanwhile must not be lost
+            entries.computeIfPresent(name, (key, current) -> isCurrent(current, size, modified)
+                    ? current.withFormat(duration, format.getSampleRate(), format.getChannels())
+                    : current);
+            stale.set(true);
+        } catch (Exception e) {
+            System.out.println("Could not read audio metadata for " + name + ": " + e.getMessage());
+        }
+    }
+
+    // Records the analyzed tempo in the index, so listings carry it without a second lookup.
+    void setTempo(String name, double tempoBpm) {
+        if (entries.computeIfPresent(name, (key, current) -> current.withTempo(tempoBpm)) != null) {
+            stale.set(true);
+        }
+    }
+
+    private static boolean isCurrent(Entry entry, long size, long modified) {
+        return entry != null && entry.size == size && entry.modifiedMillis == modified;
+    }
+
+    private static double durationSeconds(AudioFileFormat fileFormat, AudioFormat format) {
+        Object micros = fileFormat.properties().get("duration");
+        if (micros instanceof Long) {
+            return (Long) micros / 1_000_000.0;
+        }
+        if (fileFormat.getFrameLength() > 0 && format.getFrameRate() > 0) {
+            return fileFormat.getFrameLength() / format.getFrameRate();
+        }
+        return -1;
+    }
+
+    // A reader racing a rebuild may see the previous snapshot; the next read picks up the change.
+    private List<Entry> snapshot() {
+        if (stale.compareAndSet(true, false)) {
+            rebuildSnapshot();
+        }
+        return sorted;
+    }
+
+    private synchronized void rebuildSnapshot() {
+        List<Entry> next = new ArrayList<>(entries.values());
+        next.sort((a, b) -> a.name.compareToIgnoreCase(b.name));
+        sorted = Collections.unmodifiableList(next);
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static final class Entry {
+        final String name;
+        final transient String lowerName;
+        final long size;
+        final long modifiedMillis;
+        final double durationSeconds;
+        final float sampleRate;
+        final int channels;
+        final boolean decoded;
+        final double tempoBpm;  // From the beat analysis; -1 until it has run, 0 if it found no pulse
+
+        Entry(String name, long size, long modifiedMillis) {
+            this(name, size, modifiedMillis, -1, -1, -1, false, -1);
+        }
+
+        private Entry(String name, long size, long modifiedMillis, double durationSeconds, float sampleRate, int channels, boolean decoded, double tempoBpm) {
+            this.name = name;
+            this.lowerName = name.toLowerCase(Locale.ROOT);
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.durationSeconds = durationSeconds;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.decoded = decoded;
+            this.tempoBpm = tempoBpm;
+        }
+
+        Entry withFormat(double durationSeconds, float sampleRate, int channels) {
+            return new Entry(name, size, modifiedMillis, durationSeconds, sampleRate, channels, decoded, tempoBpm);
+        }
+
+        Entry withDecoded(boolean decoded) {
+            return decoded == this.decoded ? this : new Entry(name, size, modifiedMillis, durationSeconds, sampleRate, channels, decoded, tempoBpm);
+        }
+
+        Entry withTempo(double tempoBpm) {
+            return new Entry(name, size, modifiedMillis, durationSeconds, sampleRate, channels, decoded, tempoBpm);
+        }
+    }
+
+    static final class Page {
+        final int total;
+        final int offset;
+        final int limit;
+        final List<Entry> items;
+
+        Page(int total, int offset, int limit, List<Entry> items) {
+            this.total = total;
+            this.offset = offset;
+            this.limit = limit;
+            this.items = items;
+        }
+    }
+
+    static final class Change {
+        final String type = "library_changed";
+        final List<String> added;
+        final List<String> updated;
+        final List<String> removed;
+        final int total;
+
+        Change(List<String> added, List<String> updated, List<String> removed, int total) {
+            this.added = added;
+            this.updated = updated;
+            this.removed = removed;
+            this.total = total;
+        }
+    }
+}
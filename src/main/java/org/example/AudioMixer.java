@@ -0,0 +1,229 @@
+package org.example;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Software mixer that sums every voice into a single SourceDataLine.
+// Voice state is only touched by the render thread; other threads post commands
+// that are applied at the start of the next buffer, so a trigger takes effect
+// within one buffer period. Commands posted with a deadline wait until the buffer that
+// will be heard at that moment, allowing for the output line's own latency, and are never
+// applied ahead of a postAt command posted before them.
+final class AudioMixer {
+    static final float SAMPLE_RATE = 44100f;
+    static final int CHANNELS = 2;
+    static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+    static final int BUFFER_FRAMES = 256;
+    private static final int LINE_BUFFER_PERIODS = 4;
+    private static final long CLOSE_WAIT_MILLIS = 1000;
+    private static final long PERIOD_NANOS = Math.round(BUFFER_FRAMES * 1_000_000_000.0 / SAMPLE_RATE);
+    private static final Metrics.Histogram RENDER_TIME = Metrics.histogram("soundboard_mixer_render_seconds",
+            "Time to apply commands and mix one buffer");
+    private static final Metrics.Counter UNDERRUNS = Metrics.counter("soundboard_mixer_underruns_total",
+            "Buffers that were rendered after the output had already run dry");
+
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Scheduled> scheduled = new PriorityQueue<>();  // Render thread only
+    private long lastScheduledNanos;  // Render thread only
+    private long scheduledSequence;  // Render thread only
+    private final List<Voice> voices = new ArrayList<>();
+    private final float[] mixBuffer = new float[BUFFER_FRAMES * CHANNELS];
+    private final byte[] outputBuffer = new byte[BUFFER_FRAMES * FORMAT.getFrameSize()];
+    private final SourceDataLine line;
+    private final Thread renderThread;
+    private final long outputLatencyNanos;
+    private volatile boolean running = true;
+    private volatile long framesRendered;
+    private volatile int scheduledCount;
+    private volatile int voiceCount;
+
+    private AudioMixer(SourceDataLine line) {
+        this.line = line;
+        this.outputLatencyNanos = line == null ? 0 : Math.round(line.getBufferSize() / (double) FORMAT.getFrameSize() * 1_000_000_000.0 / SAMPLE_RATE);
+        this.renderThread = new Thread(this::renderLoop, "audio-mixer");
+        this.renderThread.setDaemon(true);
+        this.renderThread.setPriority(Thread.MAX_PRIORITY);
+    }
+
+    // With output false the sound card is never opened: the render clock runs just as it does
+    // when no line is available, for load tests on machines that should stay quiet.
+    static AudioMixer start(boolean output) {
+        SourceDataLine line = null;
+        if (!output) {
+            System.out.println("Audio output disabled, mixing silently");
+        } else {
+            try {
+                line = AudioSystem.getSourceDataLine(FORMAT);
+                line.open(FORMAT, BUFFER_FRAMES * FORMAT.getFrameSize() * LINE_BUFFER_PERIODS);
+                line.start();
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                // Keep the render clock running so voices still start, fade and finish without a sound card.
+                System.out.println("No audio output line available, mixing silently: " + e.getMessage());
+                line = null;
+            }
+        }
+
+        AudioMixer mixer = new AudioMixer(line);
+        mixer.renderThread.start();
+        return mixer;
+    }
+
+    // A mixer with no output line and no render thread; the caller mixes each buffer with
+    // renderBuffer. Used by the benchmarks to time the render path deterministically.
+    static AudioMixer offline() {
+        return new AudioMixer(null);
+    }
+
+    Voice newVoice(String name) {
+        Voice voice = new Voice(this, name);
+        post(() -> voices.add(voice));
+        return voice;
+    }
+
+    void removeVoice(Voice voice) {
+        postAt(0, () -> voices.remove(voice));
+    }
+
+    void post(Runnable command) {
+        commands.add(command);
+    }
+
+    // Deadline is on the System.nanoTime clock; 0 means as soon as possible.
+    void postAt(long deadlineNanos, Runnable command) {
+        commands.add(() -> schedule(deadlineNanos, command));
+    }
+
+    long framesRendered() {
+        return framesRendered;
+    }
+
+    long outputLatencyNanos() {
+        return outputLatencyNanos;
+    }
+
+    int scheduledCount() {
+        return scheduledCount;
+    }
+
+    int voiceCount() {
+        return voiceCount;
+    }
+
+    static long millisToFrames(long millis) {
+        return Math.max(1L, Math.round(millis * SAMPLE_RATE / 1000.0));
+    }
+
+    // Stops the render thread and waits for it to drain and release the output line.
+    void close() {
+        running = false;
+        try {
+            renderThread.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void renderLoop() {
+        long nextDeadline = System.nanoTime();
+
+        while (running) {
+            renderBuffer();
+
+            if (line != null) {
+                if (framesRendered > 0 && line.available() >= line.getBufferSize()) {
+                    UNDERRUNS.increment();
+                }
+                line.write(outputBuffer, 0, outputBuffer.length);
+            } else {
+                nextDeadline += PERIOD_NANOS;
+                long wait = nextDeadline - System.nanoTime();
+                if (wait < -PERIOD_NANOS) {
+                    UNDERRUNS.increment();
+                    nextDeadline = System.nanoTime();
+                }
+                LockSupport.parkNanos(wait);
+            }
+            framesRendered += BUFFER_FRAMES;
+        }
+
+        if (line != null) {
+            line.stop();
+            line.close();
+        }
+    }
+
+    // Render thread: applies due commands and mixes the next buffer into outputBuffer.
+    void renderBuffer() {
+        long renderStart = System.nanoTime();
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+        long audibleAt = renderStart + outputLatencyNanos;
+        while (!scheduled.isEmpty() && scheduled.peek().deadlineNanos - audibleAt <= PERIOD_NANOS / 2) {
+            scheduled.poll().command.run();
+        }
+
+        Arrays.fill(mixBuffer, 0f);
+        for (int i = 0; i < voices.size(); i++) {
+            voices.get(i).render(mixBuffer, BUFFER_FRAMES);
+        }
+        writePcm16(mixBuffer, outputBuffer);
+        scheduledCount = scheduled.size();
+        voiceCount = voices.size();
+        RENDER_TIME.recordSince(renderStart);
+    }
+
+    // Render thread. A command may wait behind earlier ones but never overtakes them, so a
+    // fade posted after a scheduled play still lands on that play.
+    private void schedule(long deadlineNanos, Runnable command) {
+        if (scheduled.isEmpty()) {
+            if (deadlineNanos == 0) {
+                command.run();
+                return;
+            }
+            lastScheduledNanos = deadlineNanos;
+        } else if (deadlineNanos == 0 || deadlineNanos - lastScheduledNanos < 0) {
+            deadlineNanos = lastScheduledNanos;
+        } else {
+            lastScheduledNanos = deadlineNanos;
+        }
+        scheduled.add(new Scheduled(deadlineNanos, scheduledSequence++, command));
+    }
+
+    private static final class Scheduled implements Comparable<Scheduled> {
+        final long deadlineNanos;
+        final long sequence;
+        final Runnable command;
+
+        Scheduled(long deadlineNanos, long sequence, Runnable command) {
+            this.deadlineNanos = deadlineNanos;
+            this.sequence = sequence;
+            this.command = command;
+        }
+
+        @Override
+        public int compareTo(Scheduled other) {
+            int byDeadline = Long.compare(deadlineNanos - other.deadlineNanos, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static void writePcm16(float[] mix, byte[] out) {
+        for (int i = 0; i < mix.length; i++) {
+            int sample = Math.round(mix[i]);
+            if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+            if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+            out[i * 2] = (byte) sample;
+            out[i * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+}
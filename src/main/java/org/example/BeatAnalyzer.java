@@ -0,0 +1,588 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// Finds the tempo, the beat grid and the strong onsets of every clip once in the background.
+// The PCM (mapped, or decoded as it is read for files no role has loaded) is streamed through
+// a short-time FFT (mono, decimated to 11 kHz, 1024-point Hann frames every 128 samples); the
+// positive change in log magnitude between frames is the onset envelope. Peaks of the envelope above a running mean are the onsets, the strongest
+// autocorrelation lag between 60 and 200 BPM is the tempo, and a dynamic-programming tracker
+// places beats on the envelope at that spacing. Results are keyed by content hash in
+// beats.json beside the sound bank index, like the loudness pass, and attached to the PcmSound.
+final class BeatAnalyzer {
+    private static final int DECIMATION = 4;
+    static final double RATE = AudioMixer.SAMPLE_RATE / DECIMATION;
+    private static final int FFT_SIZE = 1024;
+    private static final int HOP = 128;
+    static final double HOP_MILLIS = HOP * 1000.0 / RATE;  // 11.6 ms per envelope frame
+    private static final double MIN_BPM = 60;
+    private static final double MAX_BPM = 200;
+    private static final double PRIOR_BPM = 120;
+    private static final double PRIOR_OCTAVES = 1.0;  // Width of the log-normal tempo prior
+    private static final double TIGHTNESS = 100;  // How hard the tracker holds beats to the tempo
+    private static final double COMPRESSION = 1000;
+    private static final int PEAK_RADIUS = 3;  // Frames either side an onset must dominate
+    private static final int MEAN_RADIUS = 16;  // Frames either side of the running mean
+    private static final double THRESHOLD_DEVIATIONS = 0.5;
+    private static final int MIN_ONSET_GAP = 4;  // About 46 ms
+    private static final int MAX_ONSETS = 1024;
+    private static final double[] WINDOW = hann(FFT_SIZE);
+    private static final double[] COS = new double[FFT_SIZE / 2];
+    private static final double[] SIN = new double[FFT_SIZE / 2];
+    private static final int[] REVERSED = bitReversal(FFT_SIZE);
+    private static final String RESULTS_FILE = "beats.json";
+    private static final int QUEUE_CAPACITY = 4096;
+
+    static {
+        for (int i = 0; i < FFT_SIZE / 2; i++) {
+            COS[i] = Math.cos(-2 * Math.PI * i / FFT_SIZE);
+            SIN[i] = Math.sin(-2 * Math.PI * i / FFT_SIZE);
+        }
+    }
+
+    private final SoundBank soundBank;
+    private final Path resultsPath;
+    private final Gson gson;
+    private final BiConsumer<String, Result> listener;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Result> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Result> byFile = new ConcurrentHashMap<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();  // Accepted and not yet finished
+    private long batchStartNanos;  // Guarded by this, like the batch counts below
+    private int batchAnalyzed;
+    private int batchStreamed;
+    private int batchFailed;
+
+    BeatAnalyzer(SoundBank soundBank, Path cacheDirectory, Gson gson, int workers, BiConsumer<String, Result> listener) {
+        this.soundBank = soundBank;
+        this.resultsPath = cacheDirectory.resolve(RESULTS_FILE);
+        this.gson = gson;
+        this.listener = listener;
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "audio-beats");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        Metrics.pool("audio-beats", executor);
+        byHash.putAll(loadResults());
+    }
+
+    void submit(String fileName) {
+        if (!queued.add(fileName)) {
+            return;
+        }
+        if (pending.getAndIncrement() == 0) {
+            startBatch();
+        }
+        try {
+            executor.execute(() -> {
+                queued.remove(fileName);
+                try {
+                    analyzeFile(fileName);
+                } finally {
+                    finishOne();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(fileName);
+            finishOne();
+            System.out.println("Beat analysis queue is full, skipping " + fileName);
+        }
+    }
+
+    Map<String, Result> results() {
+        return new LinkedHashMap<>(byFile);
+    }
+
+    Result result(String fileName) {
+        return byFile.get(fileName);
+    }
+
+    void forget(String fileName) {
+        byFile.remove(fileName);
+    }
+
+    // Clips the sound bank already holds are analyzed from memory and get the result attached;
+    // any other library file is decoded as it is read, so the library scan neither holds whole
+    // clips nor fills the PCM cache with files no role plays.
+    private void analyzeFile(String fileName) {
+        try {
+            String hash = soundBank.contentHash(fileName);
+            PcmSound sound = soundBank.loaded(fileName);
+            Result result = byHash.get(hash);
+            if (result == null) {
+                if (sound != null) {
+                    result = analyze(sound.samples);
+                } else {
+                    try (PcmSound.Stream stream = soundBank.stream(fileName)) {
+                        result = analyze(stream);
+                    }
+                }
+                byHash.put(hash, result);
+                saveResults();
+                analyzed(sound == null);
+            }
+            if (sound != null) {
+                sound.beats = result;
+            }
+            byFile.put(fileName, result);
+            listener.accept(fileName, result);
+        } catch (Exception e) {
+            failed();
+            System.out.println("Could not find beats in " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void startBatch() {
+        batchStartNanos = System.nanoTime();
+    }
+
+    private synchronized void analyzed(boolean streamed) {
+        batchAnalyzed++;
+        if (streamed) {
+            batchStreamed++;
+        }
+    }
+
+    private synchronized void failed() {
+        batchFailed++;
+    }
+
+    // One line per burst of work (startup, a library rescan) instead of one per clip.
+    private void finishOne() {
+        if (pending.decrementAndGet() != 0) {
+            return;
+        }
+        synchronized (this) {
+            if (batchAnalyzed + batchFailed > 0) {
+                System.out.printf("Beats: analyzed %d clips (%d streamed from source, %d failed) in %d ms%n",
+                        batchAnalyzed, batchStreamed, batchFailed,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStartNanos));
+            }
+            batchAnalyzed = 0;
+            batchStreamed = 0;
+            batchFailed = 0;
+        }
+    }
+
+    // One streaming pass over interleaved stereo samples in the mixer's format, then the
+    // tempo and beat passes over the envelope (a few kilobytes per minute of audio).
+    static Result analyze(ShortBuffer source) {
+        ShortBuffer samples = source.duplicate();
+        samples.rewind();
+        int frames = samples.remaining() / AudioMixer.CHANNELS;
+        Envelope envelope = new Envelope();
+        short[] chunk = new short[Envelope.CHUNK_FRAMES * AudioMixer.CHANNELS];
+        while (samples.remaining() >= chunk.length) {
+            samples.get(chunk);
+            envelope.add(chunk);
+        }
+        return analyze(envelope.values(), frames);
+    }
+
+    // The same passes over a clip decoded as it is read, for files the sound bank has not loaded.
+    static Result analyze(PcmSound.Stream stream) throws IOException {
+        Envelope envelope = new Envelope();
+        short[] chunk = new short[Envelope.CHUNK_FRAMES * AudioMixer.CHANNELS];
+        int frames = 0;
+        int count;
+        while ((count = stream.read(chunk, Envelope.CHUNK_FRAMES)) > 0) {
+            frames += count;
+            if (count == Envelope.CHUNK_FRAMES) {
+                envelope.add(chunk);
+            }
+        }
+        return analyze(envelope.values(), frames);
+    }
+
+    private static Result analyze(float[] envelope, int frames) {
+        normalize(envelope);
+        int[] onsets = pickOnsets(envelope);
+        int maxLag = (int) Math.floor(60000.0 / (MIN_BPM * HOP_MILLIS));
+        if (onsets.length == 0 || envelope.length < maxLag * 2) {
+            return new Result(0, 0, new int[0], new int[0], new float[0], frames);
+        }
+
+        double[] acf = autocorrelation(envelope, maxLag + 2);
+        double period = tempoPeriod(acf, maxLag);
+        if (period <= 0) {
+            return new Result(0, 0, new int[0], new int[0], new float[0], frames);
+        }
+        double confidence = acf[0] <= 0 ? 0 : Math.max(0, Math.min(1, acf[(int) Math.round(period)] / acf[0]));
+        int[] beats = trackBeats(envelope, period, onsets[0], onsets[onsets.length - 1]);
+
+        int[] beatsMillis = new int[beats.length];
+        for (int i = 0; i < beats.length; i++) {
+            beatsMillis[i] = frameMillis(beats[i]);
+        }
+        int[] strongest = strongest(envelope, onsets);
+        int[] onsetsMillis = new int[strongest.length];
+        float[] strengths = new float[strongest.length];
+        float top = 0;
+        for (int frame : strongest) {
+            top = Math.max(top, envelope[frame]);
+        }
+        for (int i = 0; i < strongest.length; i++) {
+            onsetsMillis[i] = frameMillis(strongest[i]);
+            strengths[i] = top <= 0 ? 0 : Math.round(envelope[strongest[i]] / top * 100) / 100f;
+        }
+        double bpm = 60000.0 / (period * HOP_MILLIS);
+        return new Result(Math.round(bpm * 10) / 10.0, Math.round(confidence * 100) / 100.0,
+                beatsMillis, onsetsMillis, strengths, frames);
+    }
+
+    // Spectral flux: the summed rise in log magnitude of each frame over the one before. The
+    // decimation averages four frames of the mono mix, which also low-passes it enough for
+    // the beat-carrying band. Fed one hop of mixer frames at a time; a partial hop at the end
+    // of the clip is not part of the envelope.
+    private static final class Envelope {
+        static final int CHUNK_FRAMES = HOP * DECIMATION;
+
+        private final double[] ring = new double[FFT_SIZE];
+        private final double[] re = new double[FFT_SIZE];
+        private final double[] im = new double[FFT_SIZE];
+        private double[] previous = new double[FFT_SIZE / 2 + 1];
+        private double[] current = new double[FFT_SIZE / 2 + 1];
+        private float[] envelope = new float[256];
+        private int length;
+        private int written;
+
+        void add(short[] chunk) {
+            for (int i = 0; i < HOP; i++) {
+                int sum = 0;
+                for (int k = 0; k < DECIMATION * AudioMixer.CHANNELS; k++) {
+                    sum += chunk[i * DECIMATION * AudioMixer.CHANNELS + k];
+                }
+                ring[written++ % FFT_SIZE] = sum / (32768.0 * DECIMATION * AudioMixer.CHANNELS);
+            }
+
+            // The newest FFT_SIZE samples, oldest first; zeros before the clip starts
+            for (int i = 0; i < FFT_SIZE; i++) {
+                re[i] = ring[(written + i) % FFT_SIZE] * WINDOW[i];
+                im[i] = 0;
+            }
+            fft(re, im);
+            double flux = 0;
+            for (int bin = 0; bin <= FFT_SIZE / 2; bin++) {
+                double magnitude = Math.sqrt(re[bin] * re[bin] + im[bin] * im[bin]) / FFT_SIZE;
+                current[bin] = Math.log1p(COMPRESSION * magnitude);
+                flux += Math.max(0, current[bin] - previous[bin]);
+            }
+            if (length == envelope.length) {
+                envelope = Arrays.copyOf(envelope, length * 2);
+            }
+            envelope[length] = length == 0 ? 0 : (float) flux;
+            length++;
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        float[] values() {
+            return Arrays.copyOf(envelope, length);
+        }
+    }
+
+    // In-place iterative radix-2 transform with the shared twiddle tables.
+    private static void fft(double[] re, double[] im) {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            int j = REVERSED[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int size = 2; size <= FFT_SIZE; size <<= 1) {
+            int half = size >> 1;
+            int step = FFT_SIZE / size;
+            for (int start = 0; start < FFT_SIZE; start += size) {
+                for (int k = 0; k < half; k++) {
+                    double wr = COS[k * step];
+                    double wi = SIN[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+
+    // Scales the envelope to unit standard deviation so the thresholds and the tracker's
+    // tempo penalty mean the same thing for quiet and loud clips.
+    private static void normalize(float[] envelope) {
+        double sum = 0;
+        double squares = 0;
+        for (float value : envelope) {
+            sum += value;
+            squares += value * value;
+        }
+        int n = Math.max(1, envelope.length);
+        double mean = sum / n;
+        double deviation = Math.sqrt(Math.max(0, squares / n - mean * mean));
+        if (deviation <= 0) {
+            Arrays.fill(envelope, 0);
+            return;
+        }
+        for (int i = 0; i < envelope.length; i++) {
+            envelope[i] = (float) (envelope[i] / deviation);
+        }
+    }
+
+    // Local maxima that clear the running mean by half a standard deviation, at least 46 ms apart.
+    private static int[] pickOnsets(float[] envelope) {
+        List<Integer> peaks = new ArrayList<>();
+        double window = 0;
+        int n = envelope.length;
+        for (int i = 0; i < Math.min(n, MEAN_RADIUS + 1); i++) {
+            window += envelope[i];
+        }
+        int last = -MIN_ONSET_GAP;
+        for (int i = 0; i < n; i++) {
+            int low = Math.max(0, i - MEAN_RADIUS);
+            int high = Math.min(n - 1, i + MEAN_RADIUS);
+            double threshold = window / (high - low + 1) + THRESHOLD_DEVIATIONS;
+            if (envelope[i] > threshold && i - last >= MIN_ONSET_GAP && isPeak(envelope, i)) {
+                peaks.add(i);
+                last = i;
+            }
+            if (i + MEAN_RADIUS + 1 < n) {
+                window += envelope[i + MEAN_RADIUS + 1];
+            }
+            if (i - MEAN_RADIUS >= 0) {
+                window -= envelope[i - MEAN_RADIUS];
+            }
+        }
+        int[] onsets = new int[peaks.size()];
+        for (int i = 0; i < onsets.length; i++) {
+            onsets[i] = peaks.get(i);
+        }
+        return onsets;
+    }
+
+    private static boolean isPeak(float[] envelope, int index) {
+        for (int i = Math.max(0, index - PEAK_RADIUS); i <= Math.min(envelope.length - 1, index + PEAK_RADIUS); i++) {
+            if (envelope[i] > envelope[index] || (envelope[i] == envelope[index] && i < index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The onsets kept in the result: the strongest MAX_ONSETS, back in time order.
+    private static int[] strongest(float[] envelope, int[] onsets) {
+        if (onsets.length <= MAX_ONSETS) {
+            return onsets;
+        }
+        Integer[] byStrength = new Integer[onsets.length];
+        for (int i = 0; i < onsets.length; i++) {
+            byStrength[i] = onsets[i];
+        }
+        Arrays.sort(byStrength, (a, b) -> Float.compare(envelope[b], envelope[a]));
+        int[] kept = new int[MAX_ONSETS];
+        for (int i = 0; i < MAX_ONSETS; i++) {
+            kept[i] = byStrength[i];
+        }
+        Arrays.sort(kept);
+        return kept;
+    }
+
+    // Beat period in envelope frames: the autocorrelation peak in the tempo range, weighted
+    // toward 120 BPM so a half- or double-time lag only wins when it is clearly stronger, and
+    // refined between frames with a parabola through the peak and its neighbours.
+    private static double tempoPeriod(double[] acf, int maxLag) {
+        int minLag = (int) Math.ceil(60000.0 / (MAX_BPM * HOP_MILLIS));
+        int best = -1;
+        double bestScore = 0;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            double bpm = 60000.0 / (lag * HOP_MILLIS);
+            double octaves = Math.log(bpm / PRIOR_BPM) / Math.log(2) / PRIOR_OCTAVES;
+            double score = acf[lag] * Math.exp(-0.5 * octaves * octaves);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+        if (best < 0) {
+            return 0;
+        }
+        if (best > minLag && best < maxLag) {
+            double left = acf[best - 1];
+            double center = acf[best];
+            double right = acf[best + 1];
+            double curvature = left - 2 * center + right;
+            if (curvature < 0) {
+                return best + 0.5 * (left - right) / curvature;
+            }
+        }
+        return best;
+    }
+
+    // Of the mean-removed envelope, for lags 0 to count - 1.
+    private static double[] autocorrelation(float[] envelope, int count) {
+        double mean = 0;
+        for (float value : envelope) {
+            mean += value;
+        }
+        mean /= Math.max(1, envelope.length);
+        double[] acf = new double[count];
+        for (int lag = 0; lag < count; lag++) {
+            double sum = 0;
+            for (int i = lag; i < envelope.length; i++) {
+                sum += (envelope[i] - mean) * (envelope[i - lag] - mean);
+            }
+            acf[lag] = sum / envelope.length;
+        }
+        return acf;
+    }
+
+    // Ellis's tracker: each frame's score is its onset strength plus the best score of an
+    // earlier beat between half and twice a period back, less a penalty on the squared log
+    // ratio of that gap to the period. Backtracking from the best frame in the last period
+    // gives beats that sit on onsets where there are any and keep the tempo through gaps.
+    // Beats outside the span from the first to the last onset are dropped.
+    private static int[] trackBeats(float[] envelope, double period, int firstOnset, int lastOnset) {
+        int n = envelope.length;
+        double[] score = new double[n];
+        int[] previous = new int[n];
+        int nearest = (int) Math.round(period / 2);
+        int farthest = (int) Math.round(period * 2);
+        for (int t = 0; t < n; t++) {
+            double best = Double.NEGATIVE_INFINITY;
+            int from = -1;
+            for (int tau = Math.max(0, t - farthest); tau <= t - nearest; tau++) {
+                double ratio = Math.log((t - tau) / period);
+                double candidate = score[tau] - TIGHTNESS * ratio * ratio;
+                if (candidate > best) {
+                    best = candidate;
+                    from = tau;
+                }
+            }
+            score[t] = envelope[t] + (from < 0 ? 0 : Math.max(0, best));
+            previous[t] = from < 0 || best < 0 ? -1 : from;
+        }
+
+        int end = n - 1;
+        for (int t = Math.max(0, n - (int) Math.ceil(period)); t < n; t++) {
+            if (score[t] > score[end]) {
+                end = t;
+            }
+        }
+        List<Integer> backwards = new ArrayList<>();
+        for (int t = end; t >= 0; t = previous[t]) {
+            backwards.add(t);
+        }
+        double slack = period / 2;
+        List<Integer> kept = new ArrayList<>();
+        for (int i = backwards.size() - 1; i >= 0; i--) {
+            int beat = backwards.get(i);
+            if (beat >= firstOnset - slack && beat <= lastOnset + slack) {
+                kept.add(beat);
+            }
+        }
+        int[] beats = new int[kept.size()];
+        for (int i = 0; i < beats.length; i++) {
+            beats[i] = kept.get(i);
+        }
+        return beats;
+    }
+
+    // Envelope frame index to milliseconds into the clip. The flux of an attack peaks when it is
+    // a quarter of a window from the newest sample, where the Hann window rises fastest.
+    private static int frameMillis(int frame) {
+        double attack = (frame + 1) * HOP - FFT_SIZE / 4.0;
+        return (int) Math.max(0, Math.round(attack * 1000.0 / RATE));
+    }
+
+    private static double[] hann(int size) {
+        double[] window = new double[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+        }
+        return window;
+    }
+
+    private static int[] bitReversal(int size) {
+        int bits = Integer.numberOfTrailingZeros(size);
+        int[] reversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        return reversed;
+    }
+
+    private Map<String, Result> loadResults() {
+        if (!Files.exists(resultsPath)) {
+            return Map.of();
+        }
+        try (Reader reader = Files.newBufferedReader(resultsPath)) {
+            Map<String, Result> loaded = gson.fromJson(reader, new TypeToken<Map<String, Result>>() {}.getType());
+            return loaded == null ? Map.of() : loaded;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Map.of();
+        }
+    }
+
+    private synchronized void saveResults() throws IOException {
+        Path directory = resultsPath.getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "beats", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            gson.toJson(byHash, writer);
+        }
+        Files.move(temp, resultsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static final class Result {
+        final double bpm;  // 0 when no steady pulse was found
+        final double confidence;  // Autocorrelation at the beat period over the envelope's energy
+        final int[] beatsMillis;
+        final int[] onsetsMillis;
+        final float[] onsetStrengths;  // Relative to the strongest onset
+        final int frames;
+
+        Result(double bpm, double confidence, int[] beatsMillis, int[] onsetsMillis, float[] onsetStrengths, int frames) {
+            this.bpm = bpm;
+            this.confidence = confidence;
+            this.beatsMillis = beatsMillis;
+            this.onsetsMillis = onsetsMillis;
+            this.onsetStrengths = onsetStrengths;
+            this.frames = frames;
+        }
+    }
+}
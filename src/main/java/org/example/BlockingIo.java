@@ -0,0 +1,212 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Where blocking upstream I/O (NHL API, proxied images, logo SVGs) is allowed to run, so a
+// slow or flooded upstream can never take the threads playback depends on:
+//  - each upstream has a cap on concurrent requests, and all of them together share one
+//    budget that the HTTP pool is sized above; a caller that cannot get a slot quickly is
+//    refused with RejectedExecutionException (a 503 at the HTTP edge) instead of parking
+//    another request thread on a slow host;
+//  - background fetches run on virtual threads when the runtime has them (Java 21+) and on
+//    a small bounded platform pool otherwise, with a cap on accepted work either way.
+// The command thread, the playback timer, the mixer and the light sequencer never run any of it.
+final class BlockingIo {
+    static final int MAX_BLOCKING_CALLS = 32;
+    static final int HOST_CONCURRENCY = 4;
+    private static final int MAX_HOSTS = 32;
+    private static final long ACQUIRE_WAIT_MILLIS = 250;
+    private static final Semaphore BUDGET = new Semaphore(MAX_BLOCKING_CALLS);
+    private static final ConcurrentHashMap<String, Limit> LIMITS = new ConcurrentHashMap<>();
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreads();
+
+    interface Call<T> {
+        T run() throws IOException;
+    }
+
+    private BlockingIo() {
+    }
+
+    static Limit limit(String upstream, int maxConcurrent) {
+        return LIMITS.computeIfAbsent(upstream, name -> new Limit(name, maxConcurrent));
+    }
+
+    // One limit per host for URLs the clients choose; hosts past MAX_HOSTS share a single
+    // limit so arbitrary URLs cannot grow the map or the metric labels.
+    static Limit forHost(String url) {
+        String host;
+        try {
+            host = new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            host = null;
+        }
+        if (host == null) {
+            throw new IllegalArgumentException("Not an absolute URL: " + url);
+        }
+        String key = "host:" + host.toLowerCase(Locale.ROOT);
+        Limit limit = LIMITS.get(key);
+        if (limit != null) {
+            return limit;
+        }
+        return LIMITS.size() < MAX_HOSTS ? limit(key, HOST_CONCURRENCY) : limit("host:other", HOST_CONCURRENCY);
+    }
+
+    // Runs background fetches on virtual threads when available, else on platformThreads
+    // daemon threads; execute() throws RejectedExecutionException past maxPending accepted tasks.
+    static Executor executor(String name, int platformThreads, int maxPending) {
+        Pool pool = new Pool(name, platformThreads, maxPending);
+        Metrics.pool(name, pool);
+        return pool;
+    }
+
+    static boolean virtualThreadsAvailable() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    // Thread.ofVirtual().name(prefix, 0).factory(), looked up reflectively so the same build
+    // runs on Java 17, where there are no virtual threads and the platform pools are used.
+    private static ThreadFactory virtualThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Method name = ofVirtual.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "blocking-io-", 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static final class Limit {
+        private final String name;
+        private final Semaphore permits;
+        private final Metrics.Counter rejected;
+
+        private Limit(String name, int maxConcurrent) {
+            this.name = name;
+            this.permits = new Semaphore(maxConcurrent);
+            this.rejected = Metrics.counter("soundboard_upstream_rejected_total",
+                    "Upstream calls refused because the upstream or the blocking budget was full", "upstream", name);
+            Metrics.gauge("soundboard_upstream_in_flight", "Upstream calls holding a slot",
+                    () -> maxConcurrent - permits.availablePermits(), "upstream", name);
+        }
+
+        // Runs call on this thread once it holds a slot for this upstream and one from the
+        // shared budget. Throws RejectedExecutionException if either stays full for ACQUIRE_WAIT_MILLIS.
+        <T> T call(Call<T> call) throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACQUIRE_WAIT_MILLIS);
+            if (!acquire(permits, deadline)) {
+                rejected.increment();
+                throw new RejectedExecutionException(name + " is at its concurrency limit");
+            }
+            try {
+                if (!acquire(BUDGET, deadline)) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Blocking I/O budget is exhausted");
+                }
+                try {
+                    return call.run();
+                } finally {
+                    BUDGET.release();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        private static boolean acquire(Semaphore semaphore, long deadlineNanos) {
+            try {
+                return semaphore.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static final class Pool implements Executor, Metrics.Pool {
+        private final int maxPending;
+        private final ThreadPoolExecutor platform;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+
+        Pool(String name, int platformThreads, int maxPending) {
+            this.maxPending = maxPending;
+            if (VIRTUAL_THREADS != null) {
+                this.platform = null;
+            } else {
+                // The queue is unbounded here because pending already bounds what is accepted.
+                this.platform = new ThreadPoolExecutor(platformThreads, platformThreads, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                this.platform.allowCoreThreadTimeOut(true);
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (pending.incrementAndGet() > maxPending) {
+                pending.decrementAndGet();
+                throw new RejectedExecutionException("Too many pending fetches");
+            }
+            Runnable tracked = () -> {
+                running.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    running.decrementAndGet();
+                    pending.decrementAndGet();
+                    completed.increment();
+                }
+            };
+            try {
+                if (platform != null) {
+                    platform.execute(tracked);
+                } else {
+                    VIRTUAL_THREADS.newThread(tracked).start();
+                }
+            } catch (RuntimeException e) {
+                pending.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public int threads() {
+            return platform != null ? platform.getPoolSize() : running.get();
+        }
+
+        @Override
+        public int active() {
+            return running.get();
+        }
+
+        @Override
+        public int queued() {
+            return Math.max(0, pending.get() - running.get());
+        }
+
+        @Override
+        public long completed() {
+            return completed.sum();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.example;
+
+import javax.websocket.Session;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+// NTP-style clock sync with the display clients on /client. The server pings each session with
+// its own time; the client answers "pong:<id>:<client time>" and the server keeps the last few
+// exchanges per session, taking the offset from the fastest round trip and sizing trigger
+// lead time from the slowest. Times on the wire are milliseconds on the server's monotonic
+// clock, and every ping carries the client's current offset so it can convert deadlines.
+final class ClockSync {
+    private static final int SAMPLES = 8;
+    private static final int BURST_PINGS = 4;
+    private static final long BURST_SPACING_MILLIS = 150;
+    private static final long PING_INTERVAL_MILLIS = 5000;
+    private static final double SAFETY_MILLIS = 20;
+    private static final double MAX_LEAD_MILLIS = 250;
+    private static final int MAX_OUTSTANDING_PINGS = 16;
+
+    private final long originNanos = System.nanoTime();
+    private final BiConsumer<Session, String> sender;
+    private final ConcurrentHashMap<Session, Peer> peers = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "clock-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ClockSync(BiConsumer<Session, String> sender) {
+        this.sender = sender;
+        Metrics.pool("clock-sync", scheduler);
+        scheduler.scheduleAtFixedRate(() -> peers.keySet().forEach(this::ping),
+                PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // A short burst right away so the first trigger after connecting is already scheduled.
+    void start(Session session) {
+        peers.put(session, new Peer());
+        for (int i = 0; i < BURST_PINGS; i++) {
+            scheduler.schedule(() -> ping(session), i * BURST_SPACING_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void stop(Session session) {
+        peers.remove(session);
+    }
+
+    void onPong(Session session, String payload) {
+        long receivedNanos = System.nanoTime();
+        Peer peer = peers.get(session);
+        String[] parts = payload.split(":");
+        if (peer == null || parts.length != 2) {
+            return;
+        }
+        try {
+            peer.record(Long.parseLong(parts[0]), Double.parseDouble(parts[1]), serverMillis(receivedNanos));
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring malformed pong from " + session.getId() + ": " + payload);
+        }
+    }
+
+    boolean isSynced(Session session) {
+        Peer peer = peers.get(session);
+        return peer != null && peer.isSynced();
+    }
+
+    int syncedCount() {
+        int synced = 0;
+        for (Peer peer : peers.values()) {
+            if (peer.isSynced()) {
+                synced++;
+            }
+        }
+        return synced;
+    }
+
+    // Offset and round trips for the debug dump, or null for a session that is not tracked.
+    Map<String, Object> status(Session session) {
+        Peer peer = peers.get(session);
+        if (peer == null) {
+            return null;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("synced", peer.isSynced());
+        if (peer.isSynced()) {
+            status.put("offsetMillis", peer.offsetMillis());
+            status.put("bestRoundTripMillis", peer.bestRoundTripMillis());
+            status.put("worstRoundTripMillis", peer.worstRoundTripMillis());
+        }
+        return status;
+    }
+
+    // When a trigger issued now should start everywhere: far enough ahead for the slowest synced
+    // client to receive it, or 0 (immediately) when no client is synced.
+    long deadlineNanos() {
+        double worstOneWayMillis = -1;
+        for (Peer peer : peers.values()) {
+            if (peer.isSynced()) {
+                worstOneWayMillis = Math.max(worstOneWayMillis, peer.worstRoundTripMillis() / 2);
+            }
+        }
+        if (worstOneWayMillis < 0) {
+            return 0;
+        }
+        double leadMillis = Math.min(worstOneWayMillis + SAFETY_MILLIS, MAX_LEAD_MILLIS);
+        return System.nanoTime() + Math.round(leadMillis * 1_000_000);
+    }
+
+    double serverMillis(long nanos) {
+        return (nanos - originNanos) / 1_000_000.0;
+    }
+
+    private void ping(Session session) {
+        Peer peer = peers.get(session);
+        if (peer == null) {
+            return;
+        }
+        double now = serverMillis(System.nanoTime());
+        long id = peer.sent(now);
+        StringBuilder message = new StringBuilder(128)
+                .append("{\"type\":\"clock_ping\",\"id\":").append(id)
+                .append(",\"serverTime\":").append(now);
+        if (peer.isSynced()) {
+            message.append(",\"offset\":").append(peer.offsetMillis())
+                    .append(",\"rtt\":").append(peer.bestRoundTripMillis());
+        }
+        sender.accept(session, message.append('}').toString());
+    }
+
+    private static final class Peer {
+        private final Map<Long, Double> outstanding = new LinkedHashMap<>();
+        private final double[] roundTrips = new double[SAMPLES];
+        private final double[] offsets = new double[SAMPLES];
+        private long nextId;
+        private int samples;
+
+        synchronized long sent(double serverTime) {
+            long id = ++nextId;
+            outstanding.put(id, serverTime);
+            if (outstanding.size() > MAX_OUTSTANDING_PINGS) {
+                outstanding.remove(outstanding.keySet().iterator().next());
+            }
+            return id;
+        }
+
+        synchronized void record(long id, double clientTime, double receivedServerTime) {
+            Double sentServerTime = outstanding.remove(id);
+            if (sentServerTime == null) {
+                return;
+            }
+            int slot = samples++ % SAMPLES;
+            roundTrips[slot] = receivedServerTime - sentServerTime;
+            offsets[slot] = clientTime - (sentServerTime + receivedServerTime) / 2;
+        }
+
+        synchronized boolean isSynced() {
+            return samples > 0;
+        }
+
+        synchronized double offsetMillis() {
+            return offsets[fastest()];
+        }
+
+        synchronized double bestRoundTripMillis() {
+            return roundTrips[fastest()];
+        }
+
+        synchronized double worstRoundTripMillis() {
+            double worst = 0;
+            for (int i = 0; i < Math.min(samples, SAMPLES); i++) {
+                worst = Math.max(worst, roundTrips[i]);
+            }
+            return worst;
+        }
+
+        private int fastest() {
+            int best = 0;
+            for (int i = 1; i < Math.min(samples, SAMPLES); i++) {
+                if (roundTrips[i] < roundTrips[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Sits between the sockets and the command thread so bursts from Home Assistant (button
+// bounce, reconnect replays, retries) never turn into restarted clips and stacked fades:
+//  - a command repeated within its debounce window is dropped (the first one wins, so a
+//    push is never delayed);
+//  - a request carrying an idempotency key that was already seen is dropped;
+//  - a release that arrives right after the push it would fade is held for a moment, and a
+//    repeat push inside that window cancels both, so a bouncing button keeps the horn going
+//    and only a release that stands gets through;
+//  - the command queue is bounded, and a full queue rejects rather than buffering a storm.
+// A queued or held command carries its reply along to the dispatcher; a held release that a
+// re-push cancels is answered as coalesced here, and one the full queue turns away as busy.
+final class CommandIngest {
+    static final long DEFAULT_DEBOUNCE_MILLIS = 250;
+    static final long PAIR_WINDOW_MILLIS = 100;
+    private static final long KEY_TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final int MAX_KEYS = 4096;
+    private static final Metrics.Counter QUEUED = outcomeCounter("queued");
+    private static final Metrics.Counter HELD = outcomeCounter("held");
+    private static final Metrics.Counter DEBOUNCED = outcomeCounter("debounced");
+    private static final Metrics.Counter DUPLICATES = outcomeCounter("duplicate");
+    private static final Metrics.Counter MERGED = outcomeCounter("merged");
+    private static final Metrics.Counter DROPPED = outcomeCounter("dropped");
+
+    enum Outcome { QUEUED, HELD, DEBOUNCED, DUPLICATE, MERGED, DROPPED }
+
+    interface Dispatcher {
+        void dispatch(String command, long startAtNanos, long receivedNanos, CommandProtocol.Reply reply);
+    }
+
+    private final ThreadPoolExecutor commands;
+    private final ScheduledExecutorService timer;
+    private final Supplier<RoleRegistry.Snapshot> roles;
+    private final LongSupplier deadline;
+    private final Dispatcher dispatcher;
+    private final Map<String, Long> debounceNanos;
+    private final long retainNanos;  // The longest window a lastQueued entry can still matter for
+    private final Map<String, Long> lastQueued = new HashMap<>();
+    private boolean pruned;
+    private long prunedAtNanos;
+    private final Map<String, HeldRelease> held = new HashMap<>();
+    private final LinkedHashMap<String, Long> keys = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+
+    CommandIngest(ThreadPoolExecutor commands, ScheduledExecutorService timer, Supplier<RoleRegistry.Snapshot> roles,
+                  LongSupplier deadline, Dispatcher dispatcher, Map<String, Long> debounceMillis) {
+        this.commands = commands;
+        this.timer = timer;
+        this.roles = roles;
+        this.deadline = deadline;
+        this.dispatcher = dispatcher;
+        this.debounceNanos = new HashMap<>();
+        debounceMillis.forEach((command, millis) -> debounceNanos.put(command, TimeUnit.MILLISECONDS.toNanos(millis)));
+        long retain = Math.max(DEFAULT_DEBOUNCE_MILLIS, PAIR_WINDOW_MILLIS);
+        for (long millis : debounceMillis.values()) {
+            retain = Math.max(retain, millis);
+        }
+        this.retainNanos = TimeUnit.MILLISECONDS.toNanos(retain);
+    }
+
+    // Decides what happens to one command; queued and held commands run on the command thread.
+    // reply (null if nobody waits) is only taken for QUEUED and HELD; other outcomes are the
+    // caller's to answer.
+    synchronized Outcome offer(String command, String key, long startAtNanos, long receivedNanos, CommandProtocol.Reply reply) {
+        if (key != null) {
+            Long seen = keys.get(key);
+            if (seen != null && receivedNanos - seen < KEY_TTL_NANOS) {
+                DUPLICATES.increment();
+                return Outcome.DUPLICATE;
+            }
+        }
+
+        RoleRegistry.Snapshot snapshot = roles.get();
+        HeldRelease cancelled = heldReleaseFor(snapshot, command);
+        if (cancelled != null) {
+            cancelled.timeout.cancel(false);
+            held.remove(cancelled.command);
+            MERGED.add(2);
+            if (cancelled.reply != null) {
+                cancelled.reply.send(CommandProtocol.STATUS_COALESCED, CommandProtocol.UNKNOWN_LATENCY);
+            }
+            remember(key, receivedNanos);
+            return Outcome.MERGED;
+        }
+
+        Long last = lastQueued.get(command);
+        long window = debounceNanos(command);
+        if (held.containsKey(command) || (last != null && window > 0 && receivedNanos - last < window)) {
+            DEBOUNCED.increment();
+            return Outcome.DEBOUNCED;
+        }
+
+        if (isRelease(snapshot, command) && followsPush(snapshot, command, receivedNanos)) {
+            HeldRelease release = new HeldRelease(command, receivedNanos, reply);
+            release.timeout = timer.schedule(() -> releaseHeld(release), PAIR_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            held.put(command, release);
+            HELD.increment();
+            remember(key, receivedNanos);
+            return Outcome.HELD;
+        }
+
+        if (!enqueue(command, startAtNanos, receivedNanos, reply)) {
+            return Outcome.DROPPED;
+        }
+        remember(key, receivedNanos);
+        return Outcome.QUEUED;
+    }
+
+    private synchronized void releaseHeld(HeldRelease release) {
+        if (held.get(release.command) == release) {
+            held.remove(release.command);
+            if (!enqueue(release.command, deadline.getAsLong(), release.receivedNanos, release.reply) && release.reply != null) {
+                release.reply.send(CommandProtocol.STATUS_BUSY, CommandProtocol.UNKNOWN_LATENCY);
+            }
+        }
+    }
+
+    private boolean enqueue(String command, long startAtNanos, long receivedNanos, CommandProtocol.Reply reply) {
+        try {
+            commands.execute(() -> dispatcher.dispatch(command, startAtNanos, receivedNanos, reply));
+        } catch (RejectedExecutionException e) {
+            DROPPED.increment();
+            return false;
+        }
+        prune(receivedNanos);
+        lastQueued.put(command, receivedNanos);
+        QUEUED.increment();
+        return true;
+    }
+
+    // Drops entries too old for any debounce or pair window, at most once per retain period,
+    // so the map and the followsPush scan only ever hold recently queued commands.
+    private void prune(long nowNanos) {
+        if (pruned && nowNanos - prunedAtNanos < retainNanos) {
+            return;
+        }
+        pruned = true;
+        prunedAtNanos = nowNanos;
+        lastQueued.values().removeIf(queued -> nowNanos - queued >= retainNanos);
+    }
+
+    private void remember(String key, long receivedNanos) {
+        if (key != null) {
+            keys.put(key, receivedNanos);
+        }
+    }
+
+    private long debounceNanos(String command) {
+        Long window = debounceNanos.get(command);
+        return window != null ? window : TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    // A held release that this command, as a push of one of the roles it fades, cancels.
+    private HeldRelease heldReleaseFor(RoleRegistry.Snapshot snapshot, String push) {
+        if (held.isEmpty()) {
+            return null;
+        }
+        for (HeldRelease release : held.values()) {
+            if (pairs(snapshot, push, release.command)) {
+                return release;
+            }
+        }
+        return null;
+    }
+
+    // Whether a push this release pairs with was queued within the pair window.
+    private boolean followsPush(RoleRegistry.Snapshot snapshot, String release, long receivedNanos) {
+        long window = TimeUnit.MILLISECONDS.toNanos(PAIR_WINDOW_MILLIS);
+        for (Map.Entry<String, Long> queued : lastQueued.entrySet()) {
+            if (receivedNanos - queued.getValue() < window && pairs(snapshot, queued.getKey(), release)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A release only fades, and fades at least one role the push plays.
+    private static boolean pairs(RoleRegistry.Snapshot snapshot, String push, String release) {
+        if (push.equals(release)) {
+            return false;
+        }
+        List<RoleRegistry.Binding> plays = snapshot.bindingsFor(push);
+        List<RoleRegistry.Binding> fades = snapshot.bindingsFor(release);
+        for (int i = 0; i < plays.size(); i++) {
+            if (plays.get(i).action != RoleRegistry.Action.PLAY) {
+                continue;
+            }
+            for (int j = 0; j < fades.size(); j++) {
+                if (fades.get(j).role == plays.get(i).role) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRelease(RoleRegistry.Snapshot snapshot, String command) {
+        List<RoleRegistry.Binding> bindings = snapshot.bindingsFor(command);
+        for (int i = 0; i < bindings.size(); i++) {
+            if (bindings.get(i).action != RoleRegistry.Action.FADE) {
+                return false;
+            }
+        }
+        return !bindings.isEmpty();
+    }
+
+    // SOUNDBOARD_COMMAND_DEBOUNCE: comma-separated command=millis overrides of the default window.
+    static Map<String, Long> debounceWindows(String spec) {
+        Map<String, Long> windows = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return windows;
+        }
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split("=", 2);
+            try {
+                long millis = Long.parseLong(parts.length == 2 ? parts[1].trim() : "");
+                if (parts[0].isBlank() || millis < 0) {
+                    throw new NumberFormatException();
+                }
+                windows.put(parts[0].trim(), millis);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected command=millis, got " + entry);
+            }
+        }
+        return windows;
+    }
+
+    private static Metrics.Counter outcomeCounter(String outcome) {
+        return Metrics.counter("soundboard_ingest_commands_total", "Commands by what the ingest stage did with them", "outcome", outcome);
+    }
+
+    private static final class HeldRelease {
+        final String command;
+        final long receivedNanos;
+        final CommandProtocol.Reply reply;
+        ScheduledFuture<?> timeout;
+
+        HeldRelease(String command, long receivedNanos, CommandProtocol.Reply reply) {
+            this.command = command;
+            this.receivedNanos = receivedNanos;
+            this.reply = reply;
+        }
+    }
+}
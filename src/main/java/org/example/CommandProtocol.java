@@ -0,0 +1,274 @@
+package org.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Versioned command protocol for /soundboard, next to the legacy text commands. Version 1
+// commands carry an id and the client's timestamp and are acknowledged one by one with the
+// server's receive-to-audio-start latency, either as JSON text or as fixed big-endian frames:
+//   request: u8 version, u8 command code, u32 id, i64 client timestamp millis      (14 bytes)
+//   ack:     u8 version, u8 status, u32 id, i64 client timestamp millis,
+//            u32 receive-to-audio-start micros (0xFFFFFFFF if unknown)             (18 bytes)
+// Plain strings such as "goal_push_panthers" are version 0 and are not acknowledged. A JSON
+// command may carry an idempotency "key"; a retry with a key already seen is acked as a
+// duplicate and not run again. Commands the ingest stage debounces or merges, and ones a
+// later command stopped before they were heard, are acked as coalesced; ones it rejects
+// because the command queue is full as busy, and ones not applied in time as timeout.
+//
+// POST /api/commands takes the same commands over HTTP, one or a batch per request, as JSON
+// ({"cmd":..}, {"commands":[..]} or a bare array, each entry a command name or an object with
+// cmd and optional id and key) or as a form with repeated cmd fields. An Idempotency-Key
+// header keys a single command, or each command of a batch by its index. A command whose
+// outcome is not known by the time the response has to go out is reported as timeout; it
+// may still have run.
+final class CommandProtocol {
+    static final int VERSION = 1;
+    static final int REQUEST_BYTES = 14;
+    static final int ACK_BYTES = 18;
+    static final int STATUS_OK = 0;
+    static final int STATUS_UNKNOWN_COMMAND = 1;
+    static final int STATUS_MALFORMED = 2;
+    static final int STATUS_DUPLICATE = 3;
+    static final int STATUS_COALESCED = 4;
+    static final int STATUS_BUSY = 5;
+    static final int STATUS_TIMEOUT = 6;
+    static final long UNKNOWN_LATENCY = -1;
+    static final int MAX_BATCH = 32;
+    private static final String[] STATUS_NAMES = {"ok", "unknown_command", "malformed", "duplicate", "coalesced", "busy", "timeout"};
+
+    enum Command {
+        GOAL_PUSH_PANTHERS(1, "goal_push_panthers"),
+        GOAL_RELEASE(2, "goal_release"),
+        PANTHER_SONG(3, "panther_song"),
+        ALTERNATE_SONG(4, "alternate_song"),
+        GOAL_PUSH_ALTERNATE(5, "goal_push_alternate"),
+        ALL_STOP(6, "all_stop");
+
+        private static final Command[] BY_CODE = new Command[7];
+
+        static {
+            for (Command command : values()) {
+                BY_CODE[command.code] = command;
+            }
+        }
+
+        final int code;
+        final String wireName;
+
+        Command(int code, String wireName) {
+            this.code = code;
+            this.wireName = wireName;
+        }
+
+        static Command coded(int code) {
+            return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+    }
+
+    private CommandProtocol() {
+    }
+
+    // Parses a text frame: JSON {"v":1,"id":..,"cmd":"..","ts":..} or a legacy command string.
+    static Request parseText(String message, long receivedNanos) {
+        String trimmed = message.trim();
+        if (!trimmed.startsWith("{")) {
+            return new Request(0, 0, trimmed, 0, null, false, receivedNanos);
+        }
+
+        // Fields must be primitives (Gson would otherwise unwrap ["all_stop"]), and a field of the
+        // wrong shape, e.g. {"cmd":{}}, {"cmd":null} or {"v":"x"}, throws one of several unchecked
+        // types from Gson; all of them are a malformed frame to the caller.
+        int version;
+        String name;
+        long id;
+        long clientTimestamp;
+        String key;
+        try {
+            JsonObject json = JsonParser.parseString(trimmed).getAsJsonObject();
+            version = json.has("v") ? json.getAsJsonPrimitive("v").getAsInt() : 0;
+            name = json.has("cmd") ? json.getAsJsonPrimitive("cmd").getAsString().toLowerCase(Locale.ROOT) : null;
+            id = json.has("id") ? json.getAsJsonPrimitive("id").getAsLong() : 0;
+            clientTimestamp = json.has("ts") ? json.getAsJsonPrimitive("ts").getAsLong() : 0;
+            key = json.has("key") && !json.get("key").isJsonNull() ? json.getAsJsonPrimitive("key").getAsString() : null;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed command JSON");
+        }
+        if (version != VERSION || name == null) {
+            throw new IllegalArgumentException("Expected {\"v\":" + VERSION + ",\"id\":..,\"cmd\":..}");
+        }
+        return new Request(VERSION, id, name, clientTimestamp, key, false, receivedNanos);
+    }
+
+    static List<Request> parseHttpJson(String body, String idempotencyKey, long receivedNanos) {
+        JsonElement json;
+        try {
+            json = JsonParser.parseString(body == null ? "" : body);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed command JSON");
+        }
+        JsonArray entries;
+        if (json.isJsonArray()) {
+            entries = json.getAsJsonArray();
+        } else if (json.isJsonObject() && json.getAsJsonObject().has("commands") && json.getAsJsonObject().get("commands").isJsonArray()) {
+            entries = json.getAsJsonObject().getAsJsonArray("commands");
+        } else if (json.isJsonObject()) {
+            entries = new JsonArray();
+            entries.add(json);
+        } else {
+            throw new IllegalArgumentException("Expected {\"cmd\":..}, {\"commands\":[..]} or [..]");
+        }
+        checkBatchSize(entries.size());
+
+        List<Request> requests = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            JsonElement entry = entries.get(i);
+            String name;
+            long id = i + 1;
+            String key = null;
+            try {
+                if (entry.isJsonPrimitive()) {
+                    name = entry.getAsString();
+                } else {
+                    JsonObject command = entry.getAsJsonObject();
+                    name = command.get("cmd").getAsString();
+                    id = command.has("id") ? command.get("id").getAsLong() : id;
+                    key = command.has("key") && !command.get("key").isJsonNull() ? command.get("key").getAsString() : null;
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Command " + (i + 1) + " has no cmd");
+            }
+            requests.add(httpRequest(name, id, key != null ? key : batchKey(idempotencyKey, i, entries.size()), receivedNanos));
+        }
+        return requests;
+    }
+
+    static List<Request> parseHttpForm(String[] names, String idempotencyKey, long receivedNanos) {
+        if (names == null) {
+            throw new IllegalArgumentException("Expected one or more cmd fields");
+        }
+        checkBatchSize(names.length);
+        List<Request> requests = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            requests.add(httpRequest(names[i], i + 1, batchKey(idempotencyKey, i, names.length), receivedNanos));
+        }
+        return requests;
+    }
+
+    private static Request httpRequest(String name, long id, String key, long receivedNanos) {
+        String normalized = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Empty command name");
+        }
+        return new Request(VERSION, id, normalized, 0, key, false, receivedNanos);
+    }
+
+    private static String batchKey(String idempotencyKey, int index, int size) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return null;
+        }
+        return size == 1 ? idempotencyKey : idempotencyKey + "#" + index;
+    }
+
+    private static void checkBatchSize(int size) {
+        if (size == 0 || size > MAX_BATCH) {
+            throw new IllegalArgumentException("Send between 1 and " + MAX_BATCH + " commands");
+        }
+    }
+
+    static Request parseBinary(ByteBuffer frame, long receivedNanos) {
+        ByteBuffer buffer = frame.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() != REQUEST_BYTES || (buffer.get(buffer.position()) & 0xFF) != VERSION) {
+            throw new IllegalArgumentException("Expected a " + REQUEST_BYTES + "-byte version " + VERSION + " command frame");
+        }
+        buffer.get();
+        int code = buffer.get() & 0xFF;
+        long id = buffer.getInt() & 0xFFFFFFFFL;
+        long clientTimestamp = buffer.getLong();
+        Command command = Command.coded(code);
+        return new Request(VERSION, id, command == null ? "code:" + code : command.wireName, clientTimestamp, null, true, receivedNanos);
+    }
+
+    static String textAck(Request request, int status, long latencyMicros) {
+        JsonObject ack = new JsonObject();
+        ack.addProperty("type", "ack");
+        ack.addProperty("v", VERSION);
+        ack.addProperty("id", request.id);
+        ack.addProperty("cmd", request.name);
+        ack.addProperty("status", STATUS_NAMES[status]);
+        ack.addProperty("clientTs", request.clientTimestampMillis);
+        ack.addProperty("serverTimeMillis", System.currentTimeMillis());
+        if (latencyMicros != UNKNOWN_LATENCY) {
+            ack.addProperty("audioStartMicros", latencyMicros);
+        }
+        return ack.toString();
+    }
+
+    // One command's entry in the POST /api/commands response.
+    static JsonObject httpResult(Request request, int status, long latencyMicros) {
+        JsonObject result = new JsonObject();
+        result.addProperty("id", request.id);
+        result.addProperty("cmd", request.name);
+        result.addProperty("status", STATUS_NAMES[status]);
+        if (latencyMicros != UNKNOWN_LATENCY) {
+            result.addProperty("audioStartMicros", latencyMicros);
+        }
+        return result;
+    }
+
+    static String malformedTextAck(String error) {
+        JsonObject ack = new JsonObject();
+        ack.addProperty("type", "ack");
+        ack.addProperty("v", VERSION);
+        ack.addProperty("status", STATUS_NAMES[STATUS_MALFORMED]);
+        ack.addProperty("error", error);
+        return ack.toString();
+    }
+
+    static ByteBuffer binaryAck(long id, long clientTimestampMillis, int status, long latencyMicros) {
+        ByteBuffer ack = ByteBuffer.allocate(ACK_BYTES).order(ByteOrder.BIG_ENDIAN);
+        ack.put((byte) VERSION);
+        ack.put((byte) status);
+        ack.putInt((int) id);
+        ack.putLong(clientTimestampMillis);
+        ack.putInt(latencyMicros == UNKNOWN_LATENCY ? -1 : (int) Math.min(latencyMicros, 0xFFFFFFFEL));
+        ack.flip();
+        return ack;
+    }
+
+    // Where the outcome of one command goes: a WebSocket ack or an HTTP response.
+    interface Reply {
+        void send(int status, long latencyMicros);
+    }
+
+    static final class Request {
+        final int version;
+        final long id;
+        final String name;
+        final long clientTimestampMillis;
+        final String key;  // Idempotency key, if the client sent one
+        final boolean binary;
+        final long receivedNanos;
+
+        Request(int version, long id, String name, long clientTimestampMillis, String key, boolean binary, long receivedNanos) {
+            this.version = version;
+            this.id = id;
+            this.name = name;
+            this.clientTimestampMillis = clientTimestampMillis;
+            this.key = key;
+            this.binary = binary;
+            this.receivedNanos = receivedNanos;
+        }
+
+        boolean wantsAck() {
+            return version >= VERSION;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+// Versioned copy of what the displays should be showing: which roles are playing or fading,
+// the active goal video and the last goal. Every change bumps the version and keeps its field
+// changes in a ring buffer, so a reconnecting client that sends the last version it saw gets
+// the merged changes it missed, or a full snapshot once those have aged out. The score is not
+// kept here: it belongs to the game a display watches, and GamePoller resends it on subscribe.
+final class DisplayState {
+    static final String PLAYING = "playing";
+    static final String FADING = "fading";
+    private static final int HISTORY = 256;
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();  // Cleared fields are sent as null
+
+    private final long epoch = System.currentTimeMillis();  // Versions restart with the server
+    private final JsonObject[] history = new JsonObject[HISTORY];
+    private final Map<String, String> voices = new TreeMap<>();
+    private long version;
+    private String activeVideo;
+    private JsonObject lastGoal;
+
+    // Each mutator returns the state_delta message to broadcast, or null if nothing changed.
+    synchronized String voice(String role, String status) {
+        String previous = status == null ? voices.remove(role) : voices.put(role, status);
+        if (status == null ? previous == null : status.equals(previous)) {
+            return null;
+        }
+        JsonObject changes = new JsonObject();
+        changes.addProperty("voice:" + role, status);
+        return record(changes);
+    }
+
+    synchronized String video(String video) {
+        if (video == null ? activeVideo == null : video.equals(activeVideo)) {
+            return null;
+        }
+        activeVideo = video;
+        JsonObject changes = new JsonObject();
+        changes.addProperty("activeVideo", video);
+        return record(changes);
+    }
+
+    synchronized String goal(String team, String video) {
+        activeVideo = video;
+        lastGoal = new JsonObject();
+        lastGoal.addProperty("team", team);
+        lastGoal.addProperty("video", video);
+        lastGoal.addProperty("serverTimeMillis", System.currentTimeMillis());
+        JsonObject changes = new JsonObject();
+        changes.addProperty("activeVideo", video);
+        changes.add("lastGoal", lastGoal);
+        return record(changes);
+    }
+
+    // Voices finish on the render thread without telling anyone, so callers pass the current
+    // playing check and finished roles are dropped before answering.
+    synchronized String resume(long lastEpoch, long lastVersion, Predicate<String> stillPlaying) {
+        voices.keySet().removeIf(role -> {
+            if (stillPlaying.test(role)) {
+                return false;
+            }
+            JsonObject changes = new JsonObject();
+            changes.add("voice:" + role, JsonNull.INSTANCE);
+            record(changes);
+            return true;
+        });
+
+        long oldest = version - Math.min(version, HISTORY) + 1;
+        if (lastEpoch != epoch || lastVersion <= 0 || lastVersion > version || lastVersion + 1 < oldest) {
+            return snapshot();
+        }
+
+        JsonObject merged = new JsonObject();
+        for (long v = lastVersion + 1; v <= version; v++) {
+            for (Map.Entry<String, JsonElement> change : history[(int) (v % HISTORY)].entrySet()) {
+                merged.add(change.getKey(), change.getValue());
+            }
+        }
+        return delta(lastVersion, merged, true);
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    synchronized String snapshot() {
+        JsonObject state = new JsonObject();
+        JsonObject voiceStates = new JsonObject();
+        voices.forEach(voiceStates::addProperty);
+        state.add("voices", voiceStates);
+        state.addProperty("activeVideo", activeVideo);
+        state.add("lastGoal", lastGoal);
+
+        JsonObject message = new JsonObject();
+        message.addProperty("type", "state_snapshot");
+        message.addProperty("epoch", epoch);
+        message.addProperty("version", version);
+        message.add("state", state);
+        return GSON.toJson(message);
+    }
+
+    private String record(JsonObject changes) {
+        long baseVersion = version++;
+        history[(int) (version % HISTORY)] = changes;
+        return delta(baseVersion, changes, false);
+    }
+
+    private String delta(long baseVersion, JsonObject changes, boolean replay) {
+        JsonObject message = new JsonObject();
+        message.addProperty("type", "state_delta");
+        message.addProperty("epoch", epoch);
+        message.addProperty("baseVersion", baseVersion);
+        message.addProperty("version", version);
+        message.addProperty("replay", replay);
+        message.add("changes", changes);
+        return GSON.toJson(message);
+    }
+}
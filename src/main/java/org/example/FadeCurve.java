@@ -0,0 +1,41 @@
+package org.example;
+
+// Gain trajectories for Voice fades. Each curve maps fade progress (0..1) to a linear gain
+// between the start and target values and lands exactly on the target at progress 1.
+enum FadeCurve {
+    LINEAR {
+        @Override
+        float gainAt(float from, float to, double progress) {
+            return (float) (from + (to - from) * progress);
+        }
+    },
+    EQUAL_POWER {
+        @Override
+        float gainAt(float from, float to, double progress) {
+            if (to < from) {
+                return (float) (to + (from - to) * Math.cos(progress * Math.PI / 2));
+            }
+            return (float) (from + (to - from) * Math.sin(progress * Math.PI / 2));
+        }
+    },
+    // Straight line in decibels, which is what the old MASTER_GAIN step loop produced.
+    EXPONENTIAL {
+        @Override
+        float gainAt(float from, float to, double progress) {
+            if (progress >= 1.0) {
+                return to;
+            }
+            double fromDb = toDb(from);
+            double toDb = toDb(to);
+            return (float) Math.pow(10.0, (fromDb + (toDb - fromDb) * progress) / 20.0);
+        }
+    };
+
+    private static final double SILENCE_DB = -80.0;
+
+    abstract float gainAt(float from, float to, double progress);
+
+    private static double toDb(float gain) {
+        return gain <= 0f ? SILENCE_DB : Math.max(SILENCE_DB, 20.0 * Math.log10(gain));
+    }
+}
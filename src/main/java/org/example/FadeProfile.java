@@ -0,0 +1,24 @@
+package org.example;
+
+// Per-role fade settings, stored in the sound selection config.
+final class FadeProfile {
+    static final FadeProfile DEFAULT = new FadeProfile(FadeCurve.EXPONENTIAL, 2000, 150);
+
+    FadeCurve curve;
+    long millis;
+    long reverseMillis;  // Time to ramp back to full gain when a trigger interrupts a fade-out
+
+    FadeProfile(FadeCurve curve, long millis, long reverseMillis) {
+        this.curve = curve;
+        this.millis = millis;
+        this.reverseMillis = reverseMillis;
+    }
+
+    FadeProfile withDefaults() {
+        return new FadeProfile(
+                curve == null ? DEFAULT.curve : curve,
+                millis <= 0 ? DEFAULT.millis : millis,
+                reverseMillis <= 0 ? DEFAULT.reverseMillis : reverseMillis
+        );
+    }
+}
@@ -0,0 +1,85 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Java Flight Recorder events, so a recording taken during a game (jcmd <pid> JFR.start)
+// lines commands up with GC pauses, safepoints and thread activity. Commands are committed as
+// they are dispatched; voice and session state is sampled once a second while recording.
+final class FlightEvents {
+    private FlightEvents() {
+    }
+
+    // hooks run on the recorder's thread and emit one VoiceState or SessionState per item.
+    static void registerPeriodic(Runnable voiceHook, Runnable sessionHook) {
+        FlightRecorder.addPeriodicEvent(VoiceState.class, voiceHook);
+        FlightRecorder.addPeriodicEvent(SessionState.class, sessionHook);
+    }
+
+    @Name("org.example.Command")
+    @Label("Soundboard Command")
+    @Category("Soundboard")
+    @StackTrace(false)
+    static final class Command extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Known")
+        boolean known;
+
+        @Label("Queue Wait")
+        @Timespan
+        long queuedNanos;
+
+        @Label("Start Delay")
+        @Timespan
+        long startDelayNanos;
+    }
+
+    @Name("org.example.VoiceState")
+    @Label("Voice State")
+    @Category("Soundboard")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class VoiceState extends Event {
+        @Label("Role")
+        String role;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Generation")
+        long generation;
+    }
+
+    @Name("org.example.SessionState")
+    @Label("WebSocket Session")
+    @Category("Soundboard")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class SessionState extends Event {
+        @Label("Session")
+        String session;
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Clock Synced")
+        boolean synced;
+
+        @Label("Pending Messages")
+        int pending;
+
+        @Label("Sent Messages")
+        long sent;
+
+        @Label("Dropped Messages")
+        long dropped;
+    }
+}
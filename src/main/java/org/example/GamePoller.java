@@ -0,0 +1,262 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Polls one game's play-by-play and landing documents on an adaptive schedule and pushes
+// only what changed to the subscribed /client sessions. New subscribers get one snapshot,
+// after which they receive game_delta messages with new or changed plays, clock and score.
+final class GamePoller {
+    private static final long LIVE_MILLIS = 2000;
+    private static final long STOPPAGE_MILLIS = 4000;
+    private static final long INTERMISSION_MILLIS = 15000;
+    private static final long PREGAME_MILLIS = 30000;
+    private static final long FINAL_MILLIS = 60000;
+    private static final String[] LANDING_FIELDS = {
+            "homeTeam", "awayTeam", "gameState", "gameScheduleState", "periodDescriptor", "period", "clock", "timeRemaining"
+    };
+
+    private final String gameId;
+    private final ScheduledExecutorService scheduler;
+    private final Function<String, String> playByPlayFetcher;
+    private final Function<String, String> landingFetcher;
+    private final Sender sender;
+    private final Consumer<List<String>> rosterListener;
+    private final Gson gson;
+    private final Set<Session> subscribers = ConcurrentHashMap.newKeySet();
+    private final Set<Session> needSnapshot = ConcurrentHashMap.newKeySet();
+    private final Map<String, JsonElement> plays = new HashMap<>();
+    private JsonObject lastPlayByPlay;
+    private JsonObject lastLanding;
+    private JsonObject lastClockAndScore;
+    private long version;
+    private volatile ScheduledFuture<?> nextPoll;
+    private volatile boolean running;
+
+    GamePoller(String gameId, ScheduledExecutorService scheduler, Function<String, String> playByPlayFetcher,
+               Function<String, String> landingFetcher, Sender sender,
+               Consumer<List<String>> rosterListener, Gson gson) {
+        this.gameId = gameId;
+        this.scheduler = scheduler;
+        this.playByPlayFetcher = playByPlayFetcher;
+        this.landingFetcher = landingFetcher;
+        this.sender = sender;
+        this.rosterListener = rosterListener;
+        this.gson = gson;
+    }
+
+    String gameId() {
+        return gameId;
+    }
+
+    synchronized void subscribe(Session session) {
+        subscribers.add(session);
+        needSnapshot.add(session);
+        if (!running) {
+            running = true;
+            nextPoll = scheduler.schedule(this::poll, 0, TimeUnit.MILLISECONDS);
+        } else if (lastPlayByPlay != null) {
+            sendSnapshots();
+        }
+    }
+
+    // Returns true when the last subscriber left and the poller stopped.
+    synchronized boolean unsubscribe(Session session) {
+        subscribers.remove(session);
+        needSnapshot.remove(session);
+        if (subscribers.isEmpty()) {
+            running = false;
+            ScheduledFuture<?> scheduled = nextPoll;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void poll() {
+        long delay = PREGAME_MILLIS;
+        try {
+            delay = pollOnce();
+        } catch (Exception e) {
+            System.out.println("Game poll failed for " + gameId + ": " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                if (running) {
+                    nextPoll = scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    // Upstream I/O happens outside the lock so subscribing never waits on the network.
+    private long pollOnce() {
+        String playByPlayBody = playByPlayFetcher.apply(gameId);
+        String landingBody = landingFetcher.apply(gameId);
+        return apply(playByPlayBody, landingBody);
+    }
+
+    private synchronized long apply(String playByPlayBody, String landingBody) {
+        if (playByPlayBody == null) {
+            return STOPPAGE_MILLIS;
+        }
+
+        JsonObject playByPlay = JsonParser.parseString(playByPlayBody).getAsJsonObject();
+        JsonObject landing = landingBody == null ? lastLanding : trimLanding(JsonParser.parseString(landingBody).getAsJsonObject());
+
+        JsonArray changedPlays = new JsonArray();
+        JsonArray allPlays = playByPlay.has("plays") ? playByPlay.getAsJsonArray("plays") : new JsonArray();
+        for (JsonElement play : allPlays) {
+            String eventId = play.getAsJsonObject().get("eventId").getAsString();
+            JsonElement previous = plays.put(eventId, play);
+            if (!play.equals(previous)) {
+                changedPlays.add(play);
+            }
+        }
+
+        JsonObject clockAndScore = clockAndScore(playByPlay);
+        boolean landingChanged = landing != null && !landing.equals(lastLanding);
+        boolean clockChanged = !clockAndScore.equals(lastClockAndScore);
+        boolean firstPoll = lastPlayByPlay == null;
+        lastPlayByPlay = playByPlay;
+        lastLanding = landing;
+        lastClockAndScore = clockAndScore;
+
+        if (firstPoll) {
+            rosterListener.accept(rosterPlayerIds(playByPlay));
+        }
+        if (!firstPoll && (changedPlays.size() > 0 || landingChanged || clockChanged)) {
+            version++;
+            JsonObject delta = clockAndScore.deepCopy();
+            delta.addProperty("type", "game_delta");
+            delta.addProperty("gameId", gameId);
+            delta.addProperty("version", version);
+            delta.add("plays", changedPlays);
+            if (landingChanged) {
+                delta.add("landing", landing);
+            }
+            String message = gson.toJson(delta);
+            // A clock/score-only delta is superseded by the next one, so queues may coalesce it
+            String coalesceKey = changedPlays.size() == 0 && !landingChanged ? "game_clock:" + gameId : null;
+            for (Session session : subscribers) {
+                if (!needSnapshot.contains(session)) {
+                    sender.send(session, coalesceKey, message);
+                }
+            }
+        }
+        sendSnapshots();
+        return nextDelayMillis(playByPlay);
+    }
+
+    private void sendSnapshots() {
+        if (needSnapshot.isEmpty() || lastPlayByPlay == null) {
+            return;
+        }
+        JsonObject snapshot = new JsonObject();
+        snapshot.addProperty("type", "game_snapshot");
+        snapshot.addProperty("gameId", gameId);
+        snapshot.addProperty("version", version);
+        snapshot.add("playByPlay", lastPlayByPlay);
+        if (lastLanding != null) {
+            snapshot.add("landing", lastLanding);
+        }
+        String message = gson.toJson(snapshot);
+        for (Session session : needSnapshot) {
+            needSnapshot.remove(session);
+            sender.send(session, null, message);
+        }
+    }
+
+    private static JsonObject clockAndScore(JsonObject playByPlay) {
+        JsonObject result = new JsonObject();
+        copy(playByPlay, result, "gameState");
+        copy(playByPlay, result, "clock");
+        copy(playByPlay, result, "periodDescriptor");
+        for (String side : new String[] {"homeTeam", "awayTeam"}) {
+            if (playByPlay.has(side)) {
+                JsonObject team = playByPlay.getAsJsonObject(side);
+                JsonObject teamScore = new JsonObject();
+                copy(team, teamScore, "score");
+                copy(team, teamScore, "sog");
+                result.add(side, teamScore);
+            }
+        }
+        return result;
+    }
+
+    interface Sender {
+        void send(Session session, String coalesceKey, String message);
+    }
+
+    private static List<String> rosterPlayerIds(JsonObject playByPlay) {
+        List<String> ids = new ArrayList<>();
+        if (playByPlay.has("rosterSpots")) {
+            for (JsonElement spot : playByPlay.getAsJsonArray("rosterSpots")) {
+                JsonObject player = spot.getAsJsonObject();
+                if (player.has("playerId")) {
+                    ids.add(player.get("playerId").getAsString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static JsonObject trimLanding(JsonObject landing) {
+        JsonObject trimmed = new JsonObject();
+        for (String field : LANDING_FIELDS) {
+            copy(landing, trimmed, field);
+        }
+        if (landing.has("summary") && landing.getAsJsonObject("summary").has("teamGameStats")) {
+            JsonObject summary = new JsonObject();
+            summary.add("teamGameStats", landing.getAsJsonObject("summary").get("teamGameStats"));
+            trimmed.add("summary", summary);
+        }
+        return trimmed;
+    }
+
+    private static void copy(JsonObject from, JsonObject to, String field) {
+        if (from.has(field)) {
+            to.add(field, from.get(field));
+        }
+    }
+
+    // Fast while the puck is in play, slower during stoppages and intermissions, and slow
+    // before and after the game.
+    private static long nextDelayMillis(JsonObject playByPlay) {
+        String state = playByPlay.has("gameState") ? playByPlay.get("gameState").getAsString() : "";
+        switch (state) {
+            case "LIVE":
+            case "CRIT":
+                JsonObject clock = playByPlay.has("clock") ? playByPlay.getAsJsonObject("clock") : new JsonObject();
+                if (clock.has("inIntermission") && clock.get("inIntermission").getAsBoolean()) {
+                    return INTERMISSION_MILLIS;
+                }
+                if (clock.has("running") && clock.get("running").getAsBoolean()) {
+                    return LIVE_MILLIS;
+                }
+                return STOPPAGE_MILLIS;
+            case "FINAL":
+            case "OFF":
+                return FINAL_MILLIS;
+            default:
+                return PREGAME_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Light cues locked to the audio. Each role can have a timeline (<role>.json in the timeline
+// directory) of cues at millisecond offsets into its file, plus an optional beat pattern that
+// deals a shuffled palette across the lights on every beat. Every tick the sequencer reads
+// where each playing voice actually is (from the moment the render thread made it audible,
+// not from when the tick was meant to run) and sends everything that came due as one batch,
+// keeping only the latest state per light, so a late tick lands on the current beat rather
+// than replaying the ones it missed. A pattern that follows the beats uses the analyzed beat
+// grid of the role's file in place of its fixed tempo once the analysis has run.
+final class LightSequencer {
+    static final long TICK_MILLIS = 10;
+    private static final double LATE_MILLIS = 50;
+    private static final Gson BATCH_GSON = new Gson();  // Batches go out as single-line JSON
+    private static final Metrics.Histogram CUE_DRIFT = Metrics.histogram("soundboard_light_cue_drift_seconds",
+            "How far past its position in the audio a cue was sent");
+    private static final Metrics.Histogram TICK_LATENESS = Metrics.histogram("soundboard_light_tick_lateness_seconds",
+            "How late each sequencer tick ran against its schedule");
+    private static final Metrics.Counter CUES_SENT = Metrics.counter("soundboard_light_cues_total",
+            "Light cues by outcome", "outcome", "sent");
+    private static final Metrics.Counter CUES_COALESCED = Metrics.counter("soundboard_light_cues_total",
+            "Light cues by outcome", "outcome", "coalesced");
+    private static final Metrics.Counter CUES_LATE = Metrics.counter("soundboard_light_cues_total",
+            "Light cues by outcome", "outcome", "late");
+    private static final Metrics.Counter BATCHES = Metrics.counter("soundboard_light_batches_total",
+            "Cue batches handed to the light sink");
+
+    private final Path directory;
+    private final Gson gson;
+    private final Supplier<RoleRegistry.Snapshot> roles;
+    private final Function<String, int[]> beatGrid;
+    private final Sink sink;
+    private final ConcurrentHashMap<String, Timeline> timelines = new ConcurrentHashMap<>();
+    private final Map<String, Cursor> cursors = new HashMap<>();  // Sequencer thread only
+    private final ScheduledThreadPoolExecutor ticker = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "light-sequencer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        return thread;
+    });
+    private long startedNanos;  // Set before the first tick is scheduled
+    private long ticks;  // Sequencer thread only
+
+    LightSequencer(Path directory, Gson gson, Supplier<RoleRegistry.Snapshot> roles, Function<String, int[]> beatGrid, Sink sink) {
+        this.directory = directory;
+        this.gson = gson;
+        this.roles = roles;
+        this.beatGrid = beatGrid;
+        this.sink = sink;
+        Metrics.pool("light-sequencer", ticker);
+        load();
+    }
+
+    void start() {
+        startedNanos = System.nanoTime();
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    Map<String, Timeline> timelines() {
+        return new TreeMap<>(timelines);
+    }
+
+    Sink sink() {
+        return sink;
+    }
+
+    // Validates, saves and activates a role's timeline; the next play of the role uses it.
+    Timeline put(String role, Timeline timeline) throws IOException {
+        Timeline normalized = timeline.normalized();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, role, ".tmp");
+        Files.writeString(temp, gson.toJson(normalized));
+        Files.move(temp, directory.resolve(role + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        timelines.put(role, normalized);
+        return normalized;
+    }
+
+    // Returns to the built-in timeline for the role, if there is one.
+    void remove(String role) throws IOException {
+        Files.deleteIfExists(directory.resolve(role + ".json"));
+        Timeline fallback = defaults().get(role);
+        if (fallback != null) {
+            timelines.put(role, fallback);
+        } else {
+            timelines.remove(role);
+        }
+    }
+
+    // The old Node-RED light cycle: four lights, a fresh shuffle of twelve colors every
+    // 468.75 ms (128 BPM), for as long as either goal song plays; on the song's own beats
+    // once it has been analyzed.
+    static Map<String, Timeline> defaults() {
+        Pattern cycle = new Pattern();
+        cycle.bpm = 128;
+        cycle.followBeats = true;
+        cycle.lights = Arrays.asList("light.goal_1", "light.goal_2", "light.goal_3", "light.goal_4");
+        cycle.palette = Arrays.asList(
+                new int[] {255, 0, 0}, new int[] {0, 0, 255}, new int[] {255, 255, 0}, new int[] {0, 255, 255},
+                new int[] {255, 165, 0}, new int[] {0, 255, 0}, new int[] {128, 0, 128}, new int[] {255, 192, 203},
+                new int[] {0, 255, 255}, new int[] {255, 0, 255}, new int[] {0, 255, 0}, new int[] {255, 215, 0});
+        Timeline song = new Timeline();
+        song.pattern = cycle;
+
+        Map<String, Timeline> defaults = new LinkedHashMap<>();
+        defaults.put("homeSong", song.normalized());
+        defaults.put("awaySong", song.normalized());
+        return defaults;
+    }
+
+    private void load() {
+        timelines.putAll(defaults());
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                String role = file.getFileName().toString().replaceFirst("\\.json$", "");
+                try (Reader reader = Files.newBufferedReader(file)) {
+                    Timeline timeline = gson.fromJson(reader, Timeline.class);
+                    if (timeline != null) {
+                        timelines.put(role, timeline.normalized());
+                    }
+                } catch (IOException | JsonParseException | IllegalArgumentException e) {
+                    System.out.println("Ignoring light timeline " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read light timelines from " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            long ticked = ++ticks;
+            TICK_LATENESS.record(now - (startedNanos + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * ticked)));
+
+            Map<String, LightState> batch = null;
+            RoleRegistry.Snapshot snapshot = roles.get();
+            for (Map.Entry<String, Timeline> entry : timelines.entrySet()) {
+                RoleRegistry.Role role = snapshot.role(entry.getKey());
+                Voice.Playhead playhead = role == null ? null : role.voice.playhead();
+                if (playhead == null) {
+                    cursors.remove(entry.getKey());
+                    continue;
+                }
+                double position = playhead.positionMillis(now);
+                if (position < 0) {
+                    continue;  // Scheduled but not audible yet
+                }
+                Cursor cursor = cursors.get(entry.getKey());
+                if (cursor == null || cursor.generation != playhead.generation) {
+                    cursor = new Cursor(playhead.generation);
+                    cursors.put(entry.getKey(), cursor);
+                }
+                if (batch == null) {
+                    batch = new LinkedHashMap<>();
+                }
+                Pattern pattern = entry.getValue().pattern;
+                int[] beats = pattern != null && pattern.followBeats ? beatGrid.apply(entry.getKey()) : null;
+                collect(entry.getKey(), entry.getValue(), beats, cursor.lastMillis, position, batch);
+                cursor.lastMillis = position;
+            }
+
+            if (batch != null && !batch.isEmpty()) {
+                BATCHES.increment();
+                CUES_SENT.add(batch.size());
+                Map<String, Object> message = new LinkedHashMap<>();
+                message.put("type", "light_cues");
+                message.put("tick", ticked);
+                message.put("cues", new ArrayList<>(batch.values()));
+                sink.send(BATCH_GSON.toJson(message));
+            }
+        } catch (RuntimeException e) {
+            // A failing tick must not cancel the schedule
+            e.printStackTrace();
+        }
+    }
+
+    // Adds the cues in (from, to] to the batch, later cues for a light replacing earlier ones.
+    // Pattern beats come from the analyzed grid when there is one, else from the pattern's bpm.
+    private static void collect(String role, Timeline timeline, int[] beats, double from, double to, Map<String, LightState> batch) {
+        for (Cue cue : timeline.cues) {
+            if (cue.at > to) {
+                break;
+            }
+            if (cue.at > from) {
+                for (Map.Entry<String, int[]> light : cue.lights.entrySet()) {
+                    add(batch, new LightState(role, light.getKey(), light.getValue(), cue.brightness, cue.transition, cue.at), to);
+                }
+            }
+        }
+
+        Pattern pattern = timeline.pattern;
+        if (pattern != null && beats != null) {
+            double last = pattern.endMillis == null ? to : Math.min(to, pattern.endMillis);
+            int lastBeat = beatAtOrBefore(beats, last);
+            int firstBeat = Math.max(beatAtOrBefore(beats, from) + 1, beatAtOrBefore(beats, Math.ceil(pattern.startMillis) - 1) + 1);
+            if (lastBeat >= firstBeat) {
+                CUES_COALESCED.add((long) (lastBeat - firstBeat) * pattern.lights.size());
+                int[][] colors = pattern.colorsFor(lastBeat);
+                for (int i = 0; i < pattern.lights.size(); i++) {
+                    add(batch, new LightState(role, pattern.lights.get(i), colors[i], pattern.brightness, pattern.transition, beats[lastBeat]), to);
+                }
+            }
+        } else if (pattern != null && to >= pattern.startMillis && (pattern.endMillis == null || from < pattern.endMillis)) {
+            double beatMillis = 60000.0 / pattern.bpm;
+            double last = pattern.endMillis == null ? to : Math.min(to, pattern.endMillis);
+            long lastBeat = (long) Math.floor((last - pattern.startMillis) / beatMillis);
+            long firstBeat = from < pattern.startMillis ? 0 : (long) Math.floor((from - pattern.startMillis) / beatMillis) + 1;
+            if (lastBeat >= firstBeat) {
+                // Every beat sets every light, so beats a late tick skipped would only be overwritten
+                CUES_COALESCED.add((lastBeat - firstBeat) * pattern.lights.size());
+                double at = pattern.startMillis + lastBeat * beatMillis;
+                int[][] colors = pattern.colorsFor(lastBeat);
+                for (int i = 0; i < pattern.lights.size(); i++) {
+                    add(batch, new LightState(role, pattern.lights.get(i), colors[i], pattern.brightness, pattern.transition, at), to);
+                }
+            }
+        }
+    }
+
+    // Index of the last beat at or before positionMillis, or -1.
+    private static int beatAtOrBefore(int[] beats, double positionMillis) {
+        int low = 0;
+        int high = beats.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (beats[middle] <= positionMillis) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private static void add(Map<String, LightState> batch, LightState state, double positionMillis) {
+        double drift = Math.max(0, positionMillis - state.at);
+        CUE_DRIFT.record((long) (drift * 1_000_000));
+        if (drift > LATE_MILLIS) {
+            CUES_LATE.increment();
+        }
+        if (batch.put(state.light, state) != null) {
+            CUES_COALESCED.increment();
+        }
+    }
+
+    // Where one role's timeline has got to for the play it is following.
+    private static final class Cursor {
+        final long generation;
+        double lastMillis = Double.NEGATIVE_INFINITY;
+
+        Cursor(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    static final class LightState {
+        final String role;
+        final String light;
+        final int[] rgb;
+        final int brightness;
+        final double transition;
+        final double at;  // Milliseconds into the role's file
+
+        LightState(String role, String light, int[] rgb, int brightness, double transition, double at) {
+            this.role = role;
+            this.light = light;
+            this.rgb = rgb;
+            this.brightness = brightness;
+            this.transition = transition;
+            this.at = at;
+        }
+    }
+
+    static final class Timeline {
+        List<Cue> cues = new ArrayList<>();
+        Pattern pattern;
+
+        // Throws IllegalArgumentException for a timeline the sequencer cannot run; cues come back sorted.
+        Timeline normalized() {
+            Timeline timeline = new Timeline();
+            if (cues != null) {
+                for (Cue cue : cues) {
+                    if (cue == null) {
+                        continue;
+                    }
+                    timeline.cues.add(cue.normalized());
+                }
+            }
+            timeline.cues.sort(Comparator.comparingDouble(cue -> cue.at));
+            timeline.pattern = pattern == null ? null : pattern.normalized();
+            if (timeline.cues.isEmpty() && timeline.pattern == null) {
+                throw new IllegalArgumentException("A timeline needs cues or a pattern");
+            }
+            return timeline;
+        }
+    }
+
+    static final class Cue {
+        double at;
+        Map<String, int[]> lights = new LinkedHashMap<>();  // Light entity -> [r, g, b]
+        int brightness = 255;
+        double transition;
+
+        Cue normalized() {
+            if (at < 0) {
+                throw new IllegalArgumentException("Cue times are milliseconds from the start of the file");
+            }
+            if (lights == null || lights.isEmpty()) {
+                throw new IllegalArgumentException("Cue at " + at + " ms sets no lights");
+            }
+            Cue cue = new Cue();
+            cue.at = at;
+            for (Map.Entry<String, int[]> light : lights.entrySet()) {
+                cue.lights.put(lightName(light.getKey()), color(light.getValue()));
+            }
+            cue.brightness = Math.max(0, Math.min(255, brightness));
+            cue.transition = Math.max(0, transition);
+            return cue;
+        }
+    }
+
+    static final class Pattern {
+        double bpm;
+        boolean followBeats;  // Use the analyzed beats of the role's file, with bpm as the fallback
+        double startMillis;
+        Double endMillis;
+        List<String> lights = new ArrayList<>();
+        List<int[]> palette = new ArrayList<>();
+        long seed;
+        int brightness = 255;
+        double transition;
+
+        Pattern normalized() {
+            if (!(bpm >= 20 && bpm <= 400)) {
+                throw new IllegalArgumentException("Pattern bpm must be between 20 and 400");
+            }
+            if (lights == null || lights.isEmpty()) {
+                throw new IllegalArgumentException("Pattern has no lights");
+            }
+            if (palette == null || palette.size() < lights.size()) {
+                throw new IllegalArgumentException("Pattern palette needs at least one color per light");
+            }
+            Pattern pattern = new Pattern();
+            pattern.bpm = bpm;
+            pattern.followBeats = followBeats;
+            pattern.startMillis = Math.max(0, startMillis);
+            pattern.endMillis = endMillis == null ? null : Math.max(pattern.startMillis, endMillis);
+            for (String light : lights) {
+                pattern.lights.add(lightName(light));
+            }
+            for (int[] color : palette) {
+                pattern.palette.add(color(color));
+            }
+            pattern.seed = seed;
+            pattern.brightness = Math.max(0, Math.min(255, brightness));
+            pattern.transition = Math.max(0, transition);
+            return pattern;
+        }
+
+        // The same shuffle for the same beat every time, so a replay looks identical.
+        int[][] colorsFor(long beat) {
+            int[][] shuffled = palette.toArray(new int[0][]);
+            Random random = new Random(seed * 31 + beat);
+            for (int i = shuffled.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int[] swap = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = swap;
+            }
+            return shuffled;
+        }
+    }
+
+    private static String lightName(String light) {
+        if (light == null || light.isBlank() || light.length() > 100) {
+            throw new IllegalArgumentException("Bad light name: " + light);
+        }
+        return light.trim();
+    }
+
+    private static int[] color(int[] rgb) {
+        if (rgb == null || rgb.length != 3) {
+            throw new IllegalArgumentException("Colors are [r, g, b]");
+        }
+        int[] clamped = new int[3];
+        for (int i = 0; i < 3; i++) {
+            clamped[i] = Math.max(0, Math.min(255, rgb[i]));
+        }
+        return clamped;
+    }
+
+    // Where cue batches go. Sends run on the sequencer thread and must not block.
+    interface Sink {
+        void send(String batch);
+
+        String describe();
+    }
+
+    // SOUNDBOARD_LIGHT_SINK: "websocket" (the default, to the displays), "stub" or an http(s) URL.
+    static Sink sink(String spec, Consumer<String> broadcaster) {
+        if (spec == null || spec.isBlank() || spec.equals("websocket")) {
+            return new Sink() {
+                @Override
+                public void send(String batch) {
+                    broadcaster.accept(batch);
+                }
+
+                @Override
+                public String describe() {
+                    return "websocket";
+                }
+            };
+        }
+        if (spec.equals("stub")) {
+            return new StubSink();
+        }
+        if (spec.startsWith("http://") || spec.startsWith("https://")) {
+            return new HttpSink(spec);
+        }
+        throw new IllegalArgumentException("Unknown light sink " + spec);
+    }
+
+    // Keeps the last batch for the debug API instead of driving real lights.
+    static final class StubSink implements Sink {
+        private volatile String last;
+
+        @Override
+        public void send(String batch) {
+            last = batch;
+        }
+
+        @Override
+        public String describe() {
+            return "stub";
+        }
+
+        String last() {
+            return last;
+        }
+    }
+
+    // POSTs each batch as JSON, e.g. to a Home Assistant webhook that sets the lights. Posts run
+    // on their own thread; if the endpoint falls behind, older batches are dropped since a
+    // newer one already carries the current state of every light it touched.
+    static final class HttpSink implements Sink {
+        private static final int TIMEOUT_MILLIS = 2000;
+        private static final Metrics.Counter FAILURES = Metrics.counter("soundboard_light_sink_failures_total",
+                "Cue batches the HTTP light sink could not deliver");
+        private static final Metrics.Histogram POST_TIME = Metrics.histogram("soundboard_light_sink_post_seconds",
+                "HTTP light sink round trips");
+
+        private final String url;
+        private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(2), runnable -> {
+            Thread thread = new Thread(runnable, "light-sink");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+        HttpSink(String url) {
+            this.url = url;
+            Metrics.pool("light-sink", executor);
+        }
+
+        @Override
+        public void send(String batch) {
+            executor.execute(() -> post(batch));
+        }
+
+        @Override
+        public String describe() {
+            return url;
+        }
+
+        private void post(String batch) {
+            long started = System.nanoTime();
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                try {
+                    connection.setRequestMethod("POST");
+                    connection.setConnectTimeout(TIMEOUT_MILLIS);
+                    connection.setReadTimeout(TIMEOUT_MILLIS);
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json");
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(batch.getBytes(StandardCharsets.UTF_8));
+                    }
+                    int status = connection.getResponseCode();
+                    if (status / 100 != 2) {
+                        FAILURES.increment();
+                        System.out.println("Light sink " + url + " answered " + status);
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+            } catch (IOException e) {
+                FAILURES.increment();
+                System.out.println("Light sink " + url + " failed: " + e.getMessage());
+            } finally {
+                POST_TIME.recordSince(started);
+            }
+        }
+    }
+}
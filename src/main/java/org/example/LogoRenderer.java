@@ -0,0 +1,226 @@
+package org.example;
+
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Renders remote SVG logos to PNG at a requested size. Results are cached by source URL and
+// size in memory (bounded by total bytes, least recently used first) and on disk, concurrent
+// requests for the same key share one render, and Batik runs on a small bounded pool rather
+// than on the request threads. Each render also carries the logo's dominant colors.
+final class LogoRenderer {
+    private static final int PALETTE_SIZE = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int QUEUE_CAPACITY = 32;
+    private static final long DISK_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final Metrics.Counter MEMORY_HITS = Metrics.counter("soundboard_logo_lookups_total", "Logo renders by where they were served from", "source", "memory");
+    private static final Metrics.Counter DISK_HITS = Metrics.counter("soundboard_logo_lookups_total", "Logo renders by where they were served from", "source", "disk");
+    private static final Metrics.Counter RENDERS = Metrics.counter("soundboard_logo_lookups_total", "Logo renders by where they were served from", "source", "render");
+    private static final Metrics.Histogram RENDER_TIME = Metrics.histogram("soundboard_logo_render_seconds", "Fetching and rasterizing an SVG that was not cached");
+
+    private final Path cacheDirectory;
+    private final long memoryBudgetBytes;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Rendered> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<Rendered>> inFlight = new ConcurrentHashMap<>();
+    private long memoryBytes;
+
+    LogoRenderer(Path cacheDirectory, long memoryBudgetBytes, int workers) {
+        this.cacheDirectory = cacheDirectory;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "logo-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        Metrics.pool("logo-render", executor);
+    }
+
+    // Width or height of 0 keeps the SVG's own size for that dimension. Throws
+    // RejectedExecutionException when the render queue or the SVG host's download limit is full.
+    Rendered render(String svgUrl, int width, int height) throws IOException {
+        String key = svgUrl + "|" + width + "x" + height;
+        Rendered cached = lookup(key);
+        if (cached != null) {
+            MEMORY_HITS.increment();
+            return cached;
+        }
+
+        CompletableFuture<Rendered> created = new CompletableFuture<>();
+        CompletableFuture<Rendered> existing = inFlight.putIfAbsent(key, created);
+        if (existing == null) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        created.complete(load(key, svgUrl, width, height));
+                    } catch (Throwable e) {
+                        created.completeExceptionally(e);
+                    } finally {
+                        inFlight.remove(key, created);
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.remove(key, created);
+                throw e;
+            }
+            existing = created;
+        }
+
+        try {
+            return existing.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) cause;
+            }
+            throw new IOException("Could not render " + svgUrl, cause);
+        }
+    }
+
+    private Rendered load(String key, String svgUrl, int width, int height) throws Exception {
+        Path file = cacheDirectory.resolve(sha256(key.getBytes(StandardCharsets.UTF_8)) + ".png");
+        byte[] png = null;
+        if (Files.exists(file) && System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() < DISK_MAX_AGE_MILLIS) {
+            png = Files.readAllBytes(file);
+            DISK_HITS.increment();
+        }
+        if (png == null) {
+            long started = System.nanoTime();
+            png = transcode(svgUrl, width, height);
+            RENDER_TIME.recordSince(started);
+            RENDERS.increment();
+            write(file, png);
+        }
+
+        Rendered rendered = new Rendered("\"" + sha256(png).substring(0, 32) + "\"", png, palette(png));
+        store(key, rendered);
+        return rendered;
+    }
+
+    // The download holds a slot of the host's BlockingIo limit; rasterizing happens after it is released.
+    private static byte[] transcode(String svgUrl, int width, int height) throws Exception {
+        byte[] svg = BlockingIo.forHost(svgUrl).call(() -> download(svgUrl));
+        return rasterize(new ByteArrayInputStream(svg), svgUrl, width, height);
+    }
+
+    private static byte[] download(String svgUrl) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(svgUrl).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try (InputStream svgInputStream = connection.getInputStream()) {
+            return svgInputStream.readAllBytes();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // svgUri resolves relative references inside the SVG; width or height of 0 keeps its own size.
+    static byte[] rasterize(InputStream svg, String svgUri, int width, int height) throws Exception {
+        PNGTranscoder transcoder = new PNGTranscoder();
+        if (width > 0) {
+            transcoder.addTranscodingHint(PNGTranscoder.KEY_WIDTH, (float) width);
+        }
+        if (height > 0) {
+            transcoder.addTranscodingHint(PNGTranscoder.KEY_HEIGHT, (float) height);
+        }
+        ByteArrayOutputStream pngOutputStream = new ByteArrayOutputStream(64 * 1024);
+        TranscoderInput input = new TranscoderInput(svg);
+        input.setURI(svgUri);
+        transcoder.transcode(input, new TranscoderOutput(pngOutputStream));
+        return pngOutputStream.toByteArray();
+    }
+
+    private static int[] palette(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("Rendered logo is not a readable PNG");
+        }
+        int width = image.getWidth();
+        int[] argb = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+        return PaletteQuantizer.dominantColors(argb, PALETTE_SIZE);
+    }
+
+    private void write(Path file, byte[] png) {
+        try {
+            Files.createDirectories(cacheDirectory);
+            Path temp = Files.createTempFile(cacheDirectory, "render", ".png");
+            Files.write(temp, png);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not cache rendered logo " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized Rendered lookup(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void store(String key, Rendered rendered) {
+        Rendered previous = memory.put(key, rendered);
+        if (previous != null) {
+            memoryBytes -= previous.png.length;
+        }
+        memoryBytes += rendered.png.length;
+
+        var iterator = memory.entrySet().iterator();
+        while (memoryBytes > memoryBudgetBytes && iterator.hasNext()) {
+            Map.Entry<String, Rendered> eldest = iterator.next();
+            if (eldest.getValue() == rendered) {
+                continue;
+            }
+            memoryBytes -= eldest.getValue().png.length;
+            iterator.remove();
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Rendered {
+        final String etag;
+        final byte[] png;
+        final int[] palette;
+
+        Rendered(String etag, byte[] png, int[] palette) {
+            this.etag = etag;
+            this.png = png;
+            this.palette = palette;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Measures every clip once in the background: integrated loudness (ITU-R BS.1770 K-weighting
+// with the EBU R128 gates), 4x oversampled true peak, and the silence before the first and
+// after the last audible frame. The pass streams the PCM in 100 ms chunks, from the mapped
+// cache for loaded clips and straight from the decoder otherwise, so memory does not grow
+// with the clip. Results are keyed by content hash in loudness.json beside the sound bank
+// index and attached to the PcmSound, where Voice picks them up on the next play.
+final class LoudnessAnalyzer {
+    static final double TARGET_LUFS = -16.0;
+    static final double PEAK_CEILING_DBTP = -1.0;
+    private static final double MAX_BOOST_DB = 12.0;
+    private static final double MAX_CUT_DB = -20.0;
+    private static final double ABSOLUTE_GATE_LUFS = -70.0;
+    private static final double RELATIVE_GATE_LU = -10.0;
+    private static final double SILENT_PEAK_DB = -120.0;
+    private static final int SILENCE_THRESHOLD = 33;  // About -60 dBFS in 16-bit samples
+    private static final int CHUNK_FRAMES = Math.round(AudioMixer.SAMPLE_RATE / 10);  // 100 ms, a quarter gating block
+    private static final int OVERSAMPLE = 4;
+    private static final int TAPS_PER_PHASE = 12;
+    private static final double[][] PHASES = interpolationPhases();
+    private static final String RESULTS_FILE = "loudness.json";
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final SoundBank soundBank;
+    private final Path resultsPath;
+    private final Gson gson;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Result> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Result> byFile = new ConcurrentHashMap<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();  // Accepted and not yet finished
+    private long batchStartNanos;  // Guarded by this, like the batch counts below
+    private int batchMeasured;
+    private int batchStreamed;
+    private int batchFailed;
+
+    LoudnessAnalyzer(SoundBank soundBank, Path cacheDirectory, Gson gson, int workers) {
+        this.soundBank = soundBank;
+        this.resultsPath = cacheDirectory.resolve(RESULTS_FILE);
+        this.gson = gson;
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "audio-loudness");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        Metrics.pool("audio-loudness", executor);
+        byHash.putAll(loadResults());
+    }
+
+    void submit(String fileName) {
+        if (!queued.add(fileName)) {
+            return;
+        }
+        if (pending.getAndIncrement() == 0) {
+            startBatch();
+        }
+        try {
+            executor.execute(() -> {
+                queued.remove(fileName);
+                try {
+                    analyzeFile(fileName);
+                } finally {
+                    finishOne();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(fileName);
+            finishOne();
+            System.out.println("Loudness queue is full, skipping " + fileName);
+        }
+    }
+
+    Map<String, Result> results() {
+        return new LinkedHashMap<>(byFile);
+    }
+
+    void forget(String fileName) {
+        byFile.remove(fileName);
+    }
+
+    // Clips the sound bank already holds are measured from memory and get the result attached
+    // for Voice; any other library file is decoded as it is read, so analyzing the library
+    // neither holds whole clips nor fills the PCM cache with files no role plays.
+    private void analyzeFile(String fileName) {
+        try {
+            String hash = soundBank.contentHash(fileName);
+            PcmSound sound = soundBank.loaded(fileName);
+            Result result = byHash.get(hash);
+            if (result == null) {
+                if (sound != null) {
+                    result = analyze(sound.samples);
+                } else {
+                    try (PcmSound.Stream stream = soundBank.stream(fileName)) {
+                        result = analyze(stream);
+                    }
+                }
+                byHash.put(hash, result);
+                saveResults();
+                measured(sound == null);
+            }
+            if (sound != null) {
+                sound.loudness = result;
+            }
+            byFile.put(fileName, result);
+        } catch (Exception e) {
+            failed();
+            System.out.println("Could not analyze " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void startBatch() {
+        batchStartNanos = System.nanoTime();
+    }
+
+    private synchronized void measured(boolean streamed) {
+        batchMeasured++;
+        if (streamed) {
+            batchStreamed++;
+        }
+    }
+
+    private synchronized void failed() {
+        batchFailed++;
+    }
+
+    // One line per burst of work (startup, a library rescan) instead of one per clip.
+    private void finishOne() {
+        if (pending.decrementAndGet() != 0) {
+            return;
+        }
+        synchronized (this) {
+            if (batchMeasured + batchFailed > 0) {
+                System.out.printf("Loudness: measured %d clips (%d streamed from source, %d failed) in %d ms%n",
+                        batchMeasured, batchStreamed, batchFailed,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStartNanos));
+            }
+            batchMeasured = 0;
+            batchStreamed = 0;
+            batchFailed = 0;
+        }
+    }
+
+    // One streaming pass over interleaved stereo samples in the mixer's format.
+    static Result analyze(ShortBuffer source) {
+        ShortBuffer samples = source.duplicate();
+        samples.rewind();
+        Meter meter = new Meter();
+        short[] chunk = new short[CHUNK_FRAMES * AudioMixer.CHANNELS];
+        while (samples.remaining() >= AudioMixer.CHANNELS) {
+            int count = Math.min(CHUNK_FRAMES, samples.remaining() / AudioMixer.CHANNELS);
+            samples.get(chunk, 0, count * AudioMixer.CHANNELS);
+            meter.add(chunk, count);
+        }
+        return meter.result();
+    }
+
+    // The same pass over a clip decoded as it is read, for files the sound bank has not loaded.
+    static Result analyze(PcmSound.Stream stream) throws IOException {
+        Meter meter = new Meter();
+        short[] chunk = new short[CHUNK_FRAMES * AudioMixer.CHANNELS];
+        int count;
+        while ((count = stream.read(chunk, CHUNK_FRAMES)) > 0) {
+            meter.add(chunk, count);
+        }
+        return meter.result();
+    }
+
+    // Filter state, peak and per-chunk energy of one pass, fed CHUNK_FRAMES frames at a time.
+    private static final class Meter {
+        private final Biquad[] shelf = {Biquad.highShelf(), Biquad.highShelf()};
+        private final Biquad[] highPass = {Biquad.highPass(), Biquad.highPass()};
+        private final double[][] history = new double[AudioMixer.CHANNELS][TAPS_PER_PHASE * 2];  // Written twice so reads never wrap
+        private int historyIndex;
+        private double[] chunkEnergy = new double[64];
+        private int chunks;
+        private int frames;
+        private double peak;
+        private int firstAudible = -1;
+        private int lastAudible = -1;
+
+        void add(short[] chunk, int count) {
+            double energy = 0;
+            for (int i = 0; i < count; i++) {
+                boolean audible = false;
+                for (int channel = 0; channel < AudioMixer.CHANNELS; channel++) {
+                    int raw = chunk[i * AudioMixer.CHANNELS + channel];
+                    if (raw > SILENCE_THRESHOLD || raw < -SILENCE_THRESHOLD) {
+                        audible = true;
+                    }
+                    double x = raw / 32768.0;
+                    double weighted = highPass[channel].filter(shelf[channel].filter(x));
+                    energy += weighted * weighted;
+
+                    double[] taps = history[channel];
+                    taps[historyIndex] = x;
+                    taps[historyIndex + TAPS_PER_PHASE] = x;
+                    int newest = historyIndex + TAPS_PER_PHASE;
+                    for (double[] phase : PHASES) {
+                        double y = 0;
+                        for (int k = 0; k < TAPS_PER_PHASE; k++) {
+                            y += phase[k] * taps[newest - k];
+                        }
+                        peak = Math.max(peak, Math.abs(y));
+                    }
+                    peak = Math.max(peak, Math.abs(x));
+                }
+                historyIndex = (historyIndex + 1) % TAPS_PER_PHASE;
+                if (audible) {
+                    int frame = frames + i;
+                    if (firstAudible < 0) {
+                        firstAudible = frame;
+                    }
+                    lastAudible = frame;
+                }
+            }
+            if (chunks == chunkEnergy.length) {
+                chunkEnergy = Arrays.copyOf(chunkEnergy, chunks * 2);
+            }
+            chunkEnergy[chunks++] = energy / count;
+            frames += count;
+        }
+
+        Result result() {
+            double integrated = integratedLoudness(chunkEnergy, chunks);
+            double truePeak = peak > 0 ? 20 * Math.log10(peak) : SILENT_PEAK_DB;
+            int leading = firstAudible < 0 ? 0 : firstAudible;
+            int trailing = lastAudible < 0 ? 0 : frames - 1 - lastAudible;
+            return new Result(integrated, truePeak, leading, trailing, frames, gainOffset(integrated, truePeak, firstAudible >= 0));
+        }
+    }
+
+    // 400 ms blocks overlapping by 75% (four consecutive 100 ms chunks), gated at -70 LUFS
+    // and then at 10 LU below the loudness of the blocks that passed.
+    private static double integratedLoudness(double[] chunkEnergy, int chunks) {
+        int blocks = Math.max(1, chunks - 3);
+        double[] blockEnergy = new double[blocks];
+        for (int block = 0; block < blocks; block++) {
+            int span = Math.min(4, chunks - block);
+            double sum = 0;
+            for (int i = 0; i < span; i++) {
+                sum += chunkEnergy[block + i];
+            }
+            blockEnergy[block] = span == 0 ? 0 : sum / span;
+        }
+
+        double relativeGate = loudness(gatedMean(blockEnergy, ABSOLUTE_GATE_LUFS)) + RELATIVE_GATE_LU;
+        double integrated = loudness(gatedMean(blockEnergy, Math.max(ABSOLUTE_GATE_LUFS, relativeGate)));
+        return Math.max(ABSOLUTE_GATE_LUFS, integrated);
+    }
+
+    private static double gatedMean(double[] blockEnergy, double gateLufs) {
+        double sum = 0;
+        int passed = 0;
+        for (double energy : blockEnergy) {
+            if (loudness(energy) > gateLufs) {
+                sum += energy;
+                passed++;
+            }
+        }
+        return passed == 0 ? 0 : sum / passed;
+    }
+
+    private static double loudness(double energy) {
+        return energy <= 0 ? Double.NEGATIVE_INFINITY : -0.691 + 10 * Math.log10(energy);
+    }
+
+    // Brings the clip to the target loudness without pushing its true peak over the ceiling.
+    private static double gainOffset(double integrated, double truePeak, boolean audible) {
+        if (!audible || integrated <= ABSOLUTE_GATE_LUFS) {
+            return 0;
+        }
+        double gain = Math.min(TARGET_LUFS - integrated, PEAK_CEILING_DBTP - truePeak);
+        return Math.max(MAX_CUT_DB, Math.min(MAX_BOOST_DB, gain));
+    }
+
+    // Polyphase windowed-sinc interpolator for the inter-sample peaks between input samples.
+    private static double[][] interpolationPhases() {
+        int length = OVERSAMPLE * TAPS_PER_PHASE;
+        double center = (length - 1) / 2.0;
+        double[][] phases = new double[OVERSAMPLE][TAPS_PER_PHASE];
+        for (int phase = 0; phase < OVERSAMPLE; phase++) {
+            double sum = 0;
+            for (int k = 0; k < TAPS_PER_PHASE; k++) {
+                int n = k * OVERSAMPLE + phase;
+                double t = (n - center) / OVERSAMPLE;
+                double sinc = t == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+                double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / length);
+                phases[phase][k] = sinc * window;
+                sum += phases[phase][k];
+            }
+            for (int k = 0; k < TAPS_PER_PHASE; k++) {
+                phases[phase][k] /= sum;
+            }
+        }
+        return phases;
+    }
+
+    private Map<String, Result> loadResults() {
+        if (!Files.exists(resultsPath)) {
+            return Map.of();
+        }
+        try (Reader reader = Files.newBufferedReader(resultsPath)) {
+            Map<String, Result> loaded = gson.fromJson(reader, new TypeToken<Map<String, Result>>() {}.getType());
+            return loaded == null ? Map.of() : loaded;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Map.of();
+        }
+    }
+
+    private synchronized void saveResults() throws IOException {
+        Path directory = resultsPath.getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "loudness", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            gson.toJson(byHash, writer);
+        }
+        Files.move(temp, resultsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Second-order section in direct form I, with the BS.1770 K-weighting stages for the
+    // mixer's sample rate.
+    private static final class Biquad {
+        private final double b0, b1, b2, a1, a2;
+        private double x1, x2, y1, y2;
+
+        private Biquad(double b0, double b1, double b2, double a0, double a1, double a2) {
+            this.b0 = b0 / a0;
+            this.b1 = b1 / a0;
+            this.b2 = b2 / a0;
+            this.a1 = a1 / a0;
+            this.a2 = a2 / a0;
+        }
+
+        // Bilinear-transform designs as in libebur128, which reproduce the 48 kHz coefficients
+        // of the standard exactly and carry over to other rates.
+        static Biquad highShelf() {
+            double k = Math.tan(Math.PI * 1681.974450955533 / AudioMixer.SAMPLE_RATE);
+            double q = 0.7071752369554196;
+            double vh = Math.pow(10, 3.999843853973347 / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            return new Biquad(vh + vb * k / q + k * k, 2 * (k * k - vh), vh - vb * k / q + k * k,
+                    1 + k / q + k * k, 2 * (k * k - 1), 1 - k / q + k * k);
+        }
+
+        static Biquad highPass() {
+            double k = Math.tan(Math.PI * 38.13547087602444 / AudioMixer.SAMPLE_RATE);
+            double q = 0.5003270373238773;
+            double a0 = 1 + k / q + k * k;
+            return new Biquad(a0, -2 * a0, a0, a0, 2 * (k * k - 1), 1 - k / q + k * k);  // Unity numerator
+        }
+
+        double filter(double x) {
+            double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            return y;
+        }
+    }
+
+    static final class Result {
+        final double integratedLufs;
+        final double truePeakDbtp;
+        final int leadingSilenceFrames;
+        final int trailingSilenceFrames;
+        final int frames;
+        final double gainOffsetDb;
+
+        Result(double integratedLufs, double truePeakDbtp, int leadingSilenceFrames, int trailingSilenceFrames, int frames, double gainOffsetDb) {
+            this.integratedLufs = integratedLufs;
+            this.truePeakDbtp = truePeakDbtp;
+            this.leadingSilenceFrames = leadingSilenceFrames;
+            this.trailingSilenceFrames = trailingSilenceFrames;
+            this.frames = frames;
+            this.gainOffsetDb = gainOffsetDb;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Process-wide counters, gauges and latency histograms, rendered in the Prometheus text
+// format for /metrics. Metrics are registered once (usually as static fields next to the code
+// they measure) and updating them only touches preallocated atomics: histograms use HDR-style
+// log-linear buckets, 32 per power of two, so any value from a nanosecond to days is recorded
+// with about 3% precision by one array increment and no allocation.
+final class Metrics {
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+    private static final Map<String, Pool> POOLS = new ConcurrentSkipListMap<>();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private Metrics() {
+    }
+
+    // Labels are given as name/value pairs, e.g. counter("x_total", "...", "result", "ok").
+    static Counter counter(String name, String help, String... labels) {
+        Counter counter = new Counter();
+        register(name, help, "counter", labels, counter);
+        return counter;
+    }
+
+    // Records nanoseconds; exported as a summary in seconds.
+    static Histogram histogram(String name, String help, String... labels) {
+        Histogram histogram = new Histogram();
+        register(name, help, "summary", labels, histogram);
+        return histogram;
+    }
+
+    static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "gauge", labels, value);
+    }
+
+    // Threads, queue depth, busy workers and completed tasks for a worker pool, labeled pool=<name>.
+    static void pool(String name, ThreadPoolExecutor executor) {
+        pool(name, new Pool() {
+            @Override
+            public int threads() {
+                return executor.getPoolSize();
+            }
+
+            @Override
+            public int active() {
+                return executor.getActiveCount();
+            }
+
+            @Override
+            public int queued() {
+                return executor.getQueue().size();
+            }
+
+            @Override
+            public long completed() {
+                return executor.getCompletedTaskCount();
+            }
+        });
+    }
+
+    static void pool(String name, Pool pool) {
+        POOLS.put(name, pool);
+        gauge("soundboard_pool_threads", "Threads the pool has started and not retired", pool::threads, "pool", name);
+        gauge("soundboard_pool_queued_tasks", "Tasks waiting for a worker", pool::queued, "pool", name);
+        gauge("soundboard_pool_active_threads", "Workers running a task", pool::active, "pool", name);
+        gauge("soundboard_pool_completed_tasks", "Tasks finished since startup", pool::completed, "pool", name);
+    }
+
+    static Map<String, Object> pools() {
+        Map<String, Object> pools = new LinkedHashMap<>();
+        POOLS.forEach((name, pool) -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("threads", pool.threads());
+            stats.put("active", pool.active());
+            stats.put("queued", pool.queued());
+            stats.put("completed", pool.completed());
+            pools.put(name, stats);
+        });
+        return pools;
+    }
+
+    static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : FAMILIES.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Series series : family.series) {
+                if (series.metric instanceof Counter) {
+                    sample(out, family.name, series.labels, null, ((Counter) series.metric).get());
+                } else if (series.metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) series.metric;
+                    for (double quantile : QUANTILES) {
+                        sample(out, family.name, series.labels, "quantile=\"" + quantile + "\"", histogram.quantile(quantile) / 1e9);
+                    }
+                    sample(out, family.name + "_sum", series.labels, null, histogram.sum() / 1e9);
+                    sample(out, family.name + "_count", series.labels, null, histogram.count());
+                } else {
+                    double value;
+                    try {
+                        value = ((DoubleSupplier) series.metric).getAsDouble();
+                    } catch (RuntimeException e) {
+                        value = Double.NaN;
+                    }
+                    sample(out, family.name, series.labels, null, value);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void register(String name, String help, String type, String[] labels, Object metric) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        family.series.add(new Series(labelString(labels), metric));
+    }
+
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (out.length() > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extraLabel, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    // What a worker pool that is not a ThreadPoolExecutor (virtual threads, Jetty, Grizzly) reports.
+    interface Pool {
+        int threads();
+
+        int active();
+
+        int queued();
+
+        long completed();
+    }
+
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long amount) {
+            value.add(amount);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long seen = max.get();
+            while (value > seen && !max.compareAndSet(seen, value)) {
+                seen = max.get();
+            }
+        }
+
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        long sum() {
+            return sum.get();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Upper edge of the bucket holding the quantile, clamped to the largest value seen.
+        long quantile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final List<Series> series = new CopyOnWriteArrayList<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class Series {
+        final String labels;
+        final Object metric;
+
+        Series(String labels, Object metric) {
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+}
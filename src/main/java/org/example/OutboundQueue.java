@@ -0,0 +1,214 @@
+package org.example;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Bounded outbound queue for one WebSocket session. Messages go out one at a time through
+// getAsyncRemote, so callers only enqueue and never wait on the network. A message with a
+// coalescing key replaces any unsent message with the same key (moving to the back so it
+// still follows everything sent before it), and a session whose backlog passes the limit or
+// whose current send has stalled is closed as a slow consumer.
+final class OutboundQueue {
+    private static final int MAX_PENDING = 256;
+    private static final long STALL_MILLIS = 10000;
+    private static final int CLOSE_THREADS = 2;
+    private static final int CLOSE_QUEUE_CAPACITY = 256;
+    private static final Metrics.Counter SENT = Metrics.counter("soundboard_ws_messages_total",
+            "WebSocket messages by outcome", "outcome", "sent");
+    private static final Metrics.Counter COALESCED = Metrics.counter("soundboard_ws_messages_total",
+            "WebSocket messages by outcome", "outcome", "coalesced");
+    private static final Metrics.Counter DROPPED = Metrics.counter("soundboard_ws_messages_total",
+            "WebSocket messages by outcome", "outcome", "dropped");
+    private static final Metrics.Counter FAILED = Metrics.counter("soundboard_ws_messages_total",
+            "WebSocket messages by outcome", "outcome", "failed");
+    private static final Metrics.Counter SLOW_CONSUMERS = Metrics.counter("soundboard_ws_slow_consumers_total",
+            "Sessions closed for falling behind");
+    private static final Metrics.Counter CLOSES_REJECTED = Metrics.counter("soundboard_ws_closes_rejected_total",
+            "Slow consumers left to the container's idle timeout because the close queue was full");
+    private static final Metrics.Histogram SEND_TIME = Metrics.histogram("soundboard_ws_send_seconds",
+            "Time from handing a message to the container until its send completed");
+    // Writing the close frame can block on the very socket that fell behind, so it gets its
+    // own small pool rather than the caller's thread or the shared common pool.
+    private static final ThreadPoolExecutor CLOSER = closer();
+
+    private final Session session;
+    private final ArrayDeque<Message> pending = new ArrayDeque<>();
+    private final Map<String, Message> pendingByKey = new HashMap<>();
+    private boolean sending;
+    private long sendStartedNanos;
+    private boolean closed;
+    private long sent;
+    private long coalesced;
+    private long dropped;
+
+    OutboundQueue(Session session) {
+        this.session = session;
+        session.getAsyncRemote().setSendTimeout(STALL_MILLIS);
+    }
+
+    boolean offer(String text) {
+        return offer(null, text);
+    }
+
+    boolean offer(String coalesceKey, String text) {
+        return enqueue(new Message(coalesceKey, text, null));
+    }
+
+    boolean offerBinary(ByteBuffer data) {
+        return enqueue(new Message(null, null, data));
+    }
+
+    // Returns false if the message was dropped because the session is closed or too slow.
+    private synchronized boolean enqueue(Message message) {
+        String coalesceKey = message.key;
+        if (closed) {
+            dropped++;
+            DROPPED.increment();
+            return false;
+        }
+        if (coalesceKey != null) {
+            Message superseded = pendingByKey.remove(coalesceKey);
+            if (superseded != null) {
+                pending.remove(superseded);
+                coalesced++;
+                COALESCED.increment();
+            }
+        }
+        boolean stalled = sending && System.nanoTime() - sendStartedNanos > TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS);
+        if (pending.size() >= MAX_PENDING || stalled) {
+            dropped++;
+            DROPPED.increment();
+            closeSlowConsumer();
+            return false;
+        }
+
+        pending.add(message);
+        if (coalesceKey != null) {
+            pendingByKey.put(coalesceKey, message);
+        }
+        if (!sending) {
+            sendNext();
+        }
+        return true;
+    }
+
+    synchronized void close() {
+        closed = true;
+        dropped += pending.size();
+        DROPPED.add(pending.size());
+        pending.clear();
+        pendingByKey.clear();
+    }
+
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    synchronized long sentCount() {
+        return sent;
+    }
+
+    synchronized long coalescedCount() {
+        return coalesced;
+    }
+
+    synchronized long droppedCount() {
+        return dropped;
+    }
+
+    synchronized boolean isSending() {
+        return sending;
+    }
+
+    // Called with the lock held; the completion handler may run on this thread or a container thread.
+    private void sendNext() {
+        Message message = pending.poll();
+        if (message == null || closed) {
+            sending = false;
+            return;
+        }
+        if (message.key != null) {
+            pendingByKey.remove(message.key, message);
+        }
+        sending = true;
+        sendStartedNanos = System.nanoTime();
+        try {
+            if (message.binary != null) {
+                session.getAsyncRemote().sendBinary(message.binary, this::onSent);
+            } else {
+                session.getAsyncRemote().sendText(message.text, this::onSent);
+            }
+        } catch (IllegalStateException e) {
+            sending = false;
+            close();
+        }
+    }
+
+    private synchronized void onSent(SendResult result) {
+        if (!result.isOK()) {
+            FAILED.increment();
+            sending = false;
+            closeSlowConsumer();
+            return;
+        }
+        sent++;
+        SENT.increment();
+        SEND_TIME.recordSince(sendStartedNanos);
+        sendNext();
+    }
+
+    private void closeSlowConsumer() {
+        if (closed) {
+            return;
+        }
+        SLOW_CONSUMERS.increment();
+        close();
+        // Closing writes a close frame, so keep it off the caller's thread as well
+        try {
+            CLOSER.execute(() -> {
+                try {
+                    session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Slow consumer"));
+                } catch (IOException | IllegalStateException e) {
+                    // Already closed or gone, which is all the close was for
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The queue is already closed, so the session only idles until the container times it out
+            CLOSES_REJECTED.increment();
+        }
+    }
+
+    private static ThreadPoolExecutor closer() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(CLOSE_THREADS, CLOSE_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(CLOSE_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "ws-close");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        Metrics.pool("ws-close", executor);
+        return executor;
+    }
+
+    private static final class Message {
+        final String key;
+        final String text;
+        final ByteBuffer binary;
+
+        Message(String key, String text, ByteBuffer binary) {
+            this.key = key;
+            this.text = text;
+            this.binary = binary;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Picks the dominant colors of a logo from packed ARGB pixels. Pixels are counted into a
+// 15-bit RGB histogram (5 bits per channel) held in flat int/long arrays, and the most
+// populated bins are taken in order, skipping any too close to a color already chosen.
+// One pass over the pixels and a sort of the occupied bins, with no per-pixel allocation.
+final class PaletteQuantizer {
+    private static final int BITS = 5;
+    private static final int BINS = 1 << (BITS * 3);
+    private static final int MIN_ALPHA = 128;
+    private static final int MIN_DISTANCE_SQUARED = 48 * 48;
+    private static final int[] FALLBACK = {0x141E2D, 0x23375A, 0x46648C};
+
+    private PaletteQuantizer() {
+    }
+
+    // Returns count colors as 0xRRGGBB, repeating the last one if the image has fewer.
+    static int[] dominantColors(int[] argb, int count) {
+        int[] counts = new int[BINS];
+        long[] sumRed = new long[BINS];
+        long[] sumGreen = new long[BINS];
+        long[] sumBlue = new long[BINS];
+
+        for (int pixel : argb) {
+            if (pixel >>> 24 < MIN_ALPHA || (pixel & 0xFFFFFF) == 0xFFFFFF) {
+                continue;  // Transparent background and pure white, as the old client did
+            }
+            int red = (pixel >> 16) & 0xFF;
+            int green = (pixel >> 8) & 0xFF;
+            int blue = pixel & 0xFF;
+            int bin = ((red >> 3) << 10) | ((green >> 3) << 5) | (blue >> 3);
+            counts[bin]++;
+            sumRed[bin] += red;
+            sumGreen[bin] += green;
+            sumBlue[bin] += blue;
+        }
+
+        // Occupied bins packed as (count << 15 | bin) so one primitive sort orders them by count
+        int occupied = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0) {
+                occupied++;
+            }
+        }
+        long[] ranked = new long[occupied];
+        for (int bin = 0, i = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0) {
+                ranked[i++] = (long) counts[bin] << (BITS * 3) | bin;
+            }
+        }
+        Arrays.sort(ranked);
+
+        int[] colors = new int[count];
+        int found = 0;
+        for (int i = ranked.length - 1; i >= 0 && found < count; i--) {
+            int bin = (int) (ranked[i] & (BINS - 1));
+            int n = counts[bin];
+            int color = (int) (sumRed[bin] / n) << 16 | (int) (sumGreen[bin] / n) << 8 | (int) (sumBlue[bin] / n);
+            if (!tooClose(color, colors, found)) {
+                colors[found++] = color;
+            }
+        }
+
+        if (found == 0) {
+            for (int i = 0; i < count; i++) {
+                colors[i] = FALLBACK[Math.min(i, FALLBACK.length - 1)];
+            }
+            return colors;
+        }
+        for (int i = found; i < count; i++) {
+            colors[i] = colors[found - 1];
+        }
+        return colors;
+    }
+
+    static String toHex(int rgb) {
+        return String.format("#%06x", rgb & 0xFFFFFF);
+    }
+
+    private static boolean tooClose(int color, int[] chosen, int chosenCount) {
+        for (int i = 0; i < chosenCount; i++) {
+            int dr = ((color >> 16) & 0xFF) - ((chosen[i] >> 16) & 0xFF);
+            int dg = ((color >> 8) & 0xFF) - ((chosen[i] >> 8) & 0xFF);
+            int db = (color & 0xFF) - (chosen[i] & 0xFF);
+            if (dr * dr + dg * dg + db * db < MIN_DISTANCE_SQUARED) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+// Decoded audio in the mixer's output format: interleaved 16-bit stereo at AudioMixer.SAMPLE_RATE.
+final class PcmSound {
+    final String name;
+    final ShortBuffer samples;
+    final int frames;
+    volatile LoudnessAnalyzer.Result loudness;  // Set once the background analysis finishes
+    volatile BeatAnalyzer.Result beats;  // Likewise
+
+    PcmSound(String name, ShortBuffer samples) {
+        this.name = name;
+        this.samples = samples;
+        this.frames = samples.limit() / AudioMixer.CHANNELS;
+    }
+
+    static PcmSound decode(String name, AudioInputStream source) throws IOException {
+        AudioFormat sourceFormat = source.getFormat();
+        int channels = Math.max(1, sourceFormat.getChannels());
+        float sourceRate = sourceFormat.getSampleRate();
+
+        byte[] bytes;
+        try (AudioInputStream converted = AudioSystem.getAudioInputStream(pcmFormat(sourceFormat), source)) {
+            bytes = converted.readAllBytes();
+        }
+        ShortBuffer input = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        return new PcmSound(name, ShortBuffer.wrap(toMixerFormat(input, channels, sourceRate)));
+    }
+
+    // Mono is duplicated to both sides, extra channels are dropped, and the rate is converted
+    // with linear interpolation since javax.sound has no built-in sample rate converter.
+    private static short[] toMixerFormat(ShortBuffer input, int channels, float sourceRate) {
+        int inputFrames = input.limit() / channels;
+        double step = sourceRate / AudioMixer.SAMPLE_RATE;
+        int outputFrames = (int) Math.floor(inputFrames / step);
+        short[] output = new short[outputFrames * AudioMixer.CHANNELS];
+        int rightChannel = channels > 1 ? 1 : 0;
+
+        for (int frame = 0; frame < outputFrames; frame++) {
+            double position = frame * step;
+            int index = (int) position;
+            int next = Math.min(index + 1, inputFrames - 1);
+            double fraction = position - index;
+
+            output[frame * 2] = interpolate(input.get(index * channels), input.get(next * channels), fraction);
+            output[frame * 2 + 1] = interpolate(input.get(index * channels + rightChannel), input.get(next * channels + rightChannel), fraction);
+        }
+        return output;
+    }
+
+    private static short interpolate(short from, short to, double fraction) {
+        return (short) Math.round(from + (to - from) * fraction);
+    }
+
+    private static AudioFormat pcmFormat(AudioFormat sourceFormat) {
+        int channels = Math.max(1, sourceFormat.getChannels());
+        float sourceRate = sourceFormat.getSampleRate();
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sourceRate, 16, channels, channels * 2, sourceRate, false);
+    }
+
+    // The same conversion as decode, a chunk at a time, for passes that only need to see the
+    // samples once: memory stays at one read buffer whatever the length of the clip.
+    static final class Stream implements Closeable {
+        private static final int READ_FRAMES = 8192;
+
+        private final AudioInputStream converted;
+        private final int channels;
+        private final double step;
+        private final byte[] bytes;
+        private short[] input;  // Interleaved source frames from inputBase on
+        private long inputBase;
+        private int inputCount;
+        private long outputFrames = -1;  // Known once the source has ended
+        private long frame;  // Next output frame
+
+        Stream(AudioInputStream source) {
+            AudioFormat sourceFormat = source.getFormat();
+            this.channels = Math.max(1, sourceFormat.getChannels());
+            this.step = sourceFormat.getSampleRate() / AudioMixer.SAMPLE_RATE;
+            this.converted = AudioSystem.getAudioInputStream(pcmFormat(sourceFormat), source);
+            this.bytes = new byte[READ_FRAMES * channels * 2];
+            this.input = new short[READ_FRAMES * channels * 2];
+        }
+
+        // Fills chunk with up to frames interleaved stereo frames and returns how many; fewer
+        // than asked only at the end of the clip, and 0 after it.
+        int read(short[] chunk, int frames) throws IOException {
+            int produced = 0;
+            int rightChannel = channels > 1 ? 1 : 0;
+            while (produced < frames) {
+                double position = frame * step;
+                long index = (long) position;
+                // Read ahead until both source frames are here and the source is long enough
+                // for decode to have emitted this frame (it emits floor(inputFrames / step)).
+                while (outputFrames < 0 && (inputBase + inputCount < index + 2 || frame + 1 > (inputBase + inputCount) / step)) {
+                    fill(index);
+                }
+                if (outputFrames >= 0 && frame >= outputFrames) {
+                    break;
+                }
+                long end = inputBase + inputCount;
+                int at = (int) (index - inputBase) * channels;
+                int next = (int) (Math.min(index + 1, end - 1) - inputBase) * channels;
+                double fraction = position - index;
+                chunk[produced * 2] = interpolate(input[at], input[next], fraction);
+                chunk[produced * 2 + 1] = interpolate(input[at + rightChannel], input[next + rightChannel], fraction);
+                produced++;
+                frame++;
+            }
+            return produced;
+        }
+
+        // Drops source frames before keepFrom and reads one more block, or notes the end.
+        private void fill(long keepFrom) throws IOException {
+            int drop = (int) Math.min(inputCount, Math.max(0, keepFrom - inputBase));
+            if (drop > 0) {
+                System.arraycopy(input, drop * channels, input, 0, (inputCount - drop) * channels);
+                inputBase += drop;
+                inputCount -= drop;
+            }
+            int read = converted.read(bytes, 0, bytes.length);
+            if (read < 0) {
+                outputFrames = (long) Math.floor((inputBase + inputCount) / step);
+                return;
+            }
+            int readFrames = read / (channels * 2);
+            if ((inputCount + readFrames) * channels > input.length) {
+                input = Arrays.copyOf(input, (inputCount + readFrames) * channels * 2);
+            }
+            ByteBuffer.wrap(bytes, 0, readFrames * channels * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
+                    .get(input, inputCount * channels, readFrames * channels);
+            inputCount += readFrames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            converted.close();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// Compact cache of the player fields the goal graphics need (name, number, images), kept
+// instead of the full player landing documents. Entries expire after a TTL, the least
+// recently used are evicted past maxEntries, and the map is written to one JSON file shortly
+// after it changes so it survives restarts. Batch lookups fan out to the upstream in parallel
+// and share requests already in flight.
+final class PlayerDirectory {
+    private static final long SAVE_DELAY_MILLIS = 5000;
+
+    private final Path file;
+    private final long ttlMillis;
+    private final Function<String, String> fetcher;
+    private final Executor fetchExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Gson gson;
+    private final Map<String, Player> players;
+    private final ConcurrentHashMap<String, CompletableFuture<Player>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    PlayerDirectory(Path file, long ttlMillis, int maxEntries, Function<String, String> fetcher,
+                    Executor fetchExecutor, ScheduledExecutorService scheduler, Gson gson) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.fetcher = fetcher;
+        this.fetchExecutor = fetchExecutor;
+        this.scheduler = scheduler;
+        this.gson = gson;
+        this.players = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Player> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Player[] loaded = gson.fromJson(reader, Player[].class);
+            if (loaded != null) {
+                synchronized (players) {
+                    for (Player player : loaded) {
+                        if (player != null && player.id != null) {
+                            players.put(player.id, player);
+                        }
+                    }
+                }
+            }
+            System.out.println("Loaded " + size() + " cached players from " + file);
+        } catch (Exception e) {
+            System.out.println("Could not read player cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Resolves every id it can within timeoutMillis. Fresh entries are answered from memory,
+    // the rest are fetched in parallel; an expired entry is still returned if its refresh fails.
+    Map<String, Player> getAll(Collection<String> ids, long timeoutMillis) {
+        Map<String, Player> result = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Player>> pending = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+
+        for (String id : ids) {
+            Player cached = lookup(id);
+            if (cached != null && now - cached.fetchedAtMillis <= ttlMillis) {
+                result.put(id, cached);
+            } else if (!pending.containsKey(id)) {
+                pending.put(id, fetchAsync(id, cached));
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Map.Entry<String, CompletableFuture<Player>> entry : pending.entrySet()) {
+            try {
+                Player player = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (player != null) {
+                    result.put(entry.getKey(), player);
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                System.out.println("Player " + entry.getKey() + " not ready: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    // Starts fetches for any ids that are missing or expired without waiting for them.
+    void prewarm(Collection<String> ids) {
+        long now = System.currentTimeMillis();
+        int started = 0;
+        for (String id : ids) {
+            Player cached = lookup(id);
+            if (cached == null || now - cached.fetchedAtMillis > ttlMillis) {
+                fetchAsync(id, cached);
+                started++;
+            }
+        }
+        if (started > 0) {
+            System.out.println("Prewarming " + started + " players");
+        }
+    }
+
+    int size() {
+        synchronized (players) {
+            return players.size();
+        }
+    }
+
+    private CompletableFuture<Player> fetchAsync(String id, Player previous) {
+        CompletableFuture<Player> created = new CompletableFuture<>();
+        CompletableFuture<Player> existing = inFlight.putIfAbsent(id, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            fetchExecutor.execute(() -> {
+                Player player = previous;
+                try {
+                    String body = fetcher.apply(id);
+                    if (body != null) {
+                        player = Player.fromLanding(id, JsonParser.parseString(body).getAsJsonObject(), System.currentTimeMillis());
+                        store(player);
+                    }
+                } catch (Exception e) {
+                    System.out.println("Player fetch failed for " + id + ": " + e.getMessage());
+                } finally {
+                    inFlight.remove(id, created);
+                    created.complete(player);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id, created);
+            created.complete(previous);
+        }
+        return created;
+    }
+
+    private Player lookup(String id) {
+        synchronized (players) {
+            return players.get(id);
+        }
+    }
+
+    private void store(Player player) {
+        synchronized (players) {
+            players.put(player.id, player);
+        }
+        if (saveScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void save() {
+        saveScheduled.set(false);
+        List<Player> snapshot;
+        synchronized (players) {
+            snapshot = new ArrayList<>(players.values());
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "players", ".json");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(snapshot, writer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static final class Player {
+        final String id;
+        final String firstName;
+        final String lastName;
+        final String sweaterNumber;
+        final String headshot;
+        final String heroImage;
+        final long fetchedAtMillis;
+
+        Player(String id, String firstName, String lastName, String sweaterNumber, String headshot, String heroImage, long fetchedAtMillis) {
+            this.id = id;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.sweaterNumber = sweaterNumber;
+            this.headshot = headshot;
+            this.heroImage = heroImage;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+
+        static Player fromLanding(String id, JsonObject landing, long fetchedAtMillis) {
+            return new Player(id,
+                    localized(landing.get("firstName")),
+                    localized(landing.get("lastName")),
+                    text(landing.get("sweaterNumber")),
+                    text(landing.get("headshot")),
+                    text(landing.get("heroImage")),
+                    fetchedAtMillis);
+        }
+
+        private static String localized(JsonElement element) {
+            if (element != null && element.isJsonObject()) {
+                return text(element.getAsJsonObject().get("default"));
+            }
+            return text(element);
+        }
+
+        private static String text(JsonElement element) {
+            return element == null || element.isJsonNull() ? "" : element.getAsString();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.example;
+
+import org.eclipse.jetty.server.HttpOutput;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves files and cached classpath resources with strong ETags, conditional GETs and
+// single-range requests. Files are memory-mapped once per version and handed to Jetty as
+// ByteBuffer slices, so the body is never copied through a heap buffer.
+final class RangeResponder {
+    private static final String CACHE_CONTROL = "no-cache";  // Roles can point at new files under the same URL
+
+    private static final ConcurrentHashMap<Path, MappedFile> mappedFiles = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, CachedResource> resources = new ConcurrentHashMap<>();
+
+    private RangeResponder() {
+    }
+
+    static Object serveFile(Request req, Response res, Path path, String contentType) throws IOException {
+        long size = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+
+        MappedFile mapped = mappedFiles.get(path);
+        if (mapped == null || !mapped.etag.equals(etag)) {
+            mapped = new MappedFile(etag, map(path, size));
+            mappedFiles.put(path, mapped);
+        }
+        return serve(req, res, mapped.buffer, etag, contentType, CACHE_CONTROL);
+    }
+
+    // Returns null if the resource does not exist; otherwise the value for the route to return.
+    static Object serveResource(Request req, Response res, String resourcePath, String contentType) throws IOException {
+        CachedResource resource = resources.get(resourcePath);
+        if (resource == null) {
+            try (InputStream in = Soundboard.class.getResourceAsStream(resourcePath)) {
+                if (in == null) {
+                    return null;
+                }
+                byte[] bytes = in.readAllBytes();
+                resource = new CachedResource("\"" + sha256(bytes).substring(0, 32) + "\"", ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+            }
+            resources.putIfAbsent(resourcePath, resource);
+        }
+        return serve(req, res, resource.buffer, resource.etag, contentType, CACHE_CONTROL);
+    }
+
+    // For content whose URL identifies it, so browsers may keep it for cacheControl's lifetime.
+    static Object serveBytes(Request req, Response res, byte[] content, String etag, String contentType, String cacheControl) throws IOException {
+        return serve(req, res, ByteBuffer.wrap(content).asReadOnlyBuffer(), etag, contentType, cacheControl);
+    }
+
+    private static Object serve(Request req, Response res, ByteBuffer content, String etag, String contentType,
+                                String cacheControl) throws IOException {
+        HttpServletResponse raw = res.raw();
+        long length = content.capacity();
+        res.header("ETag", etag);
+        res.header("Accept-Ranges", "bytes");
+        res.header("Cache-Control", cacheControl);
+
+        if (matchesEtag(req.headers("If-None-Match"), etag)) {
+            res.status(304);
+            return "";
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = req.headers("Range");
+        String ifRange = req.headers("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                res.status(416);
+                res.header("Content-Range", "bytes */" + length);
+                return "";
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                res.status(206);
+                res.header("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        res.type(contentType);
+        raw.setContentLengthLong(count);
+        if ("HEAD".equalsIgnoreCase(req.requestMethod()) || count == 0) {
+            return "";
+        }
+
+        ByteBuffer slice = content.duplicate();
+        slice.position((int) start);
+        slice.limit((int) (start + count));
+        writeBody(raw.getOutputStream(), slice.slice());
+        return raw;
+    }
+
+    private static void writeBody(ServletOutputStream out, ByteBuffer body) throws IOException {
+        if (out instanceof HttpOutput) {
+            ((HttpOutput) out).sendContent(body);
+            return;
+        }
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (body.hasRemaining()) {
+            channel.write(body);
+        }
+        out.flush();
+    }
+
+    // Returns {start, end} for a satisfiable single range, an empty array when the header
+    // should be ignored (multiple or malformed ranges), or null when it is unsatisfiable.
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MappedByteBuffer map(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class MappedFile {
+        final String etag;
+        final ByteBuffer buffer;
+
+        MappedFile(String etag, ByteBuffer buffer) {
+            this.etag = etag;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class CachedResource {
+        final String etag;
+        final ByteBuffer buffer;
+
+        CachedResource(String etag, ByteBuffer buffer) {
+            this.etag = etag;
+            this.buffer = buffer;
+        }
+    }
+}
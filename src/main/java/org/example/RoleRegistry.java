@@ -0,0 +1,430 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Sound roles as data: each role has a file, gain, fade profile, optional exclusivity group,
+// the roles it stays quiet for and the commands that play or fade it, and owns one mixer voice. Edits build a new
+// immutable Snapshot (roles, command bindings and groups all resolved up front) and swap it
+// in, so the trigger path reads one volatile field and allocates nothing.
+final class RoleRegistry {
+    static final float DEFAULT_GAIN_DB = -4.0f;  // Matches the old MASTER_GAIN maximum minus 10 dB
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,40}");
+    private static final Map<String, String> LEGACY_PLAY_TRIGGERS = Map.of(
+            "homeGoal", "play_panthers_goal",
+            "awayGoal", "play_lightning_goal",
+            "crowd", "play_crowd_audio",
+            "homeSong", "play_panthers_song",
+            "awaySong", "play_alternate_song");
+
+    enum Action { PLAY, FADE }
+
+    private final AudioMixer mixer;
+    private final Path configPath;
+    private final Gson gson;
+    private final Map<String, Voice> voices = new HashMap<>();  // Guarded by this
+    private volatile Snapshot snapshot;
+
+    RoleRegistry(AudioMixer mixer, Path configPath, Gson gson) {
+        this.mixer = mixer;
+        this.configPath = configPath;
+        this.gson = gson;
+        Snapshot loaded;
+        try {
+            loaded = build(load());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ignoring role config " + configPath + ": " + e.getMessage());
+            loaded = build(defaults());
+        }
+        this.snapshot = loaded;
+    }
+
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // The built-in roles and their stock files, which ship on the classpath.
+    static List<RoleConfig> defaults() {
+        List<RoleConfig> defaults = new ArrayList<>();
+        defaults.add(RoleConfig.of("homeGoal", "goal.wav", null, false, "goal_push_panthers", "goal_release"));
+        defaults.add(RoleConfig.of("awayGoal", "alternateGoal.wav", null, false, "goal_push_alternate", "goal_release"));
+        defaults.add(RoleConfig.of("crowd", "crowd.wav", "bed", true, "goal_push_panthers", null));
+        defaults.get(2).on.put("goal_push_alternate", "play");
+        defaults.get(2).quietWhile = List.of("homeSong", "awaySong");  // The bed never starts over a song
+        defaults.add(RoleConfig.of("homeSong", "song.wav", null, false, "panther_song", null));
+        defaults.add(RoleConfig.of("awaySong", "alternateSong.wav", null, false, "alternate_song", null));
+        return defaults;
+    }
+
+    static boolean isBuiltIn(String name) {
+        return LEGACY_PLAY_TRIGGERS.containsKey(name);
+    }
+
+    synchronized List<RoleConfig> configs() {
+        List<RoleConfig> configs = new ArrayList<>();
+        for (Role role : snapshot.roles.values()) {
+            configs.add(role.config);
+        }
+        return configs;
+    }
+
+    // Adds or replaces one role. The caller validates the file; this checks everything else.
+    synchronized void put(RoleConfig requested) throws IOException {
+        RoleConfig role = requested.normalized();
+        List<RoleConfig> next = new ArrayList<>();
+        boolean replaced = false;
+        for (Role existing : snapshot.roles.values()) {
+            if (existing.name.equals(role.name)) {
+                next.add(role);
+                replaced = true;
+            } else {
+                next.add(existing.config);
+            }
+        }
+        if (!replaced) {
+            next.add(role);
+        }
+        publish(next);
+    }
+
+    synchronized boolean remove(String name) throws IOException {
+        if (isBuiltIn(name)) {
+            throw new IllegalArgumentException("Built-in role " + name + " can be changed but not removed");
+        }
+        List<RoleConfig> next = new ArrayList<>();
+        for (Role existing : snapshot.roles.values()) {
+            if (!existing.name.equals(name)) {
+                next.add(existing.config);
+            }
+        }
+        if (next.size() == snapshot.roles.size()) {
+            return false;
+        }
+        publish(next);
+        return true;
+    }
+
+    // Points existing roles at new files and fades, as the older selection API did.
+    synchronized void assignFiles(Map<String, String> files, Map<String, FadeProfile> fades) throws IOException {
+        List<RoleConfig> next = new ArrayList<>();
+        for (Role existing : snapshot.roles.values()) {
+            RoleConfig role = existing.config.copy();
+            String file = files.get(role.name);
+            if (file != null && !file.isBlank()) {
+                role.file = file;
+            }
+            FadeProfile fade = fades == null ? null : fades.get(role.name);
+            if (fade != null) {
+                role.fade = fade.withDefaults();
+            }
+            next.add(role);
+        }
+        publish(next);
+    }
+
+    private void publish(List<RoleConfig> roles) throws IOException {
+        Snapshot next = build(roles);
+        save(roles);
+        Snapshot previous = snapshot;
+        snapshot = next;
+        for (Role role : previous.roles.values()) {
+            if (!next.roles.containsKey(role.name)) {
+                voices.remove(role.name);
+                role.voice.stop();
+                mixer.removeVoice(role.voice);
+            }
+        }
+    }
+
+    // Must be called with the lock held (or from the constructor).
+    private Snapshot build(List<RoleConfig> configs) {
+        Map<String, RoleConfig> normalized = new LinkedHashMap<>();
+        for (RoleConfig config : configs) {
+            RoleConfig role = config.normalized();
+            if (normalized.put(role.name, role) != null) {
+                throw new IllegalArgumentException("Duplicate role " + role.name);
+            }
+        }
+        Map<String, Role> roles = new LinkedHashMap<>();
+        for (RoleConfig config : normalized.values()) {
+            roles.put(config.name, new Role(config, voices.computeIfAbsent(config.name, mixer::newVoice)));
+        }
+
+        Map<String, List<Role>> groups = new HashMap<>();
+        Map<String, List<Binding>> bindings = new LinkedHashMap<>();
+        for (Role role : roles.values()) {
+            if (role.group != null) {
+                groups.computeIfAbsent(role.group, group -> new ArrayList<>()).add(role);
+            }
+            for (Map.Entry<String, String> entry : role.config.on.entrySet()) {
+                Action action = Action.valueOf(entry.getValue().toUpperCase(Locale.ROOT));
+                bindings.computeIfAbsent(entry.getKey(), command -> new ArrayList<>()).add(new Binding(role, action));
+            }
+        }
+        for (Role role : roles.values()) {
+            role.groupMembers = role.group == null ? List.of() : List.copyOf(groups.get(role.group));
+            List<Role> quietWhile = new ArrayList<>();
+            for (String name : role.config.quietWhile) {
+                Role other = roles.get(name);
+                if (other != null && other != role) {  // A role that has since been removed no longer counts
+                    quietWhile.add(other);
+                }
+            }
+            role.quietWhile = List.copyOf(quietWhile);
+        }
+        Map<String, List<Binding>> frozen = new HashMap<>();
+        bindings.forEach((command, list) -> frozen.put(command, List.copyOf(list)));
+        return new Snapshot(Collections.unmodifiableMap(roles), Map.copyOf(frozen));
+    }
+
+    private List<RoleConfig> load() {
+        if (!Files.exists(configPath)) {
+            return defaults();
+        }
+        try (Reader reader = Files.newBufferedReader(configPath)) {
+            JsonElement parsed = JsonParser.parseReader(reader);
+            if (parsed == null || !parsed.isJsonObject()) {
+                return defaults();
+            }
+            JsonObject json = parsed.getAsJsonObject();
+            if (json.has("roles")) {
+                List<RoleConfig> roles = gson.fromJson(json.get("roles"), new TypeToken<List<RoleConfig>>() {}.getType());
+                return withBuiltIns(roles);
+            }
+            return migrateSelection(json);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return defaults();
+        }
+    }
+
+    // The older file format: one field per built-in role plus a fades map.
+    private List<RoleConfig> migrateSelection(JsonObject json) {
+        Map<String, FadeProfile> fades = json.has("fades")
+                ? gson.fromJson(json.get("fades"), new TypeToken<Map<String, FadeProfile>>() {}.getType())
+                : null;
+        List<RoleConfig> roles = defaults();
+        for (RoleConfig role : roles) {
+            if (json.has(role.name) && json.get(role.name).isJsonPrimitive() && !json.get(role.name).getAsString().isBlank()) {
+                role.file = json.get(role.name).getAsString();
+            }
+            FadeProfile fade = fades == null ? null : fades.get(role.name);
+            if (fade != null) {
+                role.fade = fade.withDefaults();
+            }
+        }
+        return roles;
+    }
+
+    // Built-in roles saved before they had a quietWhile list take the default one.
+    private static List<RoleConfig> withBuiltIns(List<RoleConfig> loaded) {
+        List<RoleConfig> roles = new ArrayList<>();
+        if (loaded != null) {
+            for (RoleConfig role : loaded) {
+                if (role != null) {
+                    roles.add(role);
+                }
+            }
+        }
+        for (RoleConfig builtIn : defaults()) {
+            RoleConfig saved = roles.stream().filter(role -> builtIn.name.equals(role.name)).findFirst().orElse(null);
+            if (saved == null) {
+                roles.add(builtIn);
+            } else if (saved.quietWhile == null) {
+                saved.quietWhile = builtIn.quietWhile;
+            }
+        }
+        return roles;
+    }
+
+    private void save(List<RoleConfig> roles) throws IOException {
+        Path parent = configPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, "roles", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            gson.toJson(Map.of("roles", roles), writer);
+        }
+        Files.move(temp, configPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static final class Snapshot {
+        final Map<String, Role> roles;
+        private final Map<String, List<Binding>> bindings;
+
+        Snapshot(Map<String, Role> roles, Map<String, List<Binding>> bindings) {
+            this.roles = roles;
+            this.bindings = bindings;
+        }
+
+        Role role(String name) {
+            return roles.get(name);
+        }
+
+        List<Binding> bindingsFor(String command) {
+            List<Binding> bound = bindings.get(command);
+            return bound == null ? List.of() : bound;
+        }
+
+        boolean handles(String command) {
+            return bindings.containsKey(command);
+        }
+    }
+
+    static final class Role {
+        final String name;
+        final String file;
+        final float gainDb;
+        final FadeProfile fade;
+        final String group;
+        final boolean continuous;
+        final Voice voice;
+        final String playTrigger;  // What the remote audio page is sent when this role starts
+        final String fadeTrigger;
+        final RoleConfig config;
+        List<Role> groupMembers;  // Set once while building the snapshot
+        List<Role> quietWhile;  // Likewise
+
+        // Whether a play of this role is skipped for now: a continuous role never restarts over
+        // a playing member of its group, and no role starts while one it stays quiet for plays.
+        boolean heldBack() {
+            for (int i = 0; i < quietWhile.size(); i++) {
+                if (quietWhile.get(i).voice.phase() == Voice.Phase.PLAYING) {
+                    return true;
+                }
+            }
+            if (continuous) {
+                for (int i = 0; i < groupMembers.size(); i++) {
+                    if (groupMembers.get(i).voice.phase() == Voice.Phase.PLAYING) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        Role(RoleConfig config, Voice voice) {
+            this.name = config.name;
+            this.file = config.file;
+            this.gainDb = config.gainDb;
+            this.fade = config.fade;
+            this.group = config.group;
+            this.continuous = config.continuous;
+            this.voice = voice;
+            this.playTrigger = LEGACY_PLAY_TRIGGERS.getOrDefault(name, "play_role:" + name);
+            this.fadeTrigger = "fade_role:" + name;
+            this.config = config;
+        }
+    }
+
+    static final class Binding {
+        final Role role;
+        final Action action;
+
+        Binding(Role role, Action action) {
+            this.role = role;
+            this.action = action;
+        }
+    }
+
+    // JSON shape of a role, as stored and as accepted by the API. A continuous role (the crowd
+    // bed) is not restarted while it or another member of its group is playing; any other
+    // role fades out the rest of its group when it starts. quietWhile names roles that keep
+    // this one from starting while they play, without fading it when they start.
+    static final class RoleConfig {
+        String name;
+        String file;
+        Float gainDb;
+        FadeProfile fade;
+        String group;
+        boolean continuous;
+        List<String> quietWhile;  // Role names
+        Map<String, String> on = new LinkedHashMap<>();  // Command name -> "play" or "fade"
+
+        static RoleConfig of(String name, String file, String group, boolean continuous, String playCommand, String fadeCommand) {
+            RoleConfig role = new RoleConfig();
+            role.name = name;
+            role.file = file;
+            role.group = group;
+            role.continuous = continuous;
+            role.on.put(playCommand, "play");
+            if (fadeCommand != null) {
+                role.on.put(fadeCommand, "fade");
+            }
+            return role.normalized();
+        }
+
+        RoleConfig copy() {
+            RoleConfig copy = new RoleConfig();
+            copy.name = name;
+            copy.file = file;
+            copy.gainDb = gainDb;
+            copy.fade = fade;
+            copy.group = group;
+            copy.continuous = continuous;
+            copy.quietWhile = quietWhile;
+            copy.on = new LinkedHashMap<>(on);
+            return copy;
+        }
+
+        // Throws IllegalArgumentException for anything the registry cannot run.
+        RoleConfig normalized() {
+            if (name == null || !NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("Role names are 1-40 letters, digits, '-' or '_'");
+            }
+            if (file == null || file.isBlank()) {
+                throw new IllegalArgumentException("Missing sound file for " + name);
+            }
+            RoleConfig role = copy();
+            role.gainDb = gainDb == null ? DEFAULT_GAIN_DB : Math.max(-60f, Math.min(12f, gainDb));
+            role.fade = fade == null ? FadeProfile.DEFAULT : fade.withDefaults();
+            role.group = group == null || group.isBlank() ? null : group.trim();
+            role.quietWhile = new ArrayList<>();
+            if (quietWhile != null) {
+                for (String other : quietWhile) {
+                    if (other == null || !NAME.matcher(other).matches()) {
+                        throw new IllegalArgumentException("Bad role name in quietWhile of " + name + ": " + other);
+                    }
+                    if (!role.quietWhile.contains(other)) {
+                        role.quietWhile.add(other);
+                    }
+                }
+            }
+            role.quietWhile = List.copyOf(role.quietWhile);
+            role.on = new LinkedHashMap<>();
+            if (on != null) {
+                for (Map.Entry<String, String> entry : on.entrySet()) {
+                    String command = entry.getKey() == null ? "" : entry.getKey().trim().toLowerCase(Locale.ROOT);
+                    String action = entry.getValue() == null ? "" : entry.getValue().trim().toLowerCase(Locale.ROOT);
+                    if (command.isEmpty() || command.contains(":") || command.startsWith("{")) {
+                        throw new IllegalArgumentException("Bad command name for " + name + ": " + entry.getKey());
+                    }
+                    if (!action.equals("play") && !action.equals("fade")) {
+                        throw new IllegalArgumentException("Command " + command + " on " + name + " must be \"play\" or \"fade\"");
+                    }
+                    role.on.put(command, action);
+                }
+            }
+            return role;
+        }
+    }
+}
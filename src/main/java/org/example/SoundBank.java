@@ -0,0 +1,345 @@
+package org.example;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleConsumer;
+
+// Decodes library files once into the mixer's PCM format and keeps them as memory-mapped
+// cache files. Cache files are named by content hash; the index remembers size and mtime
+// per library file so a warm start maps the cached PCM without hashing or decoding.
+// Roles point at sounds through a map whose values are swapped atomically, so a selection
+// change only affects the next trigger.
+final class SoundBank {
+    private static final String CACHE_SUFFIX = "-s16le-44100-stereo.pcm";
+    private static final String INDEX_FILE = "index.json";
+
+    private final Path audioDirectory;
+    private final Path cacheDirectory;
+    private final Gson gson;
+    private final Map<String, CacheEntry> index;
+    private final ConcurrentHashMap<String, CompletableFuture<PcmSound>> soundsByHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Assignment> roles = new ConcurrentHashMap<>();
+    private final Set<String> cachedHashes = ConcurrentHashMap.newKeySet();
+
+    SoundBank(Path audioDirectory, Path cacheDirectory, Gson gson) {
+        this.audioDirectory = audioDirectory;
+        this.cacheDirectory = cacheDirectory;
+        this.gson = gson;
+        this.index = new ConcurrentHashMap<>(loadIndex());
+        scanCacheDirectory();
+    }
+
+    PcmSound sound(String role) {
+        Assignment assignment = roles.get(role);
+        return assignment == null ? null : assignment.sound;
+    }
+
+    // Points a role at a file, decoding it only if it is not already cached. Roles that keep
+    // the same unchanged file are left alone.
+    void assign(String role, String fileName) throws IOException, UnsupportedAudioFileException {
+        Assignment current = roles.get(role);
+        String version = versionOf(fileName);
+        if (current != null && current.fileName.equals(fileName) && current.version.equals(version)) {
+            return;
+        }
+        roles.put(role, new Assignment(fileName, version, load(fileName)));
+    }
+
+    // Forgets roles that were removed from the registry.
+    void retainRoles(Set<String> names) {
+        roles.keySet().retainAll(names);
+    }
+
+    // Answered from memory so library listings do not stat the cache for every file.
+    boolean isDecoded(String fileName, long size, long modifiedMillis) {
+        CacheEntry entry = index.get(fileName);
+        return entry != null
+                && entry.size == size
+                && entry.modifiedMillis == modifiedMillis
+                && cachedHashes.contains(entry.hash);
+    }
+
+    PcmSound load(String fileName) throws IOException, UnsupportedAudioFileException {
+        return load(fileName, null);
+    }
+
+    // The progress callback, if any, receives the fraction of the source file read so far.
+    PcmSound load(String fileName, DoubleConsumer progress) throws IOException, UnsupportedAudioFileException {
+        Path audioPath = audioDirectory.resolve(fileName).normalize();
+        String hash = contentHash(fileName);
+
+        // Concurrent loads of the same content share one decode.
+        CompletableFuture<PcmSound> created = new CompletableFuture<>();
+        CompletableFuture<PcmSound> existing = soundsByHash.putIfAbsent(hash, created);
+        if (existing == null) {
+            try {
+                created.complete(mapOrDecode(fileName, audioPath, hash, progress));
+            } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+                soundsByHash.remove(hash, created);
+                created.completeExceptionally(e);
+                throw e;
+            }
+            return created.join();
+        }
+
+        try {
+            return existing.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnsupportedAudioFileException) throw (UnsupportedAudioFileException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw e;
+        }
+    }
+
+    // The sound for fileName if this bank has already loaded its content, else null. Never
+    // decodes, so background passes can tell whether the PCM is already in memory.
+    PcmSound loaded(String fileName) throws IOException {
+        CompletableFuture<PcmSound> sound = soundsByHash.get(contentHash(fileName));
+        return sound != null && sound.isDone() && !sound.isCompletedExceptionally() ? sound.join() : null;
+    }
+
+    // Decodes fileName a chunk at a time for a single pass, without writing or mapping a cache file.
+    PcmSound.Stream stream(String fileName) throws IOException, UnsupportedAudioFileException {
+        Path audioPath = audioDirectory.resolve(fileName).normalize();
+        return new PcmSound.Stream(openAudio(fileName, audioPath, null));
+    }
+
+    // The content hash the PCM cache is keyed by, from the index when the file is unchanged.
+    String contentHash(String fileName) throws IOException {
+        Path audioPath = audioDirectory.resolve(fileName).normalize();
+        return Files.exists(audioPath) ? hashLibraryFile(fileName, audioPath) : hashResource(fileName);
+    }
+
+    private PcmSound mapOrDecode(String fileName, Path audioPath, String hash, DoubleConsumer progress) throws IOException, UnsupportedAudioFileException {
+        Path cacheFile = cacheFile(hash);
+        if (!Files.exists(cacheFile)) {
+            PcmSound decoded;
+            try (AudioInputStream stream = openAudio(fileName, audioPath, progress)) {
+                decoded = PcmSound.decode(fileName, stream);
+            }
+            writeCacheFile(decoded, cacheFile);
+        }
+        return new PcmSound(fileName, map(cacheFile));
+    }
+
+    private AudioInputStream openAudio(String fileName, Path audioPath, DoubleConsumer progress) throws IOException, UnsupportedAudioFileException {
+        if (Files.exists(audioPath)) {
+            if (progress == null) {
+                return AudioSystem.getAudioInputStream(audioPath.toFile());
+            }
+            InputStream counted = new ProgressInputStream(Files.newInputStream(audioPath), Files.size(audioPath), progress);
+            return AudioSystem.getAudioInputStream(new BufferedInputStream(counted));
+        }
+        InputStream resourceStream = Soundboard.class.getResourceAsStream("/" + fileName);
+        if (resourceStream == null) {
+            throw new FileNotFoundException("Missing audio resource: " + fileName);
+        }
+        return AudioSystem.getAudioInputStream(new BufferedInputStream(resourceStream));
+    }
+
+    private String versionOf(String fileName) throws IOException {
+        Path audioPath = audioDirectory.resolve(fileName).normalize();
+        if (!Files.exists(audioPath)) {
+            return "classpath";
+        }
+        return Files.size(audioPath) + ":" + Files.getLastModifiedTime(audioPath).toMillis();
+    }
+
+    private String hashLibraryFile(String fileName, Path audioPath) throws IOException {
+        CacheEntry entry = index.get(fileName);
+        if (entry != null && entry.matches(audioPath)) {
+            return entry.hash;
+        }
+
+        String hash;
+        try (InputStream in = Files.newInputStream(audioPath)) {
+            hash = sha256(in);
+        }
+        index.put(fileName, new CacheEntry(Files.size(audioPath), Files.getLastModifiedTime(audioPath).toMillis(), hash));
+        saveIndex();
+        return hash;
+    }
+
+    private String hashResource(String fileName) throws IOException {
+        try (InputStream in = Soundboard.class.getResourceAsStream("/" + fileName)) {
+            if (in == null) {
+                throw new FileNotFoundException("Missing audio resource: " + fileName);
+            }
+            return sha256(in);
+        }
+    }
+
+    private static String sha256(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (DigestInputStream digestStream = new DigestInputStream(in, digest)) {
+            digestStream.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Path cacheFile(String hash) {
+        return cacheDirectory.resolve(hash + CACHE_SUFFIX);
+    }
+
+    private void writeCacheFile(PcmSound sound, Path cacheFile) throws IOException {
+        Files.createDirectories(cacheDirectory);
+        ShortBuffer samples = sound.samples.duplicate();
+        samples.rewind();
+        ByteBuffer bytes = ByteBuffer.allocate(samples.remaining() * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(samples);
+
+        Path temp = Files.createTempFile(cacheDirectory, "decode", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        cachedHashes.add(hashOf(cacheFile));
+    }
+
+    private void scanCacheDirectory() {
+        if (!Files.isDirectory(cacheDirectory)) {
+            return;
+        }
+        try (var paths = Files.list(cacheDirectory)) {
+            paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(CACHE_SUFFIX))
+                    .forEach(name -> cachedHashes.add(name.substring(0, name.length() - CACHE_SUFFIX.length())));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String hashOf(Path cacheFile) {
+        String name = cacheFile.getFileName().toString();
+        return name.substring(0, name.length() - CACHE_SUFFIX.length());
+    }
+
+    private static ShortBuffer map(Path cacheFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        }
+    }
+
+    private Map<String, CacheEntry> loadIndex() {
+        Path indexPath = cacheDirectory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return Map.of();
+        }
+        try (Reader reader = Files.newBufferedReader(indexPath)) {
+            Map<String, CacheEntry> loaded = gson.fromJson(reader, new TypeToken<Map<String, CacheEntry>>() {}.getType());
+            return loaded == null ? Map.of() : loaded;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Map.of();
+        }
+    }
+
+    private synchronized void saveIndex() throws IOException {
+        Files.createDirectories(cacheDirectory);
+        Path temp = Files.createTempFile(cacheDirectory, "index", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            gson.toJson(index, writer);
+        }
+        Files.move(temp, cacheDirectory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class ProgressInputStream extends FilterInputStream {
+        private final long total;
+        private final DoubleConsumer progress;
+        private long read;
+
+        ProgressInputStream(InputStream in, long total, DoubleConsumer progress) {
+            super(in);
+            this.total = Math.max(1L, total);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) advance(1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) advance(count);
+            return count;
+        }
+
+        private void advance(long count) {
+            read += count;
+            progress.accept(Math.min(1.0, read / (double) total));
+        }
+    }
+
+    private static final class Assignment {
+        final String fileName;
+        final String version;
+        final PcmSound sound;
+
+        Assignment(String fileName, String version, PcmSound sound) {
+            this.fileName = fileName;
+            this.version = version;
+            this.sound = sound;
+        }
+    }
+
+    private static final class CacheEntry {
+        long size;
+        long modifiedMillis;
+        String hash;
+
+        CacheEntry(long size, long modifiedMillis, String hash) {
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.hash = hash;
+        }
+
+        boolean matches(Path audioPath) throws IOException {
+            return Files.exists(audioPath)
+                    && Files.size(audioPath) == size
+                    && Files.getLastModifiedTime(audioPath).toMillis() == modifiedMillis;
+        }
+    }
+}
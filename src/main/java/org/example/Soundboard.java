@@ -2,16 +2,30 @@ package org.example;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
 import javax.servlet.ServletOutputStream;
 import javax.sound.sampled.*;
 import javax.websocket.*;
 import javax.websocket.server.ServerEndpoint;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.glassfish.grizzly.threadpool.AbstractThreadPool;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.grizzly.threadpool.ThreadPoolProbe;
+import org.glassfish.tyrus.container.grizzly.server.GrizzlyServerContainer;
 import org.glassfish.tyrus.server.Server;
 import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -21,46 +35,146 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.*;
-import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.PNGTranscoder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
 
 @ServerEndpoint("/soundboard")
 public class Soundboard {
-    private static Clip goalClip;
-    private static Clip alternateGoalClip;
-    private static Clip songClip;
-    private static Clip alternateSongClip;
-    private static Clip continuousClip;
-    private static boolean goalClipFadingOut = false;
-    private static boolean alternateGoalClipFadingOut = false;
-    private static boolean songClipFadingOut = false;
-    private static boolean thirdSongClipFadingOut = false;
-    private static boolean continuousClipFadingOut = false;
+    private static final String AUDIO_OUTPUT_ENV = "SOUNDBOARD_AUDIO_OUTPUT";  // "none" mixes without opening the sound card
+    private static final AudioMixer mixer = AudioMixer.start(!"none".equalsIgnoreCase(System.getenv(AUDIO_OUTPUT_ENV)));
+    private static final long ACK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long HTTP_REPLY_TIMEOUT_MILLIS = 2000;
+    // Every playback decision runs on this one thread, in arrival order, whichever socket it
+    // came from. The queue is bounded; commandIngest rejects commands when it is full.
+    private static final int COMMAND_QUEUE_CAPACITY = 256;
+    private static final ThreadPoolExecutor commandExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(COMMAND_QUEUE_CAPACITY), runnable -> {
+        Thread thread = new Thread(runnable, "soundboard-commands");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        return thread;
+    });
+    private static final Metrics.Counter KNOWN_COMMANDS = Metrics.counter("soundboard_commands_total", "Commands dispatched", "result", "known");
+    private static final Metrics.Counter UNKNOWN_COMMANDS = Metrics.counter("soundboard_commands_total", "Commands dispatched", "result", "unknown");
+    private static final Metrics.Histogram COMMAND_QUEUE_TIME = Metrics.histogram("soundboard_command_queue_seconds",
+            "From receiving a command until the command thread picked it up");
+    private static final Metrics.Histogram HTTP_COMMAND_TIME = Metrics.histogram("soundboard_http_command_seconds",
+            "From receiving a POST /api/commands request until its response was ready");
+    private static final Metrics.Histogram COMMAND_DISPATCH_TIME = Metrics.histogram("soundboard_command_dispatch_seconds",
+            "Time the command thread spent deciding and posting a command");
+    private static final Metrics.Histogram BROADCAST_TIME = Metrics.histogram("soundboard_broadcast_seconds",
+            "Time to queue one message for every display");
+    // Short timers on the trigger path (ack timeouts, held releases, beat pushes). Nothing that
+    // can block runs here; blocking timers go on ioScheduler and upstream calls through BlockingIo.
+    private static final ScheduledThreadPoolExecutor playbackTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "playback-timer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        return thread;
+    });
+    private static final ScheduledThreadPoolExecutor ioScheduler = new ScheduledThreadPoolExecutor(2, runnable -> {
+        Thread thread = new Thread(runnable, "io-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static final CountDownLatch latch = new CountDownLatch(1);
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private static boolean continuousClipPlaying = false;
-    private static final ConcurrentHashMap<Clip, Future<?>> fadeOutTasks = new ConcurrentHashMap<>();
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Gson COMPACT_GSON = new Gson();  // Single-line JSON for WebSocket messages
     private static final String AUDIO_DIR_ENV = "SOUNDBOARD_AUDIO_DIR";
     private static final String SOUND_CONFIG_ENV = "SOUNDBOARD_SOUND_CONFIG";
+    private static final String SOUND_CACHE_ENV = "SOUNDBOARD_SOUND_CACHE";
+    private static final String ENCODER_ENV = "SOUNDBOARD_FFMPEG";
+    private static final int TRANSCODE_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
     private static final Path AUDIO_DIRECTORY = Paths.get(System.getenv().getOrDefault(AUDIO_DIR_ENV, "audio-library")).toAbsolutePath().normalize();
     private static final Path SOUND_CONFIG_PATH = Paths.get(System.getenv().getOrDefault(SOUND_CONFIG_ENV, "sound-selection.json")).toAbsolutePath().normalize();
-    private static final Set<String> SELECTABLE_EXTENSIONS = new LinkedHashSet<>(Arrays.asList(".wav"));
+    private static final Path SOUND_CACHE_DIRECTORY = Paths.get(System.getenv().getOrDefault(SOUND_CACHE_ENV, AUDIO_DIRECTORY.resolve(".pcm-cache").toString())).toAbsolutePath().normalize();
+    private static final SoundBank soundBank = new SoundBank(AUDIO_DIRECTORY, SOUND_CACHE_DIRECTORY, GSON);
+    private static final TranscodePipeline transcodePipeline = new TranscodePipeline(
+            AUDIO_DIRECTORY,
+            AUDIO_DIRECTORY.resolve(".browser-variants"),
+            soundBank,
+            System.getenv().getOrDefault(ENCODER_ENV, "ffmpeg"),
+            TRANSCODE_WORKERS);
+    private static final LoudnessAnalyzer loudnessAnalyzer = new LoudnessAnalyzer(soundBank, SOUND_CACHE_DIRECTORY, GSON, TRANSCODE_WORKERS);
+    private static final BeatAnalyzer beatAnalyzer = new BeatAnalyzer(soundBank, SOUND_CACHE_DIRECTORY, GSON, TRANSCODE_WORKERS, Soundboard::onBeatsAnalyzed);
+    private static final String STATS_API_BASE = "https://api-web.nhle.com/v1";
+    private static final BlockingIo.Limit STATS_API_LIMIT = BlockingIo.limit("nhl-api", 8);
+    private static final Executor upstreamRefreshExecutor = BlockingIo.executor("upstream-refresh", 2, 64);
+    private static final UpstreamCache playByPlayCache = new UpstreamCache("play-by-play", 2000, 10000, 64, upstreamRefreshExecutor, STATS_API_LIMIT);
+    private static final UpstreamCache landingCache = new UpstreamCache("landing", 3000, 15000, 64, upstreamRefreshExecutor, STATS_API_LIMIT);
+    private static final UpstreamCache playerCache = new UpstreamCache("player", TimeUnit.HOURS.toMillis(6), TimeUnit.HOURS.toMillis(18), 200, upstreamRefreshExecutor, STATS_API_LIMIT);
+    // Request threads: every blocking upstream call on them fits in the BlockingIo budget, and the
+    // rest stay free for /api/commands, the displays' static files and the audio endpoints.
+    private static final int HTTP_MAX_THREADS = BlockingIo.MAX_BLOCKING_CALLS + 32;
+    private static final int HTTP_MIN_THREADS = 8;
+    private static final int WEBSOCKET_WORKERS = 8;
+    private static final LongAdder HTTP_REQUESTS = new LongAdder();
+    private static final int PROXY_CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int PROXY_READ_TIMEOUT_MILLIS = 10000;
+    private static final String LOGO_CACHE_ENV = "SOUNDBOARD_LOGO_CACHE";
+    private static final int MAX_LOGO_SIZE = 2048;
+    private static final String LOGO_CACHE_CONTROL = "public, max-age=86400";
+    private static final LogoRenderer logoRenderer = new LogoRenderer(
+            Paths.get(System.getenv().getOrDefault(LOGO_CACHE_ENV, "logo-cache")).toAbsolutePath().normalize(),
+            16L * 1024 * 1024,
+            2);
+    private static final String PLAYER_CACHE_ENV = "SOUNDBOARD_PLAYER_CACHE";
+    private static final int MAX_BATCH_PLAYERS = 100;
+    private static final long PLAYER_BATCH_TIMEOUT_MILLIS = 8000;
+    private static final Executor playerFetchExecutor = BlockingIo.executor("player-fetch", 6, 256);
+    private static final PlayerDirectory playerDirectory = new PlayerDirectory(
+            Paths.get(System.getenv().getOrDefault(PLAYER_CACHE_ENV, "player-cache.json")).toAbsolutePath().normalize(),
+            TimeUnit.HOURS.toMillis(24),
+            5000,
+            playerId -> playerCache.get(STATS_API_BASE + "/player/" + playerId + "/landing"),
+            playerFetchExecutor,
+            ioScheduler,
+            COMPACT_GSON);
+    private static final Set<String> SELECTABLE_EXTENSIONS = new LinkedHashSet<>(Arrays.asList(".wav", ".mp3", ".ogg", ".flac"));
     private static final List<String> REMOTE_PREFERRED_EXTENSIONS = Arrays.asList(".mp3");
-    private static final Map<String, String> DEFAULT_SELECTIONS = defaultSelections();
-    private static volatile SoundSelection soundSelection = loadSelection();
-    private static int homeScore = 0;
-    private static int awayScore = 0;
+    private static final Set<String> BUILT_IN_FILES = builtInFiles();
+    private static final AudioLibrary audioLibrary = new AudioLibrary(
+            AUDIO_DIRECTORY,
+            Soundboard::isSelectableFile,
+            entry -> soundBank.isDecoded(entry.name, entry.size, entry.modifiedMillis),
+            Soundboard::onLibraryChanged);
+    private static final RoleRegistry roleRegistry = new RoleRegistry(mixer, SOUND_CONFIG_PATH, GSON);
+    private static final long BEAT_PUSH_POLL_MILLIS = 10;
+    private static final int BEAT_PUSH_ATTEMPTS = 100;  // A second; a scheduled start is at most 250 ms out
+    private static final String LIGHT_TIMELINES_ENV = "SOUNDBOARD_LIGHT_TIMELINES";
+    private static final String LIGHT_SINK_ENV = "SOUNDBOARD_LIGHT_SINK";
+    private static final LightSequencer lightSequencer = new LightSequencer(
+            Paths.get(System.getenv().getOrDefault(LIGHT_TIMELINES_ENV, "light-timelines")).toAbsolutePath().normalize(),
+            GSON,
+            roleRegistry::snapshot,
+            Soundboard::analyzedBeats,
+            LightSequencer.sink(System.getenv(LIGHT_SINK_ENV), Soundboard::broadcastClientEvent));
+    private static final ClockSync clockSync = new ClockSync((session, message) -> sendToSession(session, null, message));
+    private static final String COMMAND_DEBOUNCE_ENV = "SOUNDBOARD_COMMAND_DEBOUNCE";
+    private static final CommandIngest commandIngest = new CommandIngest(
+            commandExecutor,
+            playbackTimer,
+            roleRegistry::snapshot,
+            clockSync::deadlineNanos,
+            Soundboard::dispatch,
+            CommandIngest.debounceWindows(System.getenv(COMMAND_DEBOUNCE_ENV)));
+    private static final DisplayState displayState = new DisplayState();  // What reconnecting displays catch up to
     private static Set<Session> soundboardSessions = new CopyOnWriteArraySet<>();  // Sessions for Postman or external tool
     private static Set<Session> clientSessions = new CopyOnWriteArraySet<>();  // Sessions for the browser clients
+    private static final Map<Session, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    private static final Map<String, GamePoller> gamePollers = new ConcurrentHashMap<>();
+    private static final Map<Session, GamePoller> watchedGames = new ConcurrentHashMap<>();
     private static boolean enableWeb = true;
+    private static final String HTTP_PORT_ENV = "SOUNDBOARD_HTTP_PORT";  // Pages, /api and /metrics
+    private static final String WEBSOCKET_PORT_ENV = "SOUNDBOARD_WEBSOCKET_PORT";  // The pages connect to 8080
 
     static {
         try {
@@ -68,94 +182,199 @@ public class Soundboard {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        registerMetrics();
     }
 
-    private static Map<String, String> defaultSelections() {
-        Map<String, String> defaults = new LinkedHashMap<>();
-        defaults.put("homeGoal", "goal.wav");
-        defaults.put("homeSong", "song.wav");
-        defaults.put("awayGoal", "alternateGoal.wav");
-        defaults.put("awaySong", "alternateSong.wav");
-        defaults.put("crowd", "crowd.wav");
-        return defaults;
+    private static void registerMetrics() {
+        Metrics.pool("soundboard-commands", commandExecutor);
+        Metrics.pool("playback-timer", playbackTimer);
+        Metrics.pool("io-scheduler", ioScheduler);
+        Metrics.gauge("soundboard_sessions", "Open WebSocket sessions", () -> soundboardSessions.size(), "endpoint", "soundboard");
+        Metrics.gauge("soundboard_sessions", "Open WebSocket sessions", () -> clientSessions.size(), "endpoint", "client");
+        Metrics.gauge("soundboard_clock_synced_clients", "Displays with a clock offset", clockSync::syncedCount);
+        Metrics.gauge("soundboard_ws_pending_messages", "Messages queued across every session", () -> {
+            long pending = 0;
+            for (OutboundQueue queue : outboundQueues.values()) {
+                pending += queue.pendingCount();
+            }
+            return pending;
+        });
+        for (Voice.Phase phase : new Voice.Phase[] {Voice.Phase.PLAYING, Voice.Phase.FADING}) {
+            Metrics.gauge("soundboard_voices", "Voices by phase", () -> {
+                int count = 0;
+                for (RoleRegistry.Role role : roleRegistry.snapshot().roles.values()) {
+                    if (role.voice.phase() == phase) {
+                        count++;
+                    }
+                }
+                return count;
+            }, "phase", phase.name().toLowerCase(Locale.ROOT));
+        }
+        Metrics.gauge("soundboard_mixer_scheduled_commands", "Commands waiting for their start time", mixer::scheduledCount);
+        Metrics.gauge("soundboard_mixer_output_latency_seconds", "Output line buffer length", () -> mixer.outputLatencyNanos() / 1e9);
+        Metrics.gauge("soundboard_mixer_frames_rendered", "Frames mixed since startup", mixer::framesRendered);
+        Metrics.gauge("soundboard_display_state_version", "Version of the display state", displayState::version);
+
+        FlightEvents.registerPeriodic(() -> {
+            for (RoleRegistry.Role role : roleRegistry.snapshot().roles.values()) {
+                Voice.State state = role.voice.state();
+                FlightEvents.VoiceState event = new FlightEvents.VoiceState();
+                event.role = role.name;
+                event.phase = state.phase.name();
+                event.generation = state.generation;
+                event.commit();
+            }
+        }, () -> {
+            emitSessionEvents(soundboardSessions, "soundboard");
+            emitSessionEvents(clientSessions, "client");
+        });
     }
 
-    private static synchronized void reloadConfiguredSounds() throws IOException, UnsupportedAudioFileException, LineUnavailableException {
-        SoundSelection selection = soundSelection.withDefaults();
-        goalClip = replaceClip(goalClip, loadClip(selection.homeGoal));
-        alternateGoalClip = replaceClip(alternateGoalClip, loadClip(selection.awayGoal));
-        songClip = replaceClip(songClip, loadClip(selection.homeSong));
-        alternateSongClip = replaceClip(alternateSongClip, loadClip(selection.awaySong));
-        continuousClip = replaceClip(continuousClip, loadClip(selection.crowd));
+    private static void emitSessionEvents(Set<Session> sessions, String endpoint) {
+        for (Session session : sessions) {
+            OutboundQueue queue = outboundQueues.get(session);
+            FlightEvents.SessionState event = new FlightEvents.SessionState();
+            event.session = session.getId();
+            event.endpoint = endpoint;
+            event.synced = clockSync.isSynced(session);
+            if (queue != null) {
+                event.pending = queue.pendingCount();
+                event.sent = queue.sentCount();
+                event.dropped = queue.droppedCount();
+            }
+            event.commit();
+        }
     }
 
-    private static Clip replaceClip(Clip existingClip, Clip newClip) {
-        if (existingClip != null) {
-            try {
-                existingClip.stop();
-                existingClip.close();
-            } catch (Exception ignored) {
+    // Everything the server is juggling right now, for /api/debug/state
+    private static Map<String, Object> debugState() {
+        Map<String, Object> voices = new LinkedHashMap<>();
+        for (RoleRegistry.Role role : roleRegistry.snapshot().roles.values()) {
+            Voice.State state = role.voice.state();
+            Map<String, Object> voice = new LinkedHashMap<>();
+            voice.put("file", role.file);
+            voice.put("phase", state.phase.name().toLowerCase(Locale.ROOT));
+            voice.put("generation", state.generation);
+            long applied = role.voice.appliedAtNanos();
+            voice.put("lastAppliedMillisAgo", applied == 0 ? null : (System.nanoTime() - applied) / 1_000_000);
+            voices.put(role.name, voice);
+        }
+
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        describeSessions(soundboardSessions, "soundboard", sessions);
+        describeSessions(clientSessions, "client", sessions);
+
+        Map<String, Object> mixerState = new LinkedHashMap<>();
+        mixerState.put("framesRendered", mixer.framesRendered());
+        mixerState.put("voices", mixer.voiceCount());
+        mixerState.put("scheduledCommands", mixer.scheduledCount());
+        mixerState.put("outputLatencyMillis", mixer.outputLatencyNanos() / 1_000_000.0);
+
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("voices", voices);
+        state.put("sessions", sessions);
+        state.put("mixer", mixerState);
+        state.put("pools", Metrics.pools());
+        state.put("lightSink", lightSequencer.sink().describe());
+        if (lightSequencer.sink() instanceof LightSequencer.StubSink) {
+            String last = ((LightSequencer.StubSink) lightSequencer.sink()).last();
+            state.put("lastLightBatch", last == null ? null : JsonParser.parseString(last));
+        }
+        state.put("watchedGames", new TreeMap<>(gamePollers).keySet());
+        state.put("display", JsonParser.parseString(displayState.snapshot()));
+        return state;
+    }
+
+    private static void describeSessions(Set<Session> sessions, String endpoint, List<Map<String, Object>> out) {
+        for (Session session : sessions) {
+            Map<String, Object> described = new LinkedHashMap<>();
+            described.put("id", session.getId());
+            described.put("endpoint", endpoint);
+            described.put("open", session.isOpen());
+            OutboundQueue queue = outboundQueues.get(session);
+            if (queue != null) {
+                described.put("pending", queue.pendingCount());
+                described.put("sending", queue.isSending());
+                described.put("sent", queue.sentCount());
+                described.put("coalesced", queue.coalescedCount());
+                described.put("dropped", queue.droppedCount());
+            }
+            Map<String, Object> clock = clockSync.status(session);
+            if (clock != null) {
+                described.put("clock", clock);
+            }
+            GamePoller watching = watchedGames.get(session);
+            if (watching != null) {
+                described.put("watching", watching.gameId());
             }
+            out.add(described);
         }
-        return newClip;
     }
 
-    private static Clip loadClip(String fileName) throws IOException, UnsupportedAudioFileException, LineUnavailableException {
-        Path audioPath = AUDIO_DIRECTORY.resolve(fileName).normalize();
-        AudioInputStream audioInputStream;
+    private static Set<String> builtInFiles() {
+        Set<String> files = new LinkedHashSet<>();
+        for (RoleRegistry.RoleConfig role : RoleRegistry.defaults()) {
+            files.add(role.file);
+        }
+        return files;
+    }
 
-        if (Files.exists(audioPath)) {
-            audioInputStream = AudioSystem.getAudioInputStream(audioPath.toFile());
-        } else {
-            InputStream resourceStream = Soundboard.class.getResourceAsStream("/" + fileName);
-            if (resourceStream == null) {
-                throw new FileNotFoundException("Missing audio resource: " + fileName);
+    // Only roles whose file changed are decoded; voices that are already playing keep their
+    // old sound and the new one is used on the next trigger. Every role is decoded and mapped
+    // up front, so a stinger added through the API is ready before its first trigger.
+    private static synchronized void reloadConfiguredSounds() throws IOException, UnsupportedAudioFileException {
+        Exception firstFailure = null;
+        RoleRegistry.Snapshot roles = roleRegistry.snapshot();
+        for (RoleRegistry.Role role : roles.roles.values()) {
+            try {
+                soundBank.assign(role.name, role.file);
+                loudnessAnalyzer.submit(role.file);
+                beatAnalyzer.submit(role.file);
+            } catch (IOException | UnsupportedAudioFileException e) {
+                if (firstFailure == null) firstFailure = e;
             }
-            audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(resourceStream));
         }
+        soundBank.retainRoles(roles.roles.keySet());
+        if (firstFailure instanceof IOException) throw (IOException) firstFailure;
+        if (firstFailure instanceof UnsupportedAudioFileException) throw (UnsupportedAudioFileException) firstFailure;
+    }
 
-        Clip clip = AudioSystem.getClip();
-        clip.open(audioInputStream);
-        return clip;
+    private static void onLibraryChanged(AudioLibrary.Change change) {
+        change.added.forEach(transcodePipeline::submit);
+        change.updated.forEach(transcodePipeline::submit);
+        change.added.forEach(loudnessAnalyzer::submit);
+        change.updated.forEach(loudnessAnalyzer::submit);
+        change.removed.forEach(loudnessAnalyzer::forget);
+        change.added.forEach(beatAnalyzer::submit);
+        change.updated.forEach(beatAnalyzer::submit);
+        change.removed.forEach(beatAnalyzer::forget);
+        broadcastClientEvent(COMPACT_GSON.toJson(change));
     }
 
-    private static SoundSelection loadSelection() {
-        if (!Files.exists(SOUND_CONFIG_PATH)) {
-            return new SoundSelection();
-        }
+    private static void onBeatsAnalyzed(String fileName, BeatAnalyzer.Result beats) {
+        audioLibrary.setTempo(fileName, beats.bpm);
+    }
 
-        try (Reader reader = Files.newBufferedReader(SOUND_CONFIG_PATH)) {
-            SoundSelection loaded = GSON.fromJson(reader, SoundSelection.class);
-            return loaded == null ? new SoundSelection() : loaded.withDefaults();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new SoundSelection();
-        }
+    // The beat grid of whatever file a role is assigned, for the light patterns that follow it.
+    private static int[] analyzedBeats(String roleName) {
+        PcmSound sound = soundBank.sound(roleName);
+        BeatAnalyzer.Result beats = sound == null ? null : sound.beats;
+        return beats == null || beats.bpm <= 0 ? null : beats.beatsMillis;
     }
 
-    private static synchronized void saveSelection(SoundSelection selection) throws IOException {
-        soundSelection = selection.withDefaults();
-        Path parent = SOUND_CONFIG_PATH.getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
-        }
-        try (Writer writer = Files.newBufferedWriter(SOUND_CONFIG_PATH)) {
-            GSON.toJson(soundSelection, writer);
-        }
+    private static boolean isKnownFile(String fileName) {
+        return BUILT_IN_FILES.contains(fileName) || audioLibrary.contains(fileName);
     }
 
-    private static List<String> listSelectableFiles() throws IOException {
-        LinkedHashSet<String> fileNames = new LinkedHashSet<>(DEFAULT_SELECTIONS.values());
-        if (Files.isDirectory(AUDIO_DIRECTORY)) {
-            try (var paths = Files.list(AUDIO_DIRECTORY)) {
-                paths.filter(Files::isRegularFile)
-                        .map(path -> path.getFileName().toString())
-                        .filter(Soundboard::isSelectableFile)
-                        .sorted(String::compareToIgnoreCase)
-                        .forEach(fileNames::add);
-            }
+    private static int intParam(String value, int fallback) {
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
         }
-        return new ArrayList<>(fileNames);
     }
 
     private static boolean isSelectableFile(String fileName) {
@@ -164,10 +383,11 @@ public class Soundboard {
     }
 
     private static Path resolveRemoteAudioPath(String role) {
-        String selectedFile = soundSelection.withDefaults().fileForRole(role);
-        if (selectedFile == null || selectedFile.isBlank()) {
+        RoleRegistry.Role selected = roleRegistry.snapshot().role(role);
+        if (selected == null) {
             return null;
         }
+        String selectedFile = selected.file;
 
         String baseName = stripExtension(selectedFile);
         for (String ext : REMOTE_PREFERRED_EXTENSIONS) {
@@ -177,23 +397,168 @@ public class Soundboard {
             }
         }
 
-        return null;
+        return transcodePipeline.browserVariant(selectedFile);
     }
 
-    private static InputStream resolveBundledRemoteAudio(String role) {
-        String selectedFile = soundSelection.withDefaults().fileForRole(role);
-        if (selectedFile == null || selectedFile.isBlank()) {
-            return null;
+    private static Object serveRemoteAudio(spark.Request req, spark.Response res) throws IOException {
+        String role = req.params("role");
+        RoleRegistry.Role selected = roleRegistry.snapshot().role(role);
+        if (selected == null) {
+            res.status(404);
+            return "Unknown audio role";
         }
 
-        String baseName = stripExtension(selectedFile);
+        Path filePath = resolveRemoteAudioPath(role);
+        if (filePath != null) {
+            return RangeResponder.serveFile(req, res, filePath, contentTypeFor(filePath.getFileName().toString()));
+        }
+
+        String baseName = stripExtension(selected.file);
         for (String ext : REMOTE_PREFERRED_EXTENSIONS) {
-            InputStream stream = Soundboard.class.getResourceAsStream("/public/" + baseName + ext);
-            if (stream != null) {
-                return stream;
+            Object served = RangeResponder.serveResource(req, res, "/public/" + baseName + ext, contentTypeFor(baseName + ext));
+            if (served != null) {
+                return served;
+            }
+        }
+
+        res.status(404);
+        return "Audio file not found";
+    }
+
+    // Spark's Jetty pool, built here so it is sized and named explicitly and shows up in /metrics.
+    private static QueuedThreadPool httpThreads() {
+        QueuedThreadPool pool = new QueuedThreadPool(HTTP_MAX_THREADS, HTTP_MIN_THREADS, 60000);
+        pool.setName("http");
+        Metrics.pool("http", new Metrics.Pool() {
+            @Override
+            public int threads() {
+                return pool.getThreads();
+            }
+
+            @Override
+            public int active() {
+                return pool.getBusyThreads();
+            }
+
+            @Override
+            public int queued() {
+                return pool.getQueueSize();
+            }
+
+            @Override
+            public long completed() {
+                return HTTP_REQUESTS.sum();  // Requests served; Jetty does not count its tasks
+            }
+        });
+        return pool;
+    }
+
+    // Tyrus's Grizzly worker pool, which runs every @OnMessage. Handlers only parse and hand
+    // commands to commandIngest, so a few workers suffice; the probe feeds /metrics.
+    private static ThreadPoolConfig webSocketWorkers() {
+        AtomicInteger threads = new AtomicInteger();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger queued = new AtomicInteger();
+        LongAdder completed = new LongAdder();
+        ThreadPoolConfig config = ThreadPoolConfig.defaultConfig()
+                .setPoolName("websocket")
+                .setCorePoolSize(WEBSOCKET_WORKERS)
+                .setMaxPoolSize(WEBSOCKET_WORKERS)
+                .setDaemon(true);
+        config.getInitialMonitoringConfig().addProbes(new ThreadPoolProbe.Adapter() {
+            @Override
+            public void onThreadAllocateEvent(AbstractThreadPool pool, Thread thread) {
+                threads.incrementAndGet();
+            }
+
+            @Override
+            public void onThreadReleaseEvent(AbstractThreadPool pool, Thread thread) {
+                threads.decrementAndGet();
+            }
+
+            @Override
+            public void onTaskQueueEvent(AbstractThreadPool pool, Runnable task) {
+                queued.incrementAndGet();
+            }
+
+            @Override
+            public void onTaskDequeueEvent(AbstractThreadPool pool, Runnable task) {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+            }
+
+            @Override
+            public void onTaskCompleteEvent(AbstractThreadPool pool, Runnable task) {
+                active.decrementAndGet();
+                completed.increment();
+            }
+        });
+        Metrics.pool("websocket", new Metrics.Pool() {
+            @Override
+            public int threads() {
+                return threads.get();
+            }
+
+            @Override
+            public int active() {
+                return active.get();
+            }
+
+            @Override
+            public int queued() {
+                return queued.get();
+            }
+
+            @Override
+            public long completed() {
+                return completed.sum();
             }
+        });
+        return config;
+    }
+
+    private static Object proxyImage(String imageUrl, spark.Response res) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(imageUrl).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(PROXY_CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(PROXY_READ_TIMEOUT_MILLIS);
+
+        int statusCode = connection.getResponseCode();
+        if (statusCode != 200) {
+            res.status(statusCode);
+            return "Failed to retrieve image from " + imageUrl;
+        }
+
+        // Get content type from the target server (e.g., image/jpeg or image/png)
+        String contentType = connection.getContentType();
+        res.type(contentType);
+
+        try (InputStream inputStream = connection.getInputStream()) {
+            // Write image data to the response output stream
+            ServletOutputStream outputStream = res.raw().getOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+
+            outputStream.flush();
+        } catch (Exception e) {
+            res.status(500);
+            return "Error while proxying the image";
+        } finally {
+            connection.disconnect();
         }
-        return null;
+
+        return res.raw(); // Return the response with image data
+    }
+
+    // Optional width/height so displays get exactly the resolution they draw
+    private static LogoRenderer.Rendered renderLogo(spark.Request req, String svgUrl) throws IOException {
+        int width = Math.min(intParam(req.queryParams("width"), 0), MAX_LOGO_SIZE);
+        int height = Math.min(intParam(req.queryParams("height"), 0), MAX_LOGO_SIZE);
+        return logoRenderer.render(svgUrl, width, height);
     }
 
     private static String stripExtension(String fileName) {
@@ -207,34 +572,58 @@ public class Soundboard {
         if (lower.endsWith(".m4a")) return "audio/mp4";
         if (lower.endsWith(".ogg")) return "audio/ogg";
         if (lower.endsWith(".wav")) return "audio/wav";
+        if (lower.endsWith(".flac")) return "audio/flac";
         return "application/octet-stream";
     }
 
-    private static void writeStreamToResponse(InputStream inputStream, OutputStream outputStream) throws IOException {
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+    private static void validateSoundFile(String role, String fileName) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("Missing sound file for " + role);
+        }
+        if (!isKnownFile(fileName)) {
+            throw new IllegalArgumentException("Unknown sound file for " + role + ": " + fileName);
         }
-        outputStream.flush();
     }
 
-    private static void validateSelection(SoundSelection selection, List<String> selectableFiles) {
-        Set<String> allowed = new LinkedHashSet<>(selectableFiles);
-        for (Map.Entry<String, String> entry : selection.asMap().entrySet()) {
-            String value = entry.getValue();
-            if (value == null || value.isBlank()) {
-                throw new IllegalArgumentException("Missing sound file for " + entry.getKey());
-            }
-            if (!allowed.contains(value)) {
-                throw new IllegalArgumentException("Unknown sound file for " + entry.getKey() + ": " + value);
+    private static Map<String, String> selectedFiles() {
+        Map<String, String> files = new LinkedHashMap<>();
+        roleRegistry.snapshot().roles.forEach((name, role) -> files.put(name, role.file));
+        return files;
+    }
+
+    private static Map<String, FadeProfile> selectedFades() {
+        Map<String, FadeProfile> fades = new LinkedHashMap<>();
+        roleRegistry.snapshot().roles.forEach((name, role) -> fades.put(name, role.fade));
+        return fades;
+    }
+
+    private static SelectionRequest parseSelection(String body) {
+        JsonElement parsed;
+        try {
+            parsed = JsonParser.parseString(body == null ? "" : body);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Malformed selection payload");
+        }
+        if (!parsed.isJsonObject()) {
+            throw new IllegalArgumentException("Missing selection payload");
+        }
+        SelectionRequest selection = new SelectionRequest();
+        for (Map.Entry<String, JsonElement> entry : parsed.getAsJsonObject().entrySet()) {
+            if (entry.getKey().equals("fades")) {
+                try {
+                    selection.fades = GSON.fromJson(entry.getValue(), new TypeToken<Map<String, FadeProfile>>() {}.getType());
+                } catch (JsonParseException e) {
+                    throw new IllegalArgumentException("Malformed fades");
+                }
+            } else if (entry.getValue().isJsonPrimitive()) {
+                selection.files.put(entry.getKey(), entry.getValue().getAsString());
             }
         }
+        return selection;
     }
 
-    private static void setVolumeToMax(Clip clip) {
-        FloatControl volumeControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-        volumeControl.setValue(volumeControl.getMaximum() - 10.0f);
+    private static String rolesPayload() {
+        return GSON.toJson(Map.of("roles", roleRegistry.configs()));
     }
 
     public static void main(String[] args) {
@@ -243,14 +632,23 @@ public class Soundboard {
         endpoints.add(Soundboard.class);
         endpoints.add(Soundboard.ClientEndpoint.class);  // Register the client WebSocket endpoint
 
+        audioLibrary.start();
+        playerDirectory.load();
+        lightSequencer.start();
+
         // Start the WebSocket server with both soundboard and client endpoints
-        Server server = new Server("0.0.0.0", 8080, "/", null, endpoints);
+        Map<String, Object> webSocketProperties = new HashMap<>();
+        webSocketProperties.put(GrizzlyServerContainer.WORKER_THREAD_POOL_CONFIG, webSocketWorkers());
+        Server server = new Server("0.0.0.0", intParam(System.getenv(WEBSOCKET_PORT_ENV), 8080), "/", webSocketProperties, endpoints);
+        System.out.println("Blocking I/O runs on " + (BlockingIo.virtualThreadsAvailable() ? "virtual threads" : "bounded platform pools"));
 
 
         if (enableWeb) {
             // Start static file server (Spark for serving HTML and static assets)
-            Spark.port(4567);
+            EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory().withThreadPool(httpThreads()));
+            Spark.port(intParam(System.getenv(HTTP_PORT_ENV), 4567));
             Spark.staticFiles.location("/public");
+            Spark.afterAfter((req, res) -> HTTP_REQUESTS.increment());
             Spark.get("/", (req, res) -> {
                 try {
                     String htmlFilePath = Paths.get("public/index.html").toString();
@@ -262,40 +660,174 @@ public class Soundboard {
                 }
             });
 
+            // Commands straight from Home Assistant, one or a batch per request, through the same
+            // ingest and dispatch as /soundboard; answers once each has been applied
+            Spark.post("/api/commands", (req, res) -> {
+                long receivedNanos = System.nanoTime();
+                res.type("application/json");
+                List<CommandProtocol.Request> requests;
+                try {
+                    String body = req.body();
+                    String contentType = req.contentType();
+                    String key = req.headers("Idempotency-Key");
+                    // curl -d sends JSON as a form unless told otherwise, so a form without cmd fields is read as JSON
+                    String[] formCommands = contentType != null && contentType.startsWith("application/x-www-form-urlencoded")
+                            ? req.queryParamsValues("cmd") : null;
+                    requests = formCommands != null
+                            ? CommandProtocol.parseHttpForm(formCommands, key, receivedNanos)
+                            : CommandProtocol.parseHttpJson(body, key, receivedNanos);
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", e.getMessage()));
+                }
+                return GSON.toJson(runHttpCommands(requests, receivedNanos));
+            });
+
+            // Served from the in-memory library index; supports ?prefix=, ?q=, ?offset= and ?limit=
             Spark.get("/api/audio/files", (req, res) -> {
                 res.type("application/json");
                 try {
+                    String prefix = req.queryParams("prefix");
+                    String query = req.queryParams("q");
+                    int offset = intParam(req.queryParams("offset"), 0);
+                    int limit = intParam(req.queryParams("limit"), Integer.MAX_VALUE);
+                    AudioLibrary.Page page = audioLibrary.search(prefix, query, offset, limit);
+
+                    LinkedHashSet<String> files = new LinkedHashSet<>();
+                    if (offset == 0 && (prefix == null || prefix.isEmpty()) && (query == null || query.isEmpty())) {
+                        files.addAll(BUILT_IN_FILES);
+                    }
+                    for (AudioLibrary.Entry entry : page.items) {
+                        files.add(entry.name);
+                    }
+
                     Map<String, Object> payload = new LinkedHashMap<>();
-                    payload.put("files", listSelectableFiles());
-                    payload.put("selection", soundSelection.withDefaults().asMap());
+                    payload.put("files", files);
+                    payload.put("entries", page.items);
+                    payload.put("total", page.total);
+                    payload.put("offset", page.offset);
+                    if (limit != Integer.MAX_VALUE) {
+                        payload.put("limit", page.limit);
+                    }
+                    payload.put("selection", selectedFiles());
+                    payload.put("fades", selectedFades());
                     payload.put("audioDirectory", AUDIO_DIRECTORY.toString());
                     return GSON.toJson(payload);
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", e.getMessage()));
+                }
+            });
+
+            Spark.get("/api/audio/jobs", (req, res) -> {
+                res.type("application/json");
+                return GSON.toJson(Map.of("jobs", transcodePipeline.jobs()));
+            });
+
+            // Measured loudness, true peak, silence and the playback gain offset per analyzed file
+            Spark.get("/api/audio/loudness", (req, res) -> {
+                res.type("application/json");
+                return GSON.toJson(Map.of(
+                        "targetLufs", LoudnessAnalyzer.TARGET_LUFS,
+                        "peakCeilingDbtp", LoudnessAnalyzer.PEAK_CEILING_DBTP,
+                        "files", new TreeMap<>(loudnessAnalyzer.results())));
+            });
+
+            // Tempo, beat grid and strong onsets per analyzed file, in milliseconds into the file
+            Spark.get("/api/audio/beats", (req, res) -> {
+                res.type("application/json");
+                String file = req.queryParams("file");
+                if (file == null) {
+                    return GSON.toJson(Map.of("files", new TreeMap<>(beatAnalyzer.results())));
+                }
+                BeatAnalyzer.Result beats = beatAnalyzer.result(file);
+                if (beats == null) {
+                    res.status(404);
+                    return GSON.toJson(Map.of("error", "No beat analysis for " + file));
+                }
+                return GSON.toJson(beats);
+            });
+
+            // Prometheus scrape target
+            Spark.get("/metrics", (req, res) -> {
+                res.type("text/plain; version=0.0.4; charset=utf-8");
+                return Metrics.scrape();
+            });
+
+            Spark.get("/api/debug/state", (req, res) -> {
+                res.type("application/json");
+                return GSON.toJson(debugState());
+            });
+
+            // Light cue timelines per role, locked to the audio position
+            Spark.get("/api/lights/timelines", (req, res) -> {
+                res.type("application/json");
+                return GSON.toJson(Map.of("sink", lightSequencer.sink().describe(), "timelines", lightSequencer.timelines()));
+            });
+
+            Spark.put("/api/lights/timelines/:role", (req, res) -> {
+                res.type("application/json");
+                String role = req.params("role");
+                if (roleRegistry.snapshot().role(role) == null) {
+                    res.status(404);
+                    return GSON.toJson(Map.of("error", "Unknown audio role: " + role));
+                }
+                try {
+                    LightSequencer.Timeline timeline = GSON.fromJson(req.body(), LightSequencer.Timeline.class);
+                    if (timeline == null) {
+                        throw new IllegalArgumentException("Missing timeline");
+                    }
+                    return GSON.toJson(lightSequencer.put(role, timeline));
+                } catch (JsonParseException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", "Malformed timeline"));
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", e.getMessage()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    res.status(500);
+                    return GSON.toJson(Map.of("error", "Error saving timeline"));
+                }
+            });
+
+            Spark.delete("/api/lights/timelines/:role", (req, res) -> {
+                res.type("application/json");
+                String role = req.params("role");
+                if (roleRegistry.snapshot().role(role) == null) {
+                    res.status(404);
+                    return GSON.toJson(Map.of("error", "Unknown audio role: " + role));
+                }
+                try {
+                    lightSequencer.remove(role);
+                    return GSON.toJson(Map.of("sink", lightSequencer.sink().describe(), "timelines", lightSequencer.timelines()));
                 } catch (IOException e) {
+                    e.printStackTrace();
                     res.status(500);
-                    return GSON.toJson(Map.of("error", "Could not list audio files"));
+                    return GSON.toJson(Map.of("error", "Error removing timeline"));
                 }
             });
 
             Spark.get("/api/audio/selection", (req, res) -> {
                 res.type("application/json");
-                return GSON.toJson(soundSelection.withDefaults().asMap());
+                return GSON.toJson(selectedFiles());
             });
 
+            // Older role -> file map (plus optional fades); roles it leaves out keep their file
             Spark.post("/api/audio/selection", (req, res) -> {
                 res.type("application/json");
                 try {
-                    SoundSelection requested = GSON.fromJson(req.body(), SoundSelection.class);
-                    if (requested == null) {
-                        throw new IllegalArgumentException("Missing selection payload");
+                    SelectionRequest requested = parseSelection(req.body());
+                    for (Map.Entry<String, String> entry : requested.files.entrySet()) {
+                        if (roleRegistry.snapshot().role(entry.getKey()) != null) {
+                            validateSoundFile(entry.getKey(), entry.getValue());
+                        }
                     }
-
-                    SoundSelection normalized = requested.withDefaults();
-                    validateSelection(normalized, listSelectableFiles());
-                    saveSelection(normalized);
+                    roleRegistry.assignFiles(requested.files, requested.fades);
                     reloadConfiguredSounds();
                     return GSON.toJson(Map.of(
                             "ok", true,
-                            "selection", soundSelection.withDefaults().asMap()
+                            "selection", selectedFiles()
                     ));
                 } catch (IllegalArgumentException e) {
                     res.status(400);
@@ -307,35 +839,63 @@ public class Soundboard {
                 }
             });
 
-            Spark.get("/audio/remote/:role", (req, res) -> {
-                String role = req.params("role");
-                if (!soundSelection.withDefaults().asMap().containsKey(role)) {
-                    res.status(404);
-                    return "Unknown audio role";
-                }
+            Spark.get("/api/audio/roles", (req, res) -> {
+                res.type("application/json");
+                return rolesPayload();
+            });
 
-                Path filePath = resolveRemoteAudioPath(role);
-                if (filePath != null) {
-                    res.type(contentTypeFor(filePath.getFileName().toString()));
-                    try (InputStream inputStream = Files.newInputStream(filePath)) {
-                        writeStreamToResponse(inputStream, res.raw().getOutputStream());
+            // Adds or replaces a role; its sound is decoded before the call returns and the
+            // next trigger of any of its commands uses it, no restart needed
+            Spark.put("/api/audio/roles/:name", (req, res) -> {
+                res.type("application/json");
+                try {
+                    RoleRegistry.RoleConfig role = GSON.fromJson(req.body(), RoleRegistry.RoleConfig.class);
+                    if (role == null) {
+                        throw new IllegalArgumentException("Missing role payload");
                     }
-                    return res.raw();
+                    role.name = req.params("name");
+                    RoleRegistry.RoleConfig normalized = role.normalized();
+                    validateSoundFile(normalized.name, normalized.file);
+                    soundBank.assign(normalized.name, normalized.file);
+                    loudnessAnalyzer.submit(normalized.file);
+                    beatAnalyzer.submit(normalized.file);
+                    roleRegistry.put(normalized);
+                    return rolesPayload();
+                } catch (UnsupportedAudioFileException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", "Unsupported audio file: " + e.getMessage()));
+                } catch (IllegalArgumentException | JsonParseException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", String.valueOf(e.getMessage())));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    res.status(500);
+                    return GSON.toJson(Map.of("error", "Could not save role"));
                 }
+            });
 
-                try (InputStream inputStream = resolveBundledRemoteAudio(role)) {
-                    if (inputStream == null) {
+            Spark.delete("/api/audio/roles/:name", (req, res) -> {
+                res.type("application/json");
+                try {
+                    if (!roleRegistry.remove(req.params("name"))) {
                         res.status(404);
-                        return "Audio file not found";
+                        return GSON.toJson(Map.of("error", "Unknown role"));
                     }
-
-                    String selectedFile = soundSelection.withDefaults().fileForRole(role);
-                    res.type(contentTypeFor(selectedFile));
-                    writeStreamToResponse(inputStream, res.raw().getOutputStream());
-                    return res.raw();
+                    soundBank.retainRoles(roleRegistry.snapshot().roles.keySet());
+                    return rolesPayload();
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", e.getMessage()));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    res.status(500);
+                    return GSON.toJson(Map.of("error", "Could not remove role"));
                 }
             });
 
+            Spark.get("/audio/remote/:role", Soundboard::serveRemoteAudio);
+            Spark.head("/audio/remote/:role", Soundboard::serveRemoteAudio);
+
             try {
                 server.start();
                 System.out.println("WebSocket server started.");
@@ -345,18 +905,47 @@ public class Soundboard {
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
+                    mixer.close();
                 }));
             } catch (Exception e) {
                 e.printStackTrace();
             }
 
+            // Batch lookup for goal graphics: /proxy/players?ids=1,2,3 returns compact player info
+            Spark.get("/proxy/players", (req, res) -> {
+                List<String> ids = new ArrayList<>();
+                String idsParam = req.queryParams("ids");
+                if (idsParam != null) {
+                    for (String id : idsParam.split(",")) {
+                        String trimmed = id.trim();
+                        if (trimmed.matches("\\d{1,10}") && !ids.contains(trimmed)) {
+                            ids.add(trimmed);
+                        }
+                    }
+                }
+                if (ids.isEmpty() || ids.size() > MAX_BATCH_PLAYERS) {
+                    res.status(400);
+                    return "Expected 1 to " + MAX_BATCH_PLAYERS + " numeric player ids";
+                }
+
+                Map<String, PlayerDirectory.Player> players = playerDirectory.getAll(ids, PLAYER_BATCH_TIMEOUT_MILLIS);
+                List<String> missing = new ArrayList<>(ids);
+                missing.removeAll(players.keySet());
+
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("players", players);
+                response.put("missing", missing);
+                res.type("application/json");
+                return COMPACT_GSON.toJson(response);
+            });
+
             Spark.get("/proxy/:playerId", (req, res) -> {
                 // Get the playerId from the URL parameters
                 String playerId = req.params("playerId");
-                String targetUrl = "https://api-web.nhle.com/v1/player/" + playerId + "/landing";
+                String targetUrl = STATS_API_BASE + "/player/" + playerId + "/landing";
 
-                // Call the target URL using HttpURLConnection
-                String response = forwardRequestToTargetUrl(targetUrl);
+                // Served from the shared player cache; concurrent misses share one upstream call
+                String response = playerCache.get(targetUrl);
 
                 if (response == null) {
                     res.status(500);
@@ -376,45 +965,25 @@ public class Soundboard {
                     return "Missing image URL";
                 }
 
-                // Forward request to the target image URL
-                HttpURLConnection connection = (HttpURLConnection) new URL(imageUrl).openConnection();
-                connection.setRequestMethod("GET");
-
-                int statusCode = connection.getResponseCode();
-                if (statusCode != 200) {
-                    res.status(statusCode);
-                    return "Failed to retrieve image from " + imageUrl;
-                }
-
-                // Get content type from the target server (e.g., image/jpeg or image/png)
-                String contentType = connection.getContentType();
-                res.type(contentType);
-
-                try (InputStream inputStream = connection.getInputStream()) {
-                    // Write image data to the response output stream
-                    ServletOutputStream outputStream = res.raw().getOutputStream();
-                    byte[] buffer = new byte[4096];
-                    int bytesRead;
-
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                    }
-
-                    outputStream.flush();
-                } catch (Exception e) {
-                    res.status(500);
-                    return "Error while proxying the image";
+                // Forward request to the target image URL, within that host's share of blocking I/O
+                try {
+                    return BlockingIo.forHost(imageUrl).call(() -> proxyImage(imageUrl, res));
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return e.getMessage();
+                } catch (RejectedExecutionException e) {
+                    res.status(503);
+                    res.header("Retry-After", "1");
+                    return "Image proxy is busy";
                 }
-
-                return res.raw(); // Return the response with image data
             });
 
             // Proxy to get real-time play-by-play data for a game
             Spark.get("/proxyGame/:gameId", (req, res) -> {
                 String gameId = req.params("gameId");
-                String targetUrl = "https://api-web.nhle.com/v1/gamecenter/" + gameId + "/play-by-play";
+                String targetUrl = STATS_API_BASE + "/gamecenter/" + gameId + "/play-by-play";
 
-                String response = forwardRequestToTargetUrl(targetUrl);
+                String response = playByPlayCache.get(targetUrl);
 
                 if (response == null) {
                     res.status(500);
@@ -428,9 +997,9 @@ public class Soundboard {
 // Proxy to get the landing data (includes clock.timeRemaining)
             Spark.get("/proxyLanding/:gameId", (req, res) -> {
                 String gameId = req.params("gameId");
-                String targetUrl = "https://api-web.nhle.com/v1/gamecenter/" + gameId + "/landing";
+                String targetUrl = STATS_API_BASE + "/gamecenter/" + gameId + "/landing";
 
-                String response = forwardRequestToTargetUrl(targetUrl);
+                String response = landingCache.get(targetUrl);
                 if (response == null) {
                     res.status(500);
                     return "Error while proxying landing request";
@@ -449,18 +1018,15 @@ public class Soundboard {
                 }
 
                 try {
-                    // Convert the SVG to PNG
-                    ByteArrayOutputStream pngOutputStream = new ByteArrayOutputStream();
-                    convertSvgToPng(svgUrl, pngOutputStream);
-
-                    // Serve the PNG as a response
-                    res.type("image/png");
-                    byte[] pngData = pngOutputStream.toByteArray();
-                    res.raw().setContentLength(pngData.length);
-                    OutputStream out = res.raw().getOutputStream();
-                    out.write(pngData);
-                    out.flush();
-                    return res.raw();
+                    LogoRenderer.Rendered rendered = renderLogo(req, svgUrl);
+                    return RangeResponder.serveBytes(req, res, rendered.png, rendered.etag, "image/png", LOGO_CACHE_CONTROL);
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return e.getMessage();
+                } catch (RejectedExecutionException e) {
+                    res.status(503);
+                    res.header("Retry-After", "1");
+                    return "Logo renderer is busy";
                 } catch (Exception e) {
                     e.printStackTrace();
                     res.status(500);
@@ -469,200 +1035,393 @@ public class Soundboard {
             });
 
 
+            // Dominant colors of a logo, from the same cached render as /convertSvgToPng
+            Spark.get("/api/logo/colors", (req, res) -> {
+                res.type("application/json");
+                String svgUrl = req.queryParams("svgUrl");
+                if (svgUrl == null || svgUrl.isEmpty()) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", "Missing SVG URL"));
+                }
+
+                try {
+                    LogoRenderer.Rendered rendered = renderLogo(req, svgUrl);
+                    List<String> hex = new ArrayList<>();
+                    List<int[]> rgb = new ArrayList<>();
+                    for (int color : rendered.palette) {
+                        hex.add(PaletteQuantizer.toHex(color));
+                        rgb.add(new int[] {(color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF});
+                    }
+                    Map<String, Object> payload = new LinkedHashMap<>();
+                    payload.put("svgUrl", svgUrl);
+                    payload.put("colors", hex);
+                    payload.put("rgb", rgb);
+                    res.header("ETag", rendered.etag);
+                    res.header("Cache-Control", LOGO_CACHE_CONTROL);
+                    return GSON.toJson(payload);
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return GSON.toJson(Map.of("error", e.getMessage()));
+                } catch (RejectedExecutionException e) {
+                    res.status(503);
+                    res.header("Retry-After", "1");
+                    return GSON.toJson(Map.of("error", "Logo renderer is busy"));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    res.status(500);
+                    return GSON.toJson(Map.of("error", "Error extracting logo colors"));
+                }
+            });
+
             Spark.awaitInitialization();
 
 
         }
     }
 
-    private static String forwardRequestToTargetUrl(String targetUrl) {
+    @OnOpen
+    public void onOpen(Session session) {
+        soundboardSessions.add(session);
+        System.out.println("Connection opened: " + session.getId());
+    }
+
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        long receivedNanos = System.nanoTime();
+        CommandProtocol.Request request;
         try {
-            // Create a URL object with the target API URL
-            URL url = new URL(targetUrl);
-            System.out.println("getting player info");
-
-            // Open a connection to the URL
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Accept", "application/json");
-
-            // Check if the request was successful (HTTP 200 OK)
-            int responseCode = connection.getResponseCode();
-            if (responseCode == 200) {
-                // Read the response from the input stream
-                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                String inputLine;
-                StringBuilder content = new StringBuilder();
-
-                while ((inputLine = in.readLine()) != null) {
-                    content.append(inputLine);
-                }
+            request = CommandProtocol.parseText(message, receivedNanos);
+        } catch (IllegalArgumentException e) {
+            sendToSession(session, null, CommandProtocol.malformedTextAck(e.getMessage()));
+            return;
+        }
+        if (!request.wantsAck()) {
+            System.out.println(message);
+        }
+        handleCommand(request, webSocketReply(request, session));
+    }
 
-                // Close the connections
-                in.close();
-                connection.disconnect();
+    @OnMessage
+    public void onBinaryMessage(ByteBuffer message, Session session) {
+        long receivedNanos = System.nanoTime();
+        try {
+            CommandProtocol.Request request = CommandProtocol.parseBinary(message, receivedNanos);
+            handleCommand(request, webSocketReply(request, session));
+        } catch (IllegalArgumentException e) {
+            outboundQueue(session).offerBinary(CommandProtocol.binaryAck(0, 0, CommandProtocol.STATUS_MALFORMED, CommandProtocol.UNKNOWN_LATENCY));
+        }
+    }
 
-                // Return the content of the response
-                return content.toString();
-            } else {
-                System.out.println("Error: Failed to fetch data, response code: " + responseCode);
-                return null;
+    // Submits the batch in order, then waits for every reply; each one arrives by the ack
+    // deadline at the latest, so the wait is bounded by the slowest command's schedule. A
+    // reply still missing when the whole batch's reply timeout runs out is reported as timeout.
+    private static JsonObject runHttpCommands(List<CommandProtocol.Request> requests, long receivedNanos) throws InterruptedException {
+        long deadlineNanos = receivedNanos + TimeUnit.MILLISECONDS.toNanos(HTTP_REPLY_TIMEOUT_MILLIS);
+        List<CompletableFuture<JsonObject>> replies = new ArrayList<>(requests.size());
+        for (CommandProtocol.Request request : requests) {
+            CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+            handleCommand(request, (status, latencyMicros) -> reply.complete(CommandProtocol.httpResult(request, status, latencyMicros)));
+            replies.add(reply);
+        }
+        JsonArray results = new JsonArray();
+        for (int i = 0; i < replies.size(); i++) {
+            try {
+                results.add(replies.get(i).get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (ExecutionException | TimeoutException e) {
+                results.add(CommandProtocol.httpResult(requests.get(i), CommandProtocol.STATUS_TIMEOUT, CommandProtocol.UNKNOWN_LATENCY));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
         }
+        JsonObject response = new JsonObject();
+        response.add("results", results);
+        response.addProperty("serverTimeMillis", System.currentTimeMillis());
+        response.addProperty("responseMicros", (System.nanoTime() - receivedNanos) / 1000);
+        HTTP_COMMAND_TIME.recordSince(receivedNanos);
+        return response;
     }
 
-
-    @OnOpen
-    public void onOpen(Session session) {
-        System.out.println("Connection opened: " + session.getId());
+    private static CommandProtocol.Reply webSocketReply(CommandProtocol.Request request, Session session) {
+        return request.wantsAck() ? (status, latencyMicros) -> sendAck(session, request, status, latencyMicros) : null;
     }
 
-    @OnMessage
-    public void onMessage(String message, Session session) throws IOException {
-        System.out.println(message);
-        switch (message) {
-            case "goal_push_panthers":
-                if (!continuousClipPlaying && (songClip == null || !songClip.isRunning())) {
-                    playContinuousClip();
-                    broadcastClientEvent("play_crowd_audio");
-                }
-                playClip(goalClip);
-                broadcastClientEvent("play_panthers_goal");
-                broadcastPanthersGoal();
-                break;
-            case "goal_release":
-                fadeOutSound(goalClip);
-                fadeOutSound(alternateGoalClip);
-                broadcastClientEvent("fade_goal_audio");
-                break;
-            case "panther_song":
-                playClip(songClip);
-                broadcastClientEvent("play_panthers_song");
-                break;
-            case "alternate_song":
-                playClip(alternateSongClip);
-                broadcastClientEvent("play_alternate_song");
+    // Runs the command through the ingest stage, then replies (if anyone is waiting) once the
+    // render thread has applied it, so the reply carries the real receive-to-audio-start time.
+    // The WebSocket endpoints and POST /api/commands both come through here.
+    private static void handleCommand(CommandProtocol.Request request, CommandProtocol.Reply reply) {
+        boolean known = "all_stop".equals(request.name) || roleRegistry.snapshot().handles(request.name);
+        if (!known) {
+            // Answered here so unknown names never reach the ingest stage or its debounce state
+            UNKNOWN_COMMANDS.increment();
+            System.out.println("Unknown command: " + request.name);
+            if (reply != null) {
+                reply.send(CommandProtocol.STATUS_UNKNOWN_COMMAND, CommandProtocol.UNKNOWN_LATENCY);
+            }
+            return;
+        }
+        long startAtNanos = clockSync.deadlineNanos();
+        PendingAck ack = reply == null ? null : new PendingAck(reply, request.receivedNanos);
+        CommandIngest.Outcome outcome = commandIngest.offer(request.name, request.key, startAtNanos, request.receivedNanos, ack);
+        if (ack == null) {
+            return;
+        }
+        switch (outcome) {
+            case DUPLICATE:
+                ack.send(CommandProtocol.STATUS_DUPLICATE, CommandProtocol.UNKNOWN_LATENCY);
+                return;
+            case DEBOUNCED:
+            case MERGED:
+                ack.send(CommandProtocol.STATUS_COALESCED, CommandProtocol.UNKNOWN_LATENCY);
+                return;
+            case DROPPED:
+                ack.send(CommandProtocol.STATUS_BUSY, CommandProtocol.UNKNOWN_LATENCY);
+                return;
+            default:
                 break;
-            case "goal_push_alternate":
-                if (!continuousClipPlaying && (alternateSongClip == null || !alternateSongClip.isRunning())) {
-                    playContinuousClip();
-                    broadcastClientEvent("play_crowd_audio");
+        }
+        // A held release is dispatched with a fresh deadline once the pair window closes
+        long wait = startAtNanos == 0 ? 0 : Math.max(0, startAtNanos - System.nanoTime());
+        if (outcome == CommandIngest.Outcome.HELD) {
+            wait += TimeUnit.MILLISECONDS.toNanos(CommandIngest.PAIR_WINDOW_MILLIS);
+        }
+        ack.expireAt(System.nanoTime() + wait + ACK_TIMEOUT_NANOS);
+    }
+
+    private static void sendAck(Session session, CommandProtocol.Request request, int status, long latencyMicros) {
+        if (!session.isOpen()) {
+            return;
+        }
+        if (request.binary) {
+            outboundQueue(session).offerBinary(CommandProtocol.binaryAck(request.id, request.clientTimestampMillis, status, latencyMicros));
+        } else {
+            outboundQueue(session).offer(CommandProtocol.textAck(request, status, latencyMicros));
+        }
+    }
+
+    // Returns false for commands it does not know. Local voices and synced displays all start
+    // at startAtNanos (0 for immediately), so the horn, videos and lights line up. Only called
+    // on commandExecutor, so the check-then-play decisions below cannot interleave.
+    // receivedNanos is when the command arrived and is only used for timing. ack, if anyone
+    // waits for one, follows every voice change the command posts.
+    private static boolean dispatch(String message, long startAtNanos, long receivedNanos, CommandProtocol.Reply reply) {
+        PendingAck ack = (PendingAck) reply;
+        long dispatchStart = System.nanoTime();
+        COMMAND_QUEUE_TIME.record(dispatchStart - receivedNanos);
+        FlightEvents.Command event = new FlightEvents.Command();
+        boolean recording = event.isEnabled();  // Only fill and commit the event while a recording wants it
+        if (recording) {
+            event.begin();
+        }
+        boolean known = false;
+        try {
+            known = dispatchCommand(message, startAtNanos, receivedNanos, ack);
+            (known ? KNOWN_COMMANDS : UNKNOWN_COMMANDS).increment();
+            return known;
+        } finally {
+            COMMAND_DISPATCH_TIME.recordSince(dispatchStart);
+            if (ack != null) {
+                ack.dispatched();
+            }
+            if (recording) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.command = message;
+                    event.known = known;
+                    event.queuedNanos = dispatchStart - receivedNanos;
+                    event.startDelayNanos = startAtNanos == 0 ? 0 : Math.max(0, startAtNanos - dispatchStart);
+                    event.commit();
                 }
-                playClip(alternateGoalClip);
-                broadcastClientEvent("play_lightning_goal");
-                broadcastLightningGoal();
+            }
+        }
+    }
 
-                break;
+    private static boolean dispatchCommand(String message, long startAtNanos, long receivedNanos, PendingAck ack) {
+        RoleRegistry.Snapshot roles = roleRegistry.snapshot();
+        if ("all_stop".equals(message)) {
+            stopAllSounds(roles, startAtNanos, receivedNanos, ack);
+            return true;
+        }
+        List<RoleRegistry.Binding> bindings = roles.bindingsFor(message);
+        if (bindings.isEmpty()) {
+            System.out.println("Unknown command: " + message);
+            return false;
+        }
+        for (int i = 0; i < bindings.size(); i++) {
+            RoleRegistry.Binding binding = bindings.get(i);
+            if (binding.action == RoleRegistry.Action.PLAY) {
+                playRole(binding.role, startAtNanos, receivedNanos, ack);
+            } else {
+                fadeOutSound(binding.role, startAtNanos, receivedNanos, ack);
+                broadcastTrigger(binding.role.fadeTrigger, startAtNanos);
+            }
+        }
 
-            case "all_stop":
-                stopAllSounds();
-                break;
-            default:
-                System.out.println("Unknown command: " + message);
+        // Goal videos on the displays; audio pages older than fade_role:* still fade on fade_goal_audio
+        if ("goal_push_panthers".equals(message)) {
+            broadcastPanthersGoal(startAtNanos);
+        } else if ("goal_push_alternate".equals(message)) {
+            broadcastLightningGoal(startAtNanos);
+        } else if ("goal_release".equals(message)) {
+            broadcastTrigger("fade_goal_audio", startAtNanos);
         }
+        return true;
     }
 
     @OnClose
     public void onClose(Session session) {
+        soundboardSessions.remove(session);
+        closeOutboundQueue(session);
         System.out.println("Connection closed: " + session.getId());
     }
 
-    private static void playClip(Clip clip) {
-        executorService.submit(() -> {
-
-            cancelFadeOut(clip);
-            setVolumeToMax(clip);
-            clip.setFramePosition(0);
-            clip.start();
-        });
+    @OnError
+    public void onError(Session session, Throwable error) {
+        soundboardSessions.remove(session);
+        closeOutboundQueue(session);
+        System.out.println("Connection error on " + session.getId() + ": " + error.getMessage());
     }
 
-    private static void playContinuousClip() {
-
-        executorService.submit(() -> {
-            if (!continuousClipPlaying) {
-                continuousClip.setFramePosition(0);
-                setVolumeToMax(continuousClip);
-                continuousClip.start();
-                continuousClipPlaying = true;
+    // A continuous role (the crowd bed) starts only if nothing in its group is playing, and a
+    // fading one is brought back up rather than left to die away. Any other role cuts the rest
+    // of its exclusivity group.
+    private static void playRole(RoleRegistry.Role role, long startAtNanos, long receivedNanos, PendingAck ack) {
+        if (role.heldBack()) {
+            return;
+        }
+        List<RoleRegistry.Role> group = role.groupMembers;
+        if (!role.continuous) {
+            for (int i = 0; i < group.size(); i++) {
+                RoleRegistry.Role other = group.get(i);
+                if (other != role && fadeOutSound(other, startAtNanos, receivedNanos, ack)) {
+                    broadcastTrigger(other.fadeTrigger, startAtNanos);
+                }
             }
-        });
-
-
+        }
+        PcmSound sound = soundBank.sound(role.name);
+        LongConsumer applied = PendingAck.track(ack);
+        if (!role.voice.play(sound, role.gainDb, role.fade, startAtNanos, receivedNanos, applied)) {
+            PendingAck.untrack(ack);
+        }
+        broadcastTrigger(role.playTrigger, startAtNanos);
+        publishState(displayState.voice(role.name, DisplayState.PLAYING));
+        BeatAnalyzer.Result beats = sound == null ? null : sound.beats;
+        if (beats != null && beats.bpm > 0) {
+            playbackTimer.schedule(() -> pushBeats(role, beats, BEAT_PUSH_ATTEMPTS), BEAT_PUSH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private static void fadeOutSound(Clip clip) {
-        if (clip != null && clip.isRunning()) {
-            cancelFadeOut(clip);
-            Future<?> fadeOutTask = executorService.submit(() -> {
-                if (clip == goalClip) goalClipFadingOut = true;
-                if (clip == alternateGoalClip) alternateGoalClipFadingOut = true;
-                if (clip == songClip) songClipFadingOut = true;
-                if (clip == alternateSongClip) thirdSongClipFadingOut = true;
-                if (clip == continuousClip) continuousClipFadingOut = true;
+    // Sends the displays a song's beat grid once the render thread has made it audible, with
+    // the server time of the file's first frame, so beat k is heard at startAt + beats[k] on
+    // the server clock whatever lead-in was trimmed. Runs on the playback timer, off the command thread.
+    private static void pushBeats(RoleRegistry.Role role, BeatAnalyzer.Result beats, int attemptsLeft) {
+        Voice.Playhead playhead = role.voice.playhead();
+        long audibleAt = playhead == null ? 0 : playhead.audibleAtNanos;
+        if (audibleAt == 0) {
+            if (attemptsLeft > 0) {
+                playbackTimer.schedule(() -> pushBeats(role, beats, attemptsLeft - 1), BEAT_PUSH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "beats");
+        message.put("role", role.name);
+        message.put("bpm", beats.bpm);
+        message.put("startAt", clockSync.serverMillis(audibleAt) - playhead.firstFrame * 1000.0 / AudioMixer.SAMPLE_RATE);
+        message.put("beats", beats.beatsMillis);
+        message.put("onsets", beats.onsetsMillis);
+        message.put("onsetStrengths", beats.onsetStrengths);
+        broadcastClientEvent(COMPACT_GSON.toJson(message));
+    }
 
-                FloatControl volumeControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-                volumeControl.setValue(volumeControl.getMaximum() - 10.0f);
-                float initialVolume = volumeControl.getValue();
-                float minVolume = volumeControl.getMinimum();
-                int steps = 400; // More steps for a smoother fade-out
-                float stepSize = (initialVolume - minVolume) / steps;
+    private static boolean fadeOutSound(RoleRegistry.Role role, long startAtNanos, long receivedNanos, PendingAck ack) {
+        if (role.voice.fadeOut(role.fade, startAtNanos, receivedNanos, PendingAck.track(ack))) {
+            publishState(displayState.voice(role.name, DisplayState.FADING));
+            return true;
+        }
+        PendingAck.untrack(ack);
+        return false;
+    }
 
-                for (int i = 0; i <= steps; i++) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        setVolumeToMax(clip);
-                        return;
-                    }
-                    float newVolume = initialVolume - stepSize * i;
-                    volumeControl.setValue(Math.max(newVolume, minVolume));
-                    try {
-                        Thread.sleep(5); // Adjust the sleep duration for a smoother transition
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
-                }
+    private static void stopAllSounds(RoleRegistry.Snapshot roles, long startAtNanos, long receivedNanos, PendingAck ack) {
+        for (RoleRegistry.Role role : roles.roles.values()) {
+            fadeOutSound(role, startAtNanos, receivedNanos, ack);
+        }
+        stopVideo(startAtNanos);
+    }
 
-                clip.stop();
-                setVolumeToMax(clip);
-                resetClip(clip);
+    // The reply to one acknowledged command, sent exactly once. The first voice change the
+    // command posts that lands in a buffer answers ok with its latency; if every change it
+    // posted was superseded before landing it is coalesced, and if it posted none (a release
+    // with nothing playing) it is ok as soon as it has run. The ingest stage answers held
+    // releases it merges or drops, and anything still open at the deadline is a timeout.
+    private static final class PendingAck implements CommandProtocol.Reply, LongConsumer {
+        private final CommandProtocol.Reply reply;
+        private final long receivedNanos;
+        private final AtomicBoolean sent = new AtomicBoolean();
+        private final AtomicInteger open = new AtomicInteger(1);  // Posted changes yet to land, plus one until dispatched
+        private int posted;  // Command thread only
+        private volatile ScheduledFuture<?> timeout;
+
+        PendingAck(CommandProtocol.Reply reply, long receivedNanos) {
+            this.reply = reply;
+            this.receivedNanos = receivedNanos;
+        }
 
-                if (clip == continuousClip) continuousClipPlaying = false;
+        // Called before posting a change that will report to this ack, and untrack if it was not posted.
+        static LongConsumer track(PendingAck ack) {
+            if (ack == null) {
+                return null;
+            }
+            ack.posted++;
+            ack.open.incrementAndGet();
+            return ack;
+        }
 
-                if (clip == goalClip) goalClipFadingOut = false;
-                if (clip == alternateGoalClip) alternateGoalClipFadingOut = false;
-                if (clip == songClip) songClipFadingOut = false;
-                if (clip == alternateSongClip) thirdSongClipFadingOut = false;
-                if (clip == continuousClip) continuousClipFadingOut = false;
-            });
+        static void untrack(PendingAck ack) {
+            if (ack != null) {
+                ack.posted--;
+                ack.open.decrementAndGet();  // Never the last: dispatch still holds its own count
+            }
+        }
 
-            fadeOutTasks.put(clip, fadeOutTask);
+        void expireAt(long deadlineNanos) {
+            timeout = playbackTimer.schedule(() -> send(CommandProtocol.STATUS_TIMEOUT, CommandProtocol.UNKNOWN_LATENCY),
+                    Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (sent.get()) {
+                timeout.cancel(false);
+            }
         }
-    }
 
-    private static void cancelFadeOut(Clip clip) {
-        Future<?> fadeOutTask = fadeOutTasks.get(clip);
-        if (fadeOutTask != null && !fadeOutTask.isDone()) {
-            fadeOutTask.cancel(true);
+        // Command thread, once the command has run.
+        void dispatched() {
+            if (open.decrementAndGet() == 0) {
+                if (posted == 0) {
+                    send(CommandProtocol.STATUS_OK, (System.nanoTime() - receivedNanos) / 1000);
+                } else {
+                    send(CommandProtocol.STATUS_COALESCED, CommandProtocol.UNKNOWN_LATENCY);
+                }
+            }
         }
-        fadeOutTasks.remove(clip);
-    }
 
-    private static void resetClip(Clip clip) {
-        clip.setFramePosition(0);
-    }
+        // Render thread: a posted change landed at appliedAtNanos, or was superseded (0). The
+        // reply itself goes out from the playback timer, never from the render thread.
+        @Override
+        public void accept(long appliedAtNanos) {
+            if (appliedAtNanos != 0) {
+                playbackTimer.execute(() -> send(CommandProtocol.STATUS_OK, (appliedAtNanos - receivedNanos) / 1000));
+            } else if (open.decrementAndGet() == 0) {
+                playbackTimer.execute(() -> send(CommandProtocol.STATUS_COALESCED, CommandProtocol.UNKNOWN_LATENCY));
+            }
+        }
 
-    private static void stopAllSounds() {
-        fadeOutSound(continuousClip);
-        fadeOutSound(goalClip);
-        fadeOutSound(alternateGoalClip);
-        fadeOutSound(songClip);
-        fadeOutSound(alternateSongClip);
-        continuousClipPlaying = false;
-        stopVideo();
+        @Override
+        public void send(int status, long latencyMicros) {
+            if (sent.compareAndSet(false, true)) {
+                ScheduledFuture<?> pending = timeout;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                reply.send(status, latencyMicros);
+            }
+        }
     }
 
 
@@ -672,12 +1431,16 @@ public class Soundboard {
         @OnOpen
         public void onClientOpen(Session session) {
             clientSessions.add(session);  // Add session for the browser client
+            clockSync.start(session);
             System.out.println("Client connection opened: " + session.getId());
         }
 
         @OnClose
         public void onClientClose(Session session) {
             clientSessions.remove(session);  // Remove session when closed
+            clockSync.stop(session);
+            unwatchGame(session);
+            closeOutboundQueue(session);
             System.out.println("Client connection closed: " + session.getId());
         }
 
@@ -686,107 +1449,133 @@ public class Soundboard {
             System.out.println("Received from client: " + message);
             if (message != null && message.startsWith("relay:")) {
                 broadcastClientEvent(message);
+            } else if (message != null && message.startsWith("pong:")) {
+                clockSync.onPong(session, message.substring("pong:".length()));
+            } else if (message != null && message.startsWith("resume:")) {
+                resumeState(session, message.substring("resume:".length()));
+            } else if (message != null && message.startsWith("watch:")) {
+                watchGame(session, message.substring("watch:".length()).trim());
             }
         }
     }
 
-    // Method to broadcast the score update to both soundboard and browser
-    private static void broadcastScoreUpdate() throws IOException {
-        String scoreUpdate = "home:" + homeScore + ",away:" + awayScore;
-
-        // Broadcast to soundboard sessions
-        for (Session session : soundboardSessions) {
-            try {
-                session.getBasicRemote().sendText(scoreUpdate);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            session.getBasicRemote().sendText("pressed");
+    // One poller per game, shared by every browser watching it
+    private static synchronized void watchGame(Session session, String gameId) {
+        if (!gameId.matches("\\d{10}")) {
+            return;
         }
-
-        // Broadcast to client (browser) sessions
-        for (Session session : clientSessions) {
-            try {
-                session.getBasicRemote().sendText(scoreUpdate);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        GamePoller current = watchedGames.get(session);
+        if (current != null && current.gameId().equals(gameId)) {
+            return;
         }
+        unwatchGame(session);
+
+        GamePoller poller = gamePollers.computeIfAbsent(gameId, id -> new GamePoller(
+                id,
+                ioScheduler,
+                gamePk -> playByPlayCache.fetchNow(STATS_API_BASE + "/gamecenter/" + gamePk + "/play-by-play"),
+                gamePk -> landingCache.fetchNow(STATS_API_BASE + "/gamecenter/" + gamePk + "/landing"),
+                Soundboard::sendToSession,
+                playerDirectory::prewarm,
+                COMPACT_GSON));
+        watchedGames.put(session, poller);
+        poller.subscribe(session);
     }
 
-    private static void broadcastClientEvent(String message) {
-        for (Session session : clientSessions) {
-            try {
-                session.getBasicRemote().sendText(message);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private static synchronized void unwatchGame(Session session) {
+        GamePoller poller = watchedGames.remove(session);
+        if (poller != null && poller.unsubscribe(session)) {
+            gamePollers.remove(poller.gameId(), poller);
         }
     }
 
-    private static void broadcastPanthersGoal() {
-        broadcastClientEvent("spressed");
+    // Every outbound message goes through the session's queue, so senders never block on a
+    // slow socket and a stalled browser cannot delay the others.
+    private static OutboundQueue outboundQueue(Session session) {
+        return outboundQueues.computeIfAbsent(session, OutboundQueue::new);
     }
 
-    private static void broadcastLightningGoal() {
-        broadcastClientEvent("lpressed");
+    private static void closeOutboundQueue(Session session) {
+        OutboundQueue queue = outboundQueues.remove(session);
+        if (queue != null) {
+            queue.close();
+        }
     }
 
-    private static void stopVideo() {
-        broadcastClientEvent("all_stop");
+    private static void sendToSession(Session session, String coalesceKey, String message) {
+        if (session.isOpen()) {
+            outboundQueue(session).offer(coalesceKey, message);
+        }
     }
 
-    public static void convertSvgToPng(String svgUrl, OutputStream outputStream) throws IOException, TranscoderException {
-        // Fetch the SVG content from the URL
-        InputStream svgInputStream = new URL(svgUrl).openStream();
-
-        // Create a PNGTranscoder object
-        PNGTranscoder transcoder = new PNGTranscoder();
-
-        // Input the SVG data
-        TranscoderInput input = new TranscoderInput(svgInputStream);
-
-        // Output the PNG to the provided OutputStream
-        TranscoderOutput output = new TranscoderOutput(outputStream);
+    private static void broadcastClientEvent(String message) {
+        long started = System.nanoTime();
+        for (Session session : clientSessions) {
+            sendToSession(session, null, message);
+        }
+        BROADCAST_TIME.recordSince(started);
+    }
 
-        // Perform the conversion
-        transcoder.transcode(input, output);
+    // Synced displays get the event with its start time on the server clock and start it
+    // then; clients that never answered a clock ping get the plain string as before.
+    private static void broadcastTrigger(String event, long startAtNanos) {
+        if (startAtNanos == 0) {
+            broadcastClientEvent(event);
+            return;
+        }
+        long started = System.nanoTime();
+        String scheduled = "{\"type\":\"trigger\",\"event\":\"" + event + "\",\"startAt\":" + clockSync.serverMillis(startAtNanos) + "}";
+        for (Session session : clientSessions) {
+            sendToSession(session, null, clockSync.isSynced(session) ? scheduled : event);
+        }
+        BROADCAST_TIME.recordSince(started);
+    }
 
-        // Close the input stream
-        svgInputStream.close();
+    private static void broadcastPanthersGoal(long startAtNanos) {
+        broadcastTrigger("spressed", startAtNanos);
+        publishState(displayState.goal("home", "panthers"));
     }
 
-    private static class SoundSelection {
-        String homeGoal = DEFAULT_SELECTIONS.get("homeGoal");
-        String homeSong = DEFAULT_SELECTIONS.get("homeSong");
-        String awayGoal = DEFAULT_SELECTIONS.get("awayGoal");
-        String awaySong = DEFAULT_SELECTIONS.get("awaySong");
-        String crowd = DEFAULT_SELECTIONS.get("crowd");
+    private static void broadcastLightningGoal(long startAtNanos) {
+        broadcastTrigger("lpressed", startAtNanos);
+        publishState(displayState.goal("away", "lightning"));
+    }
 
-        SoundSelection withDefaults() {
-            if (homeGoal == null || homeGoal.isBlank()) homeGoal = DEFAULT_SELECTIONS.get("homeGoal");
-            if (homeSong == null || homeSong.isBlank()) homeSong = DEFAULT_SELECTIONS.get("homeSong");
-            if (awayGoal == null || awayGoal.isBlank()) awayGoal = DEFAULT_SELECTIONS.get("awayGoal");
-            if (awaySong == null || awaySong.isBlank()) awaySong = DEFAULT_SELECTIONS.get("awaySong");
-            if (crowd == null || crowd.isBlank()) crowd = DEFAULT_SELECTIONS.get("crowd");
-            return this;
-        }
+    private static void stopVideo(long startAtNanos) {
+        broadcastTrigger("all_stop", startAtNanos);
+        publishState(displayState.video(null));
+    }
 
-        Map<String, String> asMap() {
-            Map<String, String> map = new LinkedHashMap<>();
-            map.put("homeGoal", homeGoal);
-            map.put("homeSong", homeSong);
-            map.put("awayGoal", awayGoal);
-            map.put("awaySong", awaySong);
-            map.put("crowd", crowd);
-            return map;
+    private static void publishState(String delta) {
+        if (delta != null) {
+            broadcastClientEvent(delta);
         }
+    }
 
-        String fileForRole(String role) {
-            return asMap().get(role);
+    // Reconnecting displays send "resume:<epoch>:<version>" with the last state they saw
+    private static void resumeState(Session session, String position) {
+        long epoch = 0;
+        long version = 0;
+        String[] parts = position.split(":");
+        if (parts.length == 2) {
+            try {
+                epoch = Long.parseLong(parts[0].trim());
+                version = Long.parseLong(parts[1].trim());
+            } catch (NumberFormatException e) {
+                // Unknown position, fall through to a full snapshot
+            }
         }
+        sendToSession(session, null, displayState.resume(epoch, version, Soundboard::isRolePlaying));
     }
 
+    private static boolean isRolePlaying(String role) {
+        RoleRegistry.Role registered = roleRegistry.snapshot().role(role);
+        return registered != null && registered.voice.isPlaying();
+    }
 
-
+    // Body of the older selection API: {"homeGoal": "goal.wav", ..., "fades": {...}}
+    private static class SelectionRequest {
+        final Map<String, String> files = new LinkedHashMap<>();
+        Map<String, FadeProfile> fades;
+    }
 }
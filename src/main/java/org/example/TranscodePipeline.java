@@ -0,0 +1,199 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Background work for library files: compressed files are decoded into the sound bank's PCM
+// cache, and files browsers cannot stream cheaply get an MP3 variant for /audio/remote.
+// Runs on a small bounded pool at low priority so it never competes with the trigger path.
+final class TranscodePipeline {
+    static final Set<String> COMPRESSED_EXTENSIONS = Set.of(".mp3", ".ogg", ".flac");
+    static final Set<String> BROWSER_EXTENSIONS = Set.of(".mp3", ".ogg");
+    private static final String VARIANT_EXTENSION = ".mp3";
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long ENCODE_TIMEOUT_MINUTES = 10;  // Far longer than any clip takes; only a hung encoder hits it
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+
+    enum Stage { QUEUED, DECODING, ENCODING, DONE, FAILED }
+
+    private final Path audioDirectory;
+    private final Path variantDirectory;
+    private final SoundBank soundBank;
+    private final String encoderCommand;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private volatile Boolean encoderAvailable;
+
+    TranscodePipeline(Path audioDirectory, Path variantDirectory, SoundBank soundBank, String encoderCommand, int workers) {
+        this.audioDirectory = audioDirectory;
+        this.variantDirectory = variantDirectory;
+        this.soundBank = soundBank;
+        this.encoderCommand = encoderCommand;
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "audio-transcode");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        Metrics.pool("audio-transcode", executor);
+    }
+
+    void submit(String fileName) {
+        boolean decode = hasExtension(fileName, COMPRESSED_EXTENSIONS);
+        boolean encode = !hasExtension(fileName, BROWSER_EXTENSIONS);
+        if (!decode && !encode) {
+            return;
+        }
+
+        Job job = new Job(fileName);
+        Job previous = jobs.put(fileName, job);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        try {
+            executor.execute(() -> run(job, decode, encode));
+        } catch (RejectedExecutionException e) {
+            job.fail("Transcode queue is full");
+        }
+    }
+
+    List<Job> jobs() {
+        List<Job> snapshot = new ArrayList<>(jobs.values());
+        snapshot.sort((a, b) -> a.file.compareToIgnoreCase(b.file));
+        return snapshot;
+    }
+
+    // The browser-friendly file to stream for a library file, or null if there is none yet.
+    Path browserVariant(String fileName) {
+        Path variant = variantPath(fileName);
+        if (Files.exists(variant)) {
+            return variant;
+        }
+        Path original = audioDirectory.resolve(fileName).normalize();
+        if (hasExtension(fileName, BROWSER_EXTENSIONS) && Files.exists(original)) {
+            return original;
+        }
+        return null;
+    }
+
+    private void run(Job job, boolean decode, boolean encode) {
+        try {
+            if (decode && !job.cancelled) {
+                job.stage = Stage.DECODING;
+                soundBank.load(job.file, fraction -> job.progress = fraction);
+            }
+            if (encode && !job.cancelled && isEncoderAvailable()) {
+                job.stage = Stage.ENCODING;
+                job.progress = 0;
+                encodeVariant(job.file);
+            }
+            job.progress = 1;
+            job.stage = Stage.DONE;
+        } catch (Exception e) {
+            job.fail(e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+
+    private void encodeVariant(String fileName) throws IOException, InterruptedException {
+        Path source = audioDirectory.resolve(fileName).normalize();
+        Path target = variantPath(fileName);
+        if (Files.exists(target) && Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+            return;
+        }
+
+        Files.createDirectories(variantDirectory);
+        Path temp = Files.createTempFile(variantDirectory, "encode", VARIANT_EXTENSION);
+        Process process = new ProcessBuilder(encoderCommand, "-v", "error", "-y", "-i", source.toString(),
+                "-codec:a", "libmp3lame", "-q:a", "4", temp.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        boolean exited;
+        try {
+            exited = process.waitFor(ENCODE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+        if (!exited) {
+            Files.deleteIfExists(temp);
+            throw new IOException("Encoder timed out after " + ENCODE_TIMEOUT_MINUTES + " minutes for " + fileName);
+        }
+        int exitCode = process.exitValue();
+        if (exitCode != 0) {
+            Files.deleteIfExists(temp);
+            throw new IOException("Encoder exited with " + exitCode + " for " + fileName);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean isEncoderAvailable() {
+        Boolean available = encoderAvailable;
+        if (available == null) {
+            try {
+                Process process = new ProcessBuilder(encoderCommand, "-version")
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+                if (process.waitFor(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    available = process.exitValue() == 0;
+                } else {
+                    process.destroyForcibly();
+                    available = false;
+                }
+            } catch (IOException e) {
+                available = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (!available) {
+                System.out.println("No audio encoder found at '" + encoderCommand + "', skipping browser variants");
+            }
+            encoderAvailable = available;
+        }
+        return available;
+    }
+
+    // Keeps the source extension (song.wav.mp3), so song.wav and song.flac get separate variants.
+    private Path variantPath(String fileName) {
+        return variantDirectory.resolve(fileName + VARIANT_EXTENSION).normalize();
+    }
+
+    private static boolean hasExtension(String fileName, Set<String> extensions) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        int dotIndex = lower.lastIndexOf('.');
+        return dotIndex >= 0 && extensions.contains(lower.substring(dotIndex));
+    }
+
+    static final class Job {
+        final String file;
+        volatile Stage stage = Stage.QUEUED;
+        volatile double progress;
+        volatile String error;
+        transient volatile boolean cancelled;
+
+        Job(String file) {
+            this.file = file;
+        }
+
+        void fail(String message) {
+            error = message;
+            stage = Stage.FAILED;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+// Server-side cache for one upstream JSON endpoint. Fresh entries are served directly,
+// stale entries are served while a single background revalidation runs (with
+// If-None-Match / If-Modified-Since), and concurrent misses for the same URL share
+// one upstream request. Entries are evicted least-recently-used past maxEntries. Every
+// request to the upstream goes through its BlockingIo limit.
+final class UpstreamCache {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private final String name;
+    private final long freshMillis;
+    private final long staleMillis;
+    private final Executor refreshExecutor;
+    private final BlockingIo.Limit limit;
+    private final Map<String, Entry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final Metrics.Counter freshHits;
+    private final Metrics.Counter staleHits;
+    private final Metrics.Counter misses;
+    private final Metrics.Counter failures;
+    private final Metrics.Histogram upstreamLatency;
+
+    UpstreamCache(String name, long freshMillis, long staleMillis, int maxEntries, Executor refreshExecutor, BlockingIo.Limit limit) {
+        this.name = name;
+        this.freshMillis = freshMillis;
+        this.staleMillis = staleMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.limit = limit;
+        this.freshHits = Metrics.counter("soundboard_upstream_cache_lookups_total", "Upstream cache lookups by result", "cache", name, "result", "fresh");
+        this.staleHits = Metrics.counter("soundboard_upstream_cache_lookups_total", "Upstream cache lookups by result", "cache", name, "result", "stale");
+        this.misses = Metrics.counter("soundboard_upstream_cache_lookups_total", "Upstream cache lookups by result", "cache", name, "result", "miss");
+        this.failures = Metrics.counter("soundboard_upstream_failures_total", "Upstream requests that failed or returned an error", "cache", name);
+        this.upstreamLatency = Metrics.histogram("soundboard_upstream_request_seconds", "Upstream HTTP round trips, including 304s", "cache", name);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // Returns the response body, or null if the upstream failed and nothing is cached.
+    String get(String url) {
+        Entry entry = lookup(url);
+        long age = entry == null ? Long.MAX_VALUE : System.currentTimeMillis() - entry.fetchedAtMillis;
+
+        if (age <= freshMillis) {
+            freshHits.increment();
+            return entry.body;
+        }
+        if (age <= freshMillis + staleMillis) {
+            staleHits.increment();
+            refreshInBackground(url, entry);
+            return entry.body;
+        }
+
+        misses.increment();
+        Entry fetched = fetch(url, entry).join();
+        return fetched == null ? null : fetched.body;
+    }
+
+    // Always asks the upstream (sharing any request already in flight) and updates the cache.
+    String fetchNow(String url) {
+        Entry fetched = fetch(url, lookup(url)).join();
+        return fetched == null ? null : fetched.body;
+    }
+
+    private CompletableFuture<Entry> fetch(String url, Entry previous) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(url, created);
+        if (existing != null) {
+            return existing;
+        }
+        perform(url, previous, created);
+        return created;
+    }
+
+    // Claims the URL before queueing, so stale hits arriving while a refresh waits for a
+    // worker do not queue refreshes of their own.
+    private void refreshInBackground(String url, Entry previous) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(url, created) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> perform(url, previous, created));
+        } catch (RejectedExecutionException e) {
+            // Refreshes are backed up; the next stale hit asks again
+            inFlight.remove(url, created);
+            created.complete(previous);
+        }
+    }
+
+    private void perform(String url, Entry previous, CompletableFuture<Entry> created) {
+        long started = System.nanoTime();
+        try {
+            Entry fetched = limit.call(() -> request(url, previous));
+            upstreamLatency.recordSince(started);
+            if (fetched != null) {
+                store(url, fetched);
+            } else {
+                failures.increment();
+            }
+            created.complete(fetched != null ? fetched : previous);
+        } catch (RejectedExecutionException e) {
+            created.complete(previous);  // Counted by the limit; a busy upstream is not a failed one
+        } catch (Exception e) {
+            failures.increment();  // Counted, not logged: a dead upstream fails every request
+            created.complete(previous);
+        } finally {
+            inFlight.remove(url, created);
+        }
+    }
+
+    private Entry request(String url, Entry previous) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (previous != null && previous.etag != null) {
+                connection.setRequestProperty("If-None-Match", previous.etag);
+            }
+            if (previous != null && previous.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", previous.lastModified);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                return previous.revalidated(System.currentTimeMillis());
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                return null;  // Counted as a failure by the caller
+            }
+
+            InputStream in = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            try (InputStream body = in) {
+                return new Entry(new String(body.readAllBytes(), StandardCharsets.UTF_8),
+                        connection.getHeaderField("ETag"),
+                        connection.getHeaderField("Last-Modified"),
+                        System.currentTimeMillis());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private Entry lookup(String url) {
+        synchronized (entries) {
+            return entries.get(url);
+        }
+    }
+
+    private void store(String url, Entry entry) {
+        synchronized (entries) {
+            entries.put(url, entry);
+        }
+    }
+
+    private static final class Entry {
+        final String body;
+        final String etag;
+        final String lastModified;
+        final long fetchedAtMillis;
+
+        Entry(String body, String etag, String lastModified, long fetchedAtMillis) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+
+        Entry revalidated(long now) {
+            return new Entry(body, etag, lastModified, now);
+        }
+    }
+}
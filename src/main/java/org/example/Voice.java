@@ -0,0 +1,321 @@
+package org.example;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+// One playback slot in the AudioMixer. Public methods may be called from any thread and
+// only post commands; everything below them runs on the render thread, so every fade
+// advances on the mixer's sample clock. What callers see is a single atomic state:
+// IDLE -> PLAYING -> FADING -> IDLE, where each play starts a new generation and the render
+// thread only returns a voice to IDLE for the generation it is actually playing, so a clip
+// ending late can never cancel the play that replaced it.
+final class Voice {
+    enum Phase { IDLE, PLAYING, FADING }
+
+    private static final Metrics.Histogram PLAY_LATENCY = Metrics.histogram("soundboard_trigger_to_audio_seconds",
+            "From receiving a command until the change it caused is heard, including output latency", "action", "play");
+    private static final Metrics.Histogram FADE_LATENCY = Metrics.histogram("soundboard_trigger_to_audio_seconds",
+            "From receiving a command until the change it caused is heard, including output latency", "action", "fade");
+
+    static final class State {
+        final Phase phase;
+        final long generation;
+
+        State(Phase phase, long generation) {
+            this.phase = phase;
+            this.generation = generation;
+        }
+    }
+
+    // Where a play is in its file: firstFrame is heard at audibleAtNanos, which the render
+    // thread sets once the play is mixed (0 until then), and the rest follows on the sample clock.
+    static final class Playhead {
+        final long generation;
+        final int firstFrame;
+        volatile long audibleAtNanos;
+
+        Playhead(long generation, int firstFrame) {
+            this.generation = generation;
+            this.firstFrame = firstFrame;
+        }
+
+        // Milliseconds into the file being heard at nowNanos; negative before it starts.
+        double positionMillis(long nowNanos) {
+            long audibleAt = audibleAtNanos;
+            if (audibleAt == 0) {
+                return -1;
+            }
+            return firstFrame * 1000.0 / AudioMixer.SAMPLE_RATE + (nowNanos - audibleAt) / 1_000_000.0;
+        }
+    }
+
+    private final AudioMixer mixer;
+    final String name;
+
+    private PcmSound sound;
+    private int position;
+    private int endFrame;
+    private float gain;
+    private boolean active;
+    private float fadeGain = 1f;
+    private float fadeFrom = 1f;
+    private float fadeTarget = 1f;
+    private FadeCurve fadeCurve = FadeCurve.LINEAR;
+    private long fadeLength;
+    private long fadeElapsed;
+    private boolean stopAfterFade;
+    private long renderGeneration;  // Generation of the play the render thread is running
+    private final List<LongConsumer> replaced = new ArrayList<>();  // Told when the play that replaced theirs lands
+    private final AtomicReference<State> state = new AtomicReference<>(new State(Phase.IDLE, 0));
+    private volatile long appliedAtNanos;  // When the render thread last applied a play or fade
+    private volatile Playhead playhead;  // The play being heard, or null
+
+    Voice(AudioMixer mixer, String name) {
+        this.mixer = mixer;
+        this.name = name;
+    }
+
+    // Restarts the voice from the first frame. If it was fading out, the fade is reversed
+    // from the current gain instead of jumping straight back to full volume.
+    void play(PcmSound sound, float gainDb, FadeProfile profile) {
+        play(sound, gainDb, profile, 0);
+    }
+
+    // As play, but starts in the mixer buffer heard at startAtNanos (0 for immediately). Once
+    // the clip has been analyzed its loudness offset is added to gainDb and its leading and
+    // trailing silence are skipped, so the first rendered frame is already audible.
+    void play(PcmSound sound, float gainDb, FadeProfile profile, long startAtNanos) {
+        play(sound, gainDb, profile, startAtNanos, 0);
+    }
+
+    // receivedNanos is when the triggering command arrived, or 0 if it should not be measured.
+    void play(PcmSound sound, float gainDb, FadeProfile profile, long startAtNanos, long receivedNanos) {
+        play(sound, gainDb, profile, startAtNanos, receivedNanos, null);
+    }
+
+    // applied, if not null, is told on the render thread when the play lands in a buffer
+    // (System.nanoTime) or 0 if the voice was stopped before it did; it must only hand off.
+    // A play replayed before its start time is told when the replay lands, since the clip is
+    // heard from then. Returns false, posting nothing, if there is no sound to play.
+    boolean play(PcmSound sound, float gainDb, FadeProfile profile, long startAtNanos, long receivedNanos, LongConsumer applied) {
+        if (sound == null) {
+            return false;
+        }
+        LoudnessAnalyzer.Result levels = sound.loudness;
+        boolean trimmed = levels != null && levels.frames == sound.frames;
+        float linearGain = dbToLinear(gainDb + (levels == null ? 0f : (float) levels.gainOffsetDb));
+        int firstFrame = trimmed ? Math.min(levels.leadingSilenceFrames, Math.max(0, sound.frames - 1)) : 0;
+        int lastFrame = trimmed ? Math.max(firstFrame + 1, sound.frames - levels.trailingSilenceFrames) : sound.frames;
+        long reverseFrames = AudioMixer.millisToFrames(profile.reverseMillis);
+        long generation = transition(null, Phase.PLAYING, true).generation;
+        Playhead next = new Playhead(generation, firstFrame);
+        mixer.postAt(startAtNanos, () -> {
+            State current = state.get();
+            if (current.generation != generation) {
+                // Stopped or replayed before its start time came round
+                if (current.phase == Phase.IDLE) {
+                    notify(applied, 0);
+                    notifyReplaced(0);
+                } else if (active && renderGeneration == current.generation) {
+                    notify(applied, appliedAtNanos);  // The replay already landed
+                } else if (applied != null) {
+                    replaced.add(applied);
+                }
+                return;
+            }
+            boolean interruptingFade = active && stopAfterFade;
+            double fadeProgress = fadeLength > 0 ? fadeElapsed / (double) fadeLength : 1.0;
+            this.sound = sound;
+            position = firstFrame;
+            endFrame = lastFrame;
+            gain = linearGain;
+            active = true;
+            renderGeneration = generation;
+            appliedAtNanos = System.nanoTime();
+            next.audibleAtNanos = appliedAtNanos + mixer.outputLatencyNanos();
+            playhead = next;
+            recordLatency(PLAY_LATENCY, receivedNanos);
+            notify(applied, appliedAtNanos);
+            notifyReplaced(appliedAtNanos);
+
+            if (interruptingFade) {
+                startFade(fadeGain, 1f, profile.curve, Math.max(1L, Math.round(reverseFrames * fadeProgress)), false);
+            } else {
+                fadeGain = 1f;
+                fadeLength = 0;
+                stopAfterFade = false;
+            }
+        });
+        return true;
+    }
+
+    // Ramps to silence along the profile's curve and then stops and rewinds. Returns false,
+    // posting nothing, unless the voice was PLAYING, so only one of several racing fades wins.
+    boolean fadeOut(FadeProfile profile) {
+        return fadeOut(profile, 0);
+    }
+
+    boolean fadeOut(FadeProfile profile, long startAtNanos) {
+        return fadeOut(profile, startAtNanos, 0);
+    }
+
+    boolean fadeOut(FadeProfile profile, long startAtNanos, long receivedNanos) {
+        return fadeOut(profile, startAtNanos, receivedNanos, null);
+    }
+
+    // applied works as for play.
+    boolean fadeOut(FadeProfile profile, long startAtNanos, long receivedNanos, LongConsumer applied) {
+        State fading = transition(Phase.PLAYING, Phase.FADING, false);
+        if (fading == null) {
+            return false;
+        }
+        long frames = AudioMixer.millisToFrames(profile.millis);
+        mixer.postAt(startAtNanos, () -> {
+            if (active && renderGeneration == fading.generation) {
+                startFade(fadeGain, 0f, profile.curve, frames, true);
+                appliedAtNanos = System.nanoTime();
+                recordLatency(FADE_LATENCY, receivedNanos);
+                notify(applied, appliedAtNanos);
+            } else {
+                notify(applied, 0);
+            }
+        });
+        return true;
+    }
+
+    void stop() {
+        transition(null, Phase.IDLE, true);
+        mixer.postAt(0, this::stopNow);
+    }
+
+    State state() {
+        return state.get();
+    }
+
+    Phase phase() {
+        return state.get().phase;
+    }
+
+    // Anything but IDLE, including a play that is scheduled but not yet audible.
+    boolean isPlaying() {
+        return state.get().phase != Phase.IDLE;
+    }
+
+    long appliedAtNanos() {
+        return appliedAtNanos;
+    }
+
+    // The current play's playhead, or null when nothing is audible.
+    Playhead playhead() {
+        Playhead current = playhead;
+        return current != null && current.generation == state.get().generation ? current : null;
+    }
+
+    void render(float[] mix, int frames) {
+        if (!active) {
+            return;
+        }
+
+        ShortBuffer samples = sound.samples;
+        for (int i = 0; i < frames; i++) {
+            if (position >= endFrame) {
+                stopNow();
+                finished();
+                return;
+            }
+
+            float sampleGain = gain * fadeGain;
+            int index = position * 2;
+            mix[i * 2] += samples.get(index) * sampleGain;
+            mix[i * 2 + 1] += samples.get(index + 1) * sampleGain;
+            position++;
+
+            if (fadeLength > 0 && advanceFade()) {
+                stopNow();
+                finished();
+                return;
+            }
+        }
+    }
+
+    // Moves to the target phase if the current phase is expected (null for any) and returns
+    // the new state, or null if the voice was in some other phase.
+    private State transition(Phase expected, Phase target, boolean newGeneration) {
+        while (true) {
+            State current = state.get();
+            if (expected != null && current.phase != expected) {
+                return null;
+            }
+            State next = new State(target, newGeneration ? current.generation + 1 : current.generation);
+            if (state.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Render thread: the clip or its fade-out ended, so go IDLE unless a newer play was posted.
+    private void finished() {
+        State current = state.get();
+        if (current.generation == renderGeneration && current.phase != Phase.IDLE) {
+            state.compareAndSet(current, new State(Phase.IDLE, current.generation));
+        }
+    }
+
+    // Render thread: the change lands in the buffer being mixed, which is heard one output
+    // latency from now.
+    private void recordLatency(Metrics.Histogram histogram, long receivedNanos) {
+        if (receivedNanos != 0) {
+            histogram.record(appliedAtNanos + mixer.outputLatencyNanos() - receivedNanos);
+        }
+    }
+
+    private static void notify(LongConsumer applied, long appliedAtNanos) {
+        if (applied != null) {
+            applied.accept(appliedAtNanos);
+        }
+    }
+
+    private void notifyReplaced(long appliedAtNanos) {
+        for (int i = 0; i < replaced.size(); i++) {
+            replaced.get(i).accept(appliedAtNanos);
+        }
+        replaced.clear();
+    }
+
+    private void startFade(float from, float to, FadeCurve curve, long frames, boolean stopAtEnd) {
+        fadeFrom = from;
+        fadeTarget = to;
+        fadeCurve = curve;
+        fadeLength = frames;
+        fadeElapsed = 0;
+        stopAfterFade = stopAtEnd;
+    }
+
+    // Moves the fade one frame forward and reports whether the voice should stop now.
+    private boolean advanceFade() {
+        fadeElapsed++;
+        if (fadeElapsed < fadeLength) {
+            fadeGain = fadeCurve.gainAt(fadeFrom, fadeTarget, fadeElapsed / (double) fadeLength);
+            return false;
+        }
+        fadeGain = fadeTarget;
+        fadeLength = 0;
+        return stopAfterFade;
+    }
+
+    private void stopNow() {
+        active = false;
+        playhead = null;
+        position = 0;
+        fadeGain = 1f;
+        fadeLength = 0;
+        stopAfterFade = false;
+    }
+
+    static float dbToLinear(float db) {
+        return (float) Math.pow(10.0, db / 20.0);
+    }
+}
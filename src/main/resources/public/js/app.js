@@ -1,6 +1,7 @@
 const STORAGE_KEY = 'soundboard-scoreboard-settings';
 const DEFAULT_POLL_MS = 5000;
 const DEFAULT_DELAY_MS = 0;
+const BEAT_SNAP_MS = 250;
 
 let lastEventId = null;
 let playerCache = {};
@@ -11,6 +12,14 @@ let playLockUntil = 0;
 let eventInterval = null;
 let activeGameId = null;
 let syncSequence = 0;
+let sock = null;
+let pushConnected = false;
+let livePlayByPlay = null;
+let stateEpoch = 0;
+let clockOffset = null;
+let stateVersion = 0;
+let logosGameId = null;
+let beatGrid = null;
 
 const el = {
   settingsPanel: document.getElementById('settings'),
@@ -166,136 +175,178 @@ function updateSyncState(text, isError = false) {
   el.syncState.style.color = isError ? 'var(--danger)' : 'var(--text-main)';
 }
 
+// Ask for the logo at the size it is drawn, rounded up so displays share cached renders.
+function logoQuery(svgUrl, image) {
+  const scale = window.devicePixelRatio || 1;
+  const bucket = (size) => Math.ceil((size * scale) / 64) * 64;
+  const width = bucket(image.clientWidth || 320);
+  const height = bucket(image.clientHeight || 260);
+  return `svgUrl=${encodeURIComponent(svgUrl)}&width=${width}&height=${height}`;
+}
+
 function updateLogos(homeUrl, awayUrl) {
-  fetch(`/convertSvgToPng?svgUrl=${encodeURIComponent(homeUrl)}`)
-    .then((r) => r.blob())
-    .then((blob) => {
-      const url = URL.createObjectURL(blob);
-      el.homeImage.onload = () => pickColors(el.homeImage, (primary, secondary, tertiary) => {
-        document.getElementById('left-half').style.background =
-          `radial-gradient(circle at top left, rgba(255,255,255,0.08), transparent 48%),` +
-          `linear-gradient(135deg, ${primary} 0%, ${secondary} 58%, ${tertiary} 100%)`;
-      });
-      el.homeImage.src = url;
-    })
-    .catch((err) => console.error('Home logo update failed', err));
-
-  fetch(`/convertSvgToPng?svgUrl=${encodeURIComponent(awayUrl)}`)
-    .then((r) => r.blob())
-    .then((blob) => {
-      const url = URL.createObjectURL(blob);
-      el.awayImage.onload = () => pickColors(el.awayImage, (primary, secondary, tertiary) => {
-        document.getElementById('right-half').style.background =
-          `radial-gradient(circle at top right, rgba(255,255,255,0.08), transparent 48%),` +
-          `linear-gradient(225deg, ${primary} 0%, ${secondary} 58%, ${tertiary} 100%)`;
-      });
-      el.awayImage.src = url;
+  applyLogo(homeUrl, el.homeImage, 'left-half', 'top left', 135);
+  applyLogo(awayUrl, el.awayImage, 'right-half', 'top right', 225);
+}
+
+// The server renders the logo and extracts its palette from the same cached render.
+function applyLogo(svgUrl, image, halfId, glowPosition, angle) {
+  const query = logoQuery(svgUrl, image);
+  image.src = `/convertSvgToPng?${query}`;
+  fetch(`/api/logo/colors?${query}`)
+    .then((r) => r.json())
+    .then(({ colors }) => {
+      const [primary, secondary, tertiary] = colors;
+      document.getElementById(halfId).style.background =
+        `radial-gradient(circle at ${glowPosition}, rgba(255,255,255,0.08), transparent 48%),` +
+        `linear-gradient(${angle}deg, ${primary} 0%, ${secondary} 58%, ${tertiary} 100%)`;
     })
-    .catch((err) => console.error('Away logo update failed', err));
-}
-
-function pickColors(img, cb) {
-  const canvas = document.createElement('canvas');
-  const ctx = canvas.getContext('2d');
-  canvas.width = img.width;
-  canvas.height = img.height;
-  ctx.drawImage(img, 0, 0);
-  const data = ctx.getImageData(0, 0, img.width, img.height).data;
-  const pixels = [];
-
-  for (let i = 0; i < data.length; i += 4) {
-    const [r, g, b, a] = [data[i], data[i + 1], data[i + 2], data[i + 3]];
-    if ((r === 255 && g === 255 && b === 255) || a === 0) {
-      continue;
-    }
-    pixels.push([r, g, b]);
-  }
-
-  const centroids = kMeans(pixels, 3);
-  cb(
-    `rgb(${centroids[0].join(',')})`,
-    `rgb(${centroids[1].join(',')})`,
-    `rgb(${centroids[2].join(',')})`
-  );
-}
-
-function kMeans(data, k) {
-  let centroids = initCentroids(data, k);
-  let old;
-
-  do {
-    old = centroids.map((c) => c.slice());
-    const clusters = Array.from({ length: k }, () => []);
-    data.forEach((point) => {
-      clusters[nearest(point, centroids)].push(point);
-    });
-    clusters.forEach((cluster, i) => {
-      if (cluster.length) {
-        centroids[i] = meanColor(cluster);
-      }
-    });
-  } while (!equalCentroids(centroids, old));
-
-  return centroids;
-}
-
-function initCentroids(data, k) {
-  const centroids = [];
-  const used = new Set();
-  while (centroids.length < k && data.length) {
-    const i = Math.floor(Math.random() * data.length);
-    if (!used.has(i)) {
-      used.add(i);
-      centroids.push(data[i]);
-    }
-  }
-  return centroids.length ? centroids : [[20, 30, 45], [35, 55, 90], [70, 100, 140]];
+    .catch((err) => console.error('Logo color update failed', err));
 }
 
-function nearest(point, centroids) {
-  let min = Infinity;
-  let idx = 0;
-  centroids.forEach((centroid, i) => {
-    const dist = Math.hypot(point[0] - centroid[0], point[1] - centroid[1], point[2] - centroid[2]);
-    if (dist < min) {
-      min = dist;
-      idx = i;
+const wsProtocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
+
+function connectClientSocket() {
+  sock = new WebSocket(`${wsProtocol}//${window.location.hostname}:8080/client`);
+  sock.onopen = () => {
+    console.log('WS open');
+    pushConnected = true;
+    requestStateResume();
+    if (activeGameId) {
+      startSync(activeGameId);
     }
-  });
-  return idx;
+  };
+  sock.onclose = () => {
+    pushConnected = false;
+    if (activeGameId) {
+      startPolling(activeGameId);
+    }
+    setTimeout(connectClientSocket, 2000);
+  };
+  sock.onmessage = handleSocketMessage;
+}
+
+function handleServerJsonMessage(data) {
+  switch (data.type) {
+    case 'game_snapshot':
+      handleGameSnapshot(data);
+      break;
+    case 'game_delta':
+      handleGameDelta(data);
+      break;
+    case 'state_snapshot':
+      handleStateSnapshot(data);
+      break;
+    case 'clock_ping':
+      answerClockPing(data);
+      break;
+    case 'trigger':
+      scheduleTrigger(data.event, data.startAt);
+      break;
+    case 'beats':
+      beatGrid = data;
+      break;
+    case 'state_delta':
+      handleStateDelta(data);
+      break;
+    default:
+      break;
+  }
+}
+
+// Versioned display state: after a reconnect (or a gap in live deltas) the server replays the
+// changes since our last version, or sends a snapshot, so a goal video in progress reappears.
+function requestStateResume() {
+  if (sock && sock.readyState === WebSocket.OPEN) {
+    sock.send(`resume:${stateEpoch}:${stateVersion}`);
+  }
+}
+
+function handleStateSnapshot(msg) {
+  stateEpoch = msg.epoch;
+  stateVersion = msg.version;
+  applyActiveVideo(msg.state.activeVideo);
+}
+
+function handleStateDelta(msg) {
+  if (!msg.replay && (msg.epoch !== stateEpoch || msg.baseVersion !== stateVersion)) {
+    requestStateResume();
+    return;
+  }
+  stateVersion = msg.version;
+  // Live changes arrive alongside the raw video commands; only replays need applying here
+  if (msg.replay && 'activeVideo' in msg.changes) {
+    applyActiveVideo(msg.changes.activeVideo);
+  }
 }
 
-function meanColor(cluster) {
-  const sum = [0, 0, 0];
-  cluster.forEach((point) => {
-    sum[0] += point[0];
-    sum[1] += point[1];
-    sum[2] += point[2];
-  });
-  return sum.map((value) => Math.floor(value / cluster.length));
+function applyActiveVideo(activeVideo) {
+  const video = activeVideo === 'panthers' ? el.panthersVideo : activeVideo === 'lightning' ? el.lightningVideo : null;
+  if (!video) {
+    stopAllVideos();
+  } else if (video.style.display !== 'block') {
+    stopAllVideos();
+    playVideo(video);
+  }
 }
 
-function equalCentroids(a, b) {
-  if (a.length !== b.length) {
-    return false;
+function handleSocketMessage(e) {
+  if (typeof e.data === 'string' && e.data.startsWith('{')) {
+    try {
+      handleServerJsonMessage(JSON.parse(e.data));
+    } catch (err) {
+      console.error('Could not parse server message', err);
+    }
+    return;
   }
-  return a.every((centroid, i) => centroid.every((value, j) => value === b[i][j]));
+  handleTriggerEvent(e.data);
 }
 
-const wsProtocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
-const sock = new WebSocket(`${wsProtocol}//${window.location.hostname}:8080/client`);
-sock.onopen = () => console.log('WS open');
-sock.onmessage = (e) => {
-  if (e.data === 'spressed') {
+function handleTriggerEvent(event) {
+  if (event === 'spressed') {
     playVideo(el.panthersVideo);
   }
-  if (e.data === 'lpressed') {
+  if (event === 'lpressed') {
     playVideo(el.lightningVideo);
   }
-  if (e.data === 'all_stop') {
-    stopAllVideos();
+  if (event === 'all_stop') {
+    setTimeout(stopAllVideos, delayToNextBeat());
+    beatGrid = null;
   }
-};
+}
+
+// The server pushes the beat grid of a song when it becomes audible; the cut back to the
+// scoreboard waits for the next beat if one is close, so it lands on the music.
+function delayToNextBeat() {
+  if (!beatGrid || clockOffset === null) {
+    return 0;
+  }
+  const position = localClockMillis() - clockOffset - beatGrid.startAt;
+  const next = beatGrid.beats.find((beat) => beat >= position);
+  return next !== undefined && next - position <= BEAT_SNAP_MS ? next - position : 0;
+}
+
+// Clock sync: the server pings with its own time and tells us our offset from it, so
+// scheduled triggers start at the same instant on every screen and on the arena speakers.
+function localClockMillis() {
+  return performance.timeOrigin + performance.now();
+}
+
+function answerClockPing(ping) {
+  sock.send(`pong:${ping.id}:${localClockMillis()}`);
+  if (typeof ping.offset === 'number') {
+    clockOffset = ping.offset;
+  }
+}
+
+function scheduleTrigger(event, serverStartAt) {
+  const delay = clockOffset === null ? 0 : serverStartAt + clockOffset - localClockMillis();
+  if (delay > 0) {
+    setTimeout(() => handleTriggerEvent(event), delay);
+  } else {
+    handleTriggerEvent(event);
+  }
+}
 
 function playVideo(video) {
   video.style.display = 'block';
@@ -320,20 +371,29 @@ function stopAllVideos() {
   el.playByPlayDiv.style.visibility = 'visible';
 }
 
-async function fetchPlayerInfo(id) {
-  if (playerCache[id]) {
-    return playerCache[id];
+// Resolves any players not already cached with one batch request; the server answers
+// from its persistent player cache and fetches the rest in parallel.
+async function fetchPlayers(ids) {
+  const missing = [...new Set(ids.filter((id) => id && !playerCache[id]))];
+  if (missing.length > 0) {
+    try {
+      const res = await fetch(`/proxy/players?ids=${missing.join(',')}`);
+      const data = await res.json();
+      Object.entries(data.players || {}).forEach(([id, player]) => {
+        playerCache[id] = player;
+      });
+    } catch (err) {
+      console.error('Could not fetch players', err);
+    }
+  }
+  return ids.map((id) => (id ? playerCache[id] || null : null));
+}
+
+function prefetchRoster(playByPlayData) {
+  const ids = (playByPlayData.rosterSpots || []).map((spot) => spot.playerId);
+  if (ids.length > 0) {
+    fetchPlayers(ids);
   }
-  const res = await fetch(`/proxy/${id}`);
-  const data = await res.json();
-  playerCache[id] = {
-    firstName: data.firstName?.default || '',
-    lastName: data.lastName?.default || '',
-    sweaterNumber: data.sweaterNumber || '',
-    headshot: data.headshot,
-    heroImage: data.heroImage
-  };
-  return playerCache[id];
 }
 
 function renderHeadshots(players) {
@@ -344,13 +404,18 @@ function renderHeadshots(players) {
 }
 
 async function generateGoalDescription(play) {
-  const scorer = await fetchPlayerInfo(play.details.scoringPlayerId);
-  const assist1 = play.details.assist1PlayerId ? await fetchPlayerInfo(play.details.assist1PlayerId) : null;
-  const assist2 = play.details.assist2PlayerId ? await fetchPlayerInfo(play.details.assist2PlayerId) : null;
-  const goalie = play.details.goalieInNetId ? await fetchPlayerInfo(play.details.goalieInNetId) : null;
+  const [scorer, assist1, assist2, goalie] = await fetchPlayers([
+    play.details.scoringPlayerId,
+    play.details.assist1PlayerId,
+    play.details.assist2PlayerId,
+    play.details.goalieInNetId
+  ]);
 
   renderHeadshots([scorer, assist1, assist2, goalie]);
 
+  if (!scorer) {
+    return 'Goal!';
+  }
   const parts = [`Goal scored by #${scorer.sweaterNumber} ${scorer.firstName} ${scorer.lastName}`];
   if (assist1) {
     parts.push(`assisted by #${assist1.sweaterNumber} ${assist1.firstName} ${assist1.lastName}`);
@@ -523,6 +588,10 @@ async function fetchEventsAndStats(gameId, isFirst) {
 
     if (isFirst && playByPlayData.homeTeam?.logo && playByPlayData.awayTeam?.logo) {
       updateLogos(playByPlayData.homeTeam.logo, playByPlayData.awayTeam.logo);
+      logosGameId = gameId;
+    }
+    if (isFirst) {
+      prefetchRoster(playByPlayData);
     }
 
     applyLandingData(landingData);
@@ -539,6 +608,70 @@ async function fetchEventsAndStats(gameId, isFirst) {
   }
 }
 
+// The server polls each game once and pushes a snapshot followed by deltas; keep a local
+// copy of the play-by-play document and feed it through the same delayed render path.
+function handleGameSnapshot(msg) {
+  if (msg.gameId !== activeGameId) {
+    return;
+  }
+  livePlayByPlay = msg.playByPlay || {};
+  if (logosGameId !== msg.gameId && livePlayByPlay.homeTeam?.logo && livePlayByPlay.awayTeam?.logo) {
+    updateLogos(livePlayByPlay.homeTeam.logo, livePlayByPlay.awayTeam.logo);
+    logosGameId = msg.gameId;
+  }
+  prefetchRoster(livePlayByPlay);
+  applyPushedUpdate(msg.landing);
+}
+
+function handleGameDelta(msg) {
+  if (!livePlayByPlay || msg.gameId !== activeGameId) {
+    return;
+  }
+
+  const plays = (livePlayByPlay.plays || []).slice();
+  const indexById = new Map(plays.map((play, i) => [play.eventId, i]));
+  (msg.plays || []).forEach((play) => {
+    const index = indexById.get(play.eventId);
+    if (index === undefined) {
+      plays.push(play);
+    } else {
+      plays[index] = play;
+    }
+  });
+
+  livePlayByPlay = { ...livePlayByPlay, plays };
+  ['clock', 'periodDescriptor', 'gameState'].forEach((key) => {
+    if (msg[key] !== undefined) {
+      livePlayByPlay[key] = msg[key];
+    }
+  });
+  ['homeTeam', 'awayTeam'].forEach((side) => {
+    if (msg[side]) {
+      livePlayByPlay[side] = { ...livePlayByPlay[side], ...msg[side] };
+    }
+  });
+  applyPushedUpdate(msg.landing);
+}
+
+function applyPushedUpdate(landing) {
+  if (landing) {
+    applyLandingData(landing);
+  }
+  if (livePlayByPlay.plays) {
+    runDelayedUpdate(livePlayByPlay, syncSequence);
+  }
+  updateSyncState('Live');
+}
+
+function startSync(gameId) {
+  if (pushConnected && sock.readyState === WebSocket.OPEN) {
+    clearPollingLoop();
+    sock.send(`watch:${gameId}`);
+    return;
+  }
+  startPolling(gameId);
+}
+
 function clearPollingLoop() {
   if (eventInterval) {
     clearInterval(eventInterval);
@@ -567,7 +700,7 @@ async function refreshCurrentGame(openPanelOnError = false) {
   el.gameIdDisplay.textContent = activeGameId;
   saveSettings();
   await fetchEventsAndStats(activeGameId, true);
-  startPolling(activeGameId);
+  startSync(activeGameId);
 }
 
 async function updateGame() {
@@ -588,7 +721,7 @@ async function updateGame() {
   updateEventLockLabel();
   saveSettings();
   await fetchEventsAndStats(parsedGameId, true);
-  startPolling(parsedGameId);
+  startSync(parsedGameId);
   closeSettings();
 }
 
@@ -598,14 +731,14 @@ el.delayInput.addEventListener('change', () => {
   applySyncInputs();
   saveSettings();
   if (activeGameId) {
-    startPolling(activeGameId);
+    startSync(activeGameId);
   }
 });
 el.refreshInput.addEventListener('change', () => {
   applySyncInputs();
   saveSettings();
   if (activeGameId) {
-    startPolling(activeGameId);
+    startSync(activeGameId);
   }
 });
 
@@ -613,6 +746,7 @@ window.setInterval(updateEventLockLabel, 500);
 
 loadSettings();
 updateEventLockLabel();
+connectClientSocket();
 
 if (parseGameId(el.gameIdInput.value)) {
   refreshCurrentGame(false);
@@ -0,0 +1,86 @@
+package org.example;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Version 1 acks over /soundboard from the running service, for the commands that are never
+// applied as sent: a release the ingest stage holds and a bouncing re-push then cancels must
+// not be acked as ok.
+class CommandAckTest {
+    private static final long ACK_WAIT_SECONDS = 10;
+
+    @TempDir
+    static Path directory;
+    private static SoundboardProcess soundboard;
+
+    @BeforeAll
+    static void startSoundboard() throws Exception {
+        soundboard = SoundboardProcess.start(directory);
+    }
+
+    @AfterAll
+    static void stopSoundboard() {
+        if (soundboard != null) {
+            soundboard.close();
+        }
+    }
+
+    @Test
+    void aHeldReleaseCancelledByARepushIsAckedAsCoalesced() throws Exception {
+        Map<Integer, JsonObject> acks = new ConcurrentHashMap<>();
+        CountDownLatch answered = new CountDownLatch(3);
+        WebSocket socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(URI.create(soundboard.webSocketUrl + "/soundboard"), new WebSocket.Listener() {
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        JsonObject message = JsonParser.parseString(data.toString()).getAsJsonObject();
+                        if (message.has("type") && "ack".equals(message.get("type").getAsString())) {
+                            acks.put(message.get("id").getAsInt(), message);
+                            answered.countDown();
+                        }
+                        webSocket.request(1);
+                        return null;
+                    }
+                })
+                .get(ACK_WAIT_SECONDS, TimeUnit.SECONDS);
+        try {
+            // Back to back, well inside the pair window: the release is held, then the re-push cancels both
+            socket.sendText(command(1, "goal_push_panthers"), true)
+                    .thenCompose(sent -> sent.sendText(command(2, "goal_release"), true))
+                    .thenCompose(sent -> sent.sendText(command(3, "goal_push_panthers"), true))
+                    .get(ACK_WAIT_SECONDS, TimeUnit.SECONDS);
+            assertTrue(answered.await(ACK_WAIT_SECONDS, TimeUnit.SECONDS), "Acks missing: " + acks + "\n" + soundboard.logTail());
+        } finally {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(ACK_WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        assertEquals("ok", status(acks, 1));
+        assertEquals("coalesced", status(acks, 2), "The cancelled release was acked as " + acks.get(2));
+        assertEquals("coalesced", status(acks, 3));
+    }
+
+    private static String command(int id, String name) {
+        return "{\"v\":1,\"id\":" + id + ",\"cmd\":\"" + name + "\"}";
+    }
+
+    private static String status(Map<Integer, JsonObject> acks, int id) {
+        return acks.get(id).get("status").getAsString();
+    }
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Several submitters pushing goals at the running service over POST /api/commands at once,
+// the way Home Assistant and the scoreboard buttons do on a goal. Every push must be applied
+// and its audio start, as the service reports it, must stay within a tight p99, also while
+// the image proxy is flooded with requests to an upstream that takes seconds to answer.
+class CommandLoadTest {
+    private static final int SUBMITTERS = 8;
+    private static final int COMMANDS_PER_SUBMITTER = 40;
+    private static final long P99_BOUND_MICROS = 150_000;
+    private static final long ROUND_TRIP_P99_BOUND_MILLIS = 1000;
+    private static final int FLOODERS = 16;
+    private static final long SLOW_UPSTREAM_MILLIS = 2000;
+    private static final String[] PUSHES = {"goal_push_panthers", "goal_push_alternate"};
+    private static final int WARM_UP_PUSHES = 100;
+
+    @TempDir
+    static Path directory;
+    private static SoundboardProcess soundboard;
+
+    @BeforeAll
+    static void startSoundboard() throws Exception {
+        soundboard = SoundboardProcess.start(directory);
+        for (int i = 0; i < WARM_UP_PUSHES; i++) {
+            soundboard.command(PUSHES[i % PUSHES.length]);  // Let the JIT settle the dispatch path before anything is timed
+        }
+    }
+
+    @AfterAll
+    static void stopSoundboard() {
+        if (soundboard != null) {
+            soundboard.close();
+        }
+    }
+
+    @Test
+    void concurrentPushesStartWithinTheLatencyBound() throws Exception {
+        List<Long> audioStartMicros = new CopyOnWriteArrayList<>();
+        List<Long> roundTripMillis = new CopyOnWriteArrayList<>();
+        List<String> failures = runSubmitters(audioStartMicros, roundTripMillis);
+
+        long p50 = SoundboardProcess.percentile(audioStartMicros, 0.50);
+        long p99 = SoundboardProcess.percentile(audioStartMicros, 0.99);
+        long max = SoundboardProcess.percentile(audioStartMicros, 1.0);
+        System.out.printf("Trigger latency over %d pushes: p50 %d us, p99 %d us, max %d us%n", audioStartMicros.size(), p50, p99, max);
+
+        assertEquals(List.of(), failures, "Pushes not applied");
+        assertEquals(SUBMITTERS * COMMANDS_PER_SUBMITTER, audioStartMicros.size());
+        assertTrue(p99 < P99_BOUND_MICROS, "p99 audio start " + p99 + " us exceeds " + P99_BOUND_MICROS + " us\n" + soundboard.logTail());
+    }
+
+    // The proxy's per-host limit fills with requests parked on the slow upstream and the rest
+    // are refused with 503 straight away; none of that may reach the command path.
+    @Test
+    void pushesKeepTheirLatencyWhileTheImageProxyIsSaturated() throws Exception {
+        HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstream.setExecutor(Executors.newCachedThreadPool());
+        upstream.createContext("/", exchange -> {
+            try {
+                Thread.sleep(SLOW_UPSTREAM_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = new byte[512];
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+        String path = "/proxyImage?url=http://127.0.0.1:" + upstream.getAddress().getPort() + "/logo.png";
+
+        AtomicBoolean flooding = new AtomicBoolean(true);
+        Map<Integer, AtomicInteger> proxyStatuses = new ConcurrentHashMap<>();
+        ExecutorService flooders = Executors.newFixedThreadPool(FLOODERS);
+        List<Future<?>> floods = new ArrayList<>();
+        for (int f = 0; f < FLOODERS; f++) {
+            floods.add(flooders.submit(() -> {
+                while (flooding.get()) {
+                    int status = soundboard.get(path, Duration.ofMillis(SLOW_UPSTREAM_MILLIS * 3));
+                    proxyStatuses.computeIfAbsent(status, key -> new AtomicInteger()).incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        List<Long> audioStartMicros = new CopyOnWriteArrayList<>();
+        List<Long> roundTripMillis = new CopyOnWriteArrayList<>();
+        List<String> failures;
+        try {
+            awaitRejections(proxyStatuses, FLOODERS * 2);  // The proxy path is warm and its share is full
+            failures = runSubmitters(audioStartMicros, roundTripMillis);
+        } finally {
+            flooding.set(false);
+            for (Future<?> flood : floods) {
+                flood.get(SLOW_UPSTREAM_MILLIS * 5, TimeUnit.MILLISECONDS);
+            }
+            flooders.shutdown();
+            upstream.stop(0);
+        }
+
+        long p99 = SoundboardProcess.percentile(audioStartMicros, 0.99);
+        long roundTripP99 = SoundboardProcess.percentile(roundTripMillis, 0.99);
+        System.out.printf("Trigger latency under proxy saturation over %d pushes: p50 %d us, p99 %d us, round trip p99 %d ms; proxy statuses %s%n",
+                audioStartMicros.size(), SoundboardProcess.percentile(audioStartMicros, 0.50), p99, roundTripP99, proxyStatuses);
+
+        assertEquals(List.of(), failures, "Pushes not applied");
+        assertTrue(p99 < P99_BOUND_MICROS, "p99 audio start " + p99 + " us exceeds " + P99_BOUND_MICROS + " us under proxy load");
+        assertTrue(roundTripP99 < ROUND_TRIP_P99_BOUND_MILLIS, "p99 round trip " + roundTripP99 + " ms under proxy load");
+        assertTrue(proxyStatuses.keySet().stream().allMatch(status -> status == 200 || status == 503),
+                "Proxy requests should be served or refused, not fail or hang: " + proxyStatuses);
+    }
+
+    private static void awaitRejections(Map<Integer, AtomicInteger> proxyStatuses, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (rejections(proxyStatuses) < count && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(rejections(proxyStatuses) >= count, "The flood never saturated the proxy: " + proxyStatuses);
+    }
+
+    private static int rejections(Map<Integer, AtomicInteger> proxyStatuses) {
+        AtomicInteger rejected = proxyStatuses.get(503);
+        return rejected == null ? 0 : rejected.get();
+    }
+
+    // Runs the submitters to completion and returns the results that were not applied.
+    private static List<String> runSubmitters(List<Long> audioStartMicros, List<Long> roundTripMillis) throws Exception {
+        List<String> failures = new CopyOnWriteArrayList<>();
+        ExecutorService submitters = Executors.newFixedThreadPool(SUBMITTERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int s = 0; s < SUBMITTERS; s++) {
+            int submitter = s;
+            done.add(submitters.submit(() -> {
+                start.await();
+                for (int i = 0; i < COMMANDS_PER_SUBMITTER; i++) {
+                    long sentNanos = System.nanoTime();
+                    JsonObject result = soundboard.command(PUSHES[(submitter + i) % PUSHES.length]);
+                    roundTripMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNanos));
+                    String status = result.get("status").getAsString();
+                    if (!"ok".equals(status) || !result.has("audioStartMicros")) {
+                        failures.add(result.toString());
+                    } else {
+                        audioStartMicros.add(result.get("audioStartMicros").getAsLong());
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> submitted : done) {
+            submitted.get(60, TimeUnit.SECONDS);
+        }
+        submitters.shutdown();
+        return failures;
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Text frames as the WebSocket endpoint receives them. Anything that is not a well-formed v1
+// frame must surface as IllegalArgumentException, which the endpoint acks as malformed.
+class CommandProtocolTest {
+
+    @Test
+    void parsesAVersionOneFrame() {
+        CommandProtocol.Request request = CommandProtocol.parseText(
+                "{\"v\":1,\"id\":7,\"cmd\":\"Goal_Release\",\"ts\":123,\"key\":\"k\"}", 0);
+
+        assertEquals("goal_release", request.name);
+        assertEquals(7, request.id);
+        assertEquals(123, request.clientTimestampMillis);
+        assertEquals("k", request.key);
+    }
+
+    @Test
+    void unknownCommandsParseByName() {
+        assertEquals("encore", CommandProtocol.parseText("{\"v\":1,\"cmd\":\"encore\"}", 0).name);
+        assertEquals("encore", CommandProtocol.parseText("encore", 0).name);
+    }
+
+    @Test
+    void timedOutRepliesHaveTheirOwnStatusAndNoLatency() {
+        CommandProtocol.Request request = CommandProtocol.parseText("{\"v\":1,\"id\":3,\"cmd\":\"goal_release\"}", 0);
+        JsonObject result = CommandProtocol.httpResult(request, CommandProtocol.STATUS_TIMEOUT, CommandProtocol.UNKNOWN_LATENCY);
+
+        assertEquals("timeout", result.get("status").getAsString());
+        assertFalse(result.has("audioStartMicros"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"v\":1,\"cmd\":{}}",
+            "{\"v\":1,\"cmd\":[\"all_stop\"]}",
+            "{\"v\":1,\"cmd\":null}",
+            "{\"v\":\"x\",\"cmd\":\"all_stop\"}",
+            "{\"v\":1,\"id\":\"seven\",\"cmd\":\"all_stop\"}",
+            "{\"v\":1,\"ts\":{},\"cmd\":\"all_stop\"}",
+            "{\"v\":1,\"key\":[],\"cmd\":\"all_stop\"}",
+            "{\"v\":2,\"cmd\":\"all_stop\"}",
+            "{\"v\":1}",
+            "{\"v\":1,",
+    })
+    void malformedFramesAreIllegalArguments(String frame) {
+        assertThrows(IllegalArgumentException.class, () -> CommandProtocol.parseText(frame, 0));
+    }
+}
@@ -0,0 +1,167 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Renders voices on an offline mixer (the test thread is the render thread) over a constant
+// clip, so every output sample divided by the clip level is the fade gain for that frame,
+// and checks it against FadeCurve frame by frame.
+class FadeTrajectoryTest {
+    private static final short LEVEL = 10000;
+    private static final long FADE_MILLIS = 100;
+    private static final double TOLERANCE = 1e-4;
+
+    @ParameterizedTest
+    @EnumSource(FadeCurve.class)
+    void fadeOutFollowsTheCurveAndStops(FadeCurve curve) {
+        AudioMixer mixer = AudioMixer.offline();
+        Voice voice = new Voice(mixer, "test");
+        voice.play(constant(10), 0f, new FadeProfile(curve, FADE_MILLIS, 20));
+        float[] before = render(mixer, voice, 2);
+        voice.fadeOut(new FadeProfile(curve, FADE_MILLIS, 20));
+        float[] fade = render(mixer, voice, buffersFor(FADE_MILLIS) + 2);
+
+        for (float sample : before) {
+            assertEquals(1.0, sample / LEVEL, TOLERANCE, "Gain moved before the fade");
+        }
+        assertTrajectory(curve, fade, 0);
+        assertEquals(Voice.Phase.IDLE, voice.phase());
+    }
+
+    @Test
+    void playDuringAFadeRampsBackWithoutAJump() {
+        AudioMixer mixer = AudioMixer.offline();
+        Voice voice = new Voice(mixer, "test");
+        FadeProfile profile = new FadeProfile(FadeCurve.LINEAR, FADE_MILLIS, 50);
+        PcmSound clip = constant(10);
+        voice.play(clip, 0f, profile);
+        render(mixer, voice, 1);
+        voice.fadeOut(profile);
+        float[] fading = render(mixer, voice, buffersFor(FADE_MILLIS) / 2);
+        voice.play(clip, 0f, profile);
+        float[] reversed = render(mixer, voice, buffersFor(50) + 2);
+
+        float last = fading[fading.length - 2] / LEVEL;
+        float first = reversed[0] / LEVEL;
+        assertTrue(last > 0.3 && last < 0.7, "Fade should be mid-ramp, gain was " + last);
+        assertEquals(last, first, 0.01, "Reversal jumped from " + last + " to " + first);
+        for (int i = 2; i < reversed.length; i += 2) {
+            assertTrue(reversed[i] >= reversed[i - 2] - 1e-3, "Reversal went down at frame " + i / 2);
+        }
+        assertEquals(1.0, reversed[reversed.length - 2] / LEVEL, TOLERANCE);
+        assertEquals(Voice.Phase.PLAYING, voice.phase());
+    }
+
+    // Many voices fade at once while other threads post the fades at random moments. However
+    // the posts interleave with rendering, each voice's fade starts on a buffer boundary and
+    // then follows its curve exactly, since fades only advance on the sample clock.
+    @Test
+    void fadesUnderLoadKeepTheirTrajectory() throws Exception {
+        int voiceCount = 24;
+        AudioMixer mixer = AudioMixer.offline();
+        FadeCurve[] curves = FadeCurve.values();
+        List<Voice> voices = new ArrayList<>();
+        PcmSound clip = constant(10);
+        for (int i = 0; i < voiceCount; i++) {
+            Voice voice = new Voice(mixer, "voice-" + i);
+            voice.play(clip, 0f, new FadeProfile(curves[i % curves.length], FADE_MILLIS, 20));
+            voices.add(voice);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> posters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t;
+            Thread poster = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = first; i < voiceCount; i += 4) {
+                        Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                        voices.get(i).fadeOut(new FadeProfile(curves[i % curves.length], FADE_MILLIS, 20));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            poster.start();
+            posters.add(poster);
+        }
+
+        int buffers = 3 * buffersFor(FADE_MILLIS) + 40;
+        float[][] outputs = new float[voiceCount][buffers * AudioMixer.BUFFER_FRAMES * AudioMixer.CHANNELS];
+        float[] mix = new float[AudioMixer.BUFFER_FRAMES * AudioMixer.CHANNELS];
+        start.countDown();
+        for (int b = 0; b < buffers; b++) {
+            mixer.renderBuffer();
+            for (int v = 0; v < voiceCount; v++) {
+                Arrays.fill(mix, 0f);
+                voices.get(v).render(mix, AudioMixer.BUFFER_FRAMES);
+                System.arraycopy(mix, 0, outputs[v], b * mix.length, mix.length);
+            }
+            Thread.sleep(0, 100_000);
+        }
+        for (Thread poster : posters) {
+            poster.join();
+        }
+
+        for (int v = 0; v < voiceCount; v++) {
+            float[] out = outputs[v];
+            int dropped = 0;
+            while (dropped < out.length / 2 && out[dropped * 2] == LEVEL) {
+                dropped++;
+            }
+            int fadeStart = dropped - 1;
+            assertTrue(fadeStart >= 0 && dropped < out.length / 2, "Voice " + v + " never faded");
+            assertEquals(0, fadeStart % AudioMixer.BUFFER_FRAMES, "Voice " + v + " started fading mid-buffer");
+            assertTrajectory(curves[v % curves.length], out, fadeStart);
+            assertFalse(voices.get(v).isPlaying(), "Voice " + v + " did not stop");
+        }
+    }
+
+    private static void assertTrajectory(FadeCurve curve, float[] out, int startFrame) {
+        long length = AudioMixer.millisToFrames(FADE_MILLIS);
+        for (int k = 0; k < length; k++) {
+            double expected = curve.gainAt(1f, 0f, k / (double) length);
+            int index = (startFrame + k) * 2;
+            assertEquals(expected, out[index] / LEVEL, TOLERANCE, curve + " left at frame " + k);
+            assertEquals(out[index], out[index + 1], "Channels diverged at frame " + k);
+        }
+        for (int i = (int) (startFrame + length) * 2; i < out.length; i++) {
+            assertEquals(0f, out[i], curve + " was still audible after the fade");
+        }
+    }
+
+    private static float[] render(AudioMixer mixer, Voice voice, int buffers) {
+        float[] out = new float[buffers * AudioMixer.BUFFER_FRAMES * AudioMixer.CHANNELS];
+        float[] mix = new float[AudioMixer.BUFFER_FRAMES * AudioMixer.CHANNELS];
+        for (int b = 0; b < buffers; b++) {
+            mixer.renderBuffer();
+            Arrays.fill(mix, 0f);
+            voice.render(mix, AudioMixer.BUFFER_FRAMES);
+            System.arraycopy(mix, 0, out, b * mix.length, mix.length);
+        }
+        return out;
+    }
+
+    private static int buffersFor(long millis) {
+        return (int) Math.ceil(AudioMixer.millisToFrames(millis) / (double) AudioMixer.BUFFER_FRAMES);
+    }
+
+    private static PcmSound constant(int seconds) {
+        short[] samples = new short[(int) (seconds * AudioMixer.SAMPLE_RATE) * AudioMixer.CHANNELS];
+        Arrays.fill(samples, LEVEL);
+        return new PcmSound("constant", ShortBuffer.wrap(samples));
+    }
+}
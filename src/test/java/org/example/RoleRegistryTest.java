@@ -0,0 +1,90 @@
+package org.example;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The built-in roles: a goal push starts the horn and the crowd bed, but the bed stays quiet
+// while a team song plays, and the songs stay out of the bed's group so starting one never
+// fades the crowd.
+class RoleRegistryTest {
+    private static final FadeProfile PROFILE = new FadeProfile(FadeCurve.LINEAR, 30, 15);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void aPushDuringASongLeavesTheCrowdIdle() {
+        RoleRegistry registry = new RoleRegistry(AudioMixer.offline(), directory.resolve("roles.json"), new Gson());
+        RoleRegistry.Snapshot roles = registry.snapshot();
+        dispatch(roles, "panther_song");
+        assertEquals(Voice.Phase.PLAYING, roles.role("homeSong").voice.phase());
+
+        for (String push : List.of("goal_push_panthers", "goal_push_alternate")) {
+            dispatch(roles, push);
+            assertEquals(Voice.Phase.IDLE, roles.role("crowd").voice.phase(), push + " started the crowd over the song");
+        }
+        assertEquals(Voice.Phase.PLAYING, roles.role("homeGoal").voice.phase());
+        assertEquals(Voice.Phase.PLAYING, roles.role("homeSong").voice.phase(), "The push faded the song");
+    }
+
+    @Test
+    void aPushWithoutASongStartsTheCrowdAndASongDoesNotFadeIt() {
+        RoleRegistry registry = new RoleRegistry(AudioMixer.offline(), directory.resolve("roles.json"), new Gson());
+        RoleRegistry.Snapshot roles = registry.snapshot();
+        dispatch(roles, "goal_push_panthers");
+        assertEquals(Voice.Phase.PLAYING, roles.role("crowd").voice.phase());
+
+        dispatch(roles, "alternate_song");
+        assertEquals(Voice.Phase.PLAYING, roles.role("awaySong").voice.phase());
+        assertEquals(Voice.Phase.PLAYING, roles.role("crowd").voice.phase());
+        assertTrue(roles.role("homeSong").groupMembers.isEmpty());
+    }
+
+    @Test
+    void savedBuiltInsWithoutQuietWhileTakeTheDefault() throws Exception {
+        Path config = directory.resolve("roles.json");
+        Files.writeString(config, "{\"roles\":[{\"name\":\"crowd\",\"file\":\"crowd.wav\",\"group\":\"bed\","
+                + "\"continuous\":true,\"on\":{\"goal_push_panthers\":\"play\"}}]}");
+        RoleRegistry.Snapshot roles = new RoleRegistry(AudioMixer.offline(), config, new Gson()).snapshot();
+
+        RoleRegistry.Role crowd = roles.role("crowd");
+        assertEquals(List.of(roles.role("homeSong"), roles.role("awaySong")), crowd.quietWhile);
+        assertFalse(crowd.heldBack());
+    }
+
+    // What Soundboard.dispatchCommand does with a command's bindings, minus the broadcasts.
+    private static void dispatch(RoleRegistry.Snapshot roles, String command) {
+        for (RoleRegistry.Binding binding : roles.bindingsFor(command)) {
+            RoleRegistry.Role role = binding.role;
+            if (binding.action == RoleRegistry.Action.FADE) {
+                role.voice.fadeOut(PROFILE);
+            } else if (!role.heldBack()) {
+                if (!role.continuous) {
+                    for (RoleRegistry.Role other : role.groupMembers) {
+                        if (other != role) {
+                            other.voice.fadeOut(PROFILE);
+                        }
+                    }
+                }
+                role.voice.play(constant(), 0f, PROFILE);
+            }
+        }
+    }
+
+    private static PcmSound constant() {
+        short[] samples = new short[(int) AudioMixer.SAMPLE_RATE * AudioMixer.CHANNELS];
+        Arrays.fill(samples, (short) 1000);
+        return new PcmSound("constant", ShortBuffer.wrap(samples));
+    }
+}
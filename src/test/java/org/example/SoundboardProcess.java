@@ -0,0 +1,205 @@
+package org.example;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// The whole service in a child JVM, as deployed: its own library of generated clips, the
+// sound card left closed (SOUNDBOARD_AUDIO_OUTPUT=none) and no debounce on the goal pushes,
+// so every command a load test sends is dispatched and timed. Each instance listens on free
+// ports of its own, and runs the main classes and resources with the jars they depend on.
+final class SoundboardProcess implements AutoCloseable {
+    private static final String[] CLIPS = {"goal.wav", "alternateGoal.wav", "crowd.wav", "song.wav", "alternateSong.wav"};
+    private static final long START_TIMEOUT_SECONDS = 60;
+
+    private final Process process;
+    private final Path log;
+    final String baseUrl;
+    final String webSocketUrl;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    private SoundboardProcess(Process process, Path log, int httpPort, int webSocketPort) {
+        this.process = process;
+        this.log = log;
+        this.baseUrl = "http://127.0.0.1:" + httpPort;
+        this.webSocketUrl = "ws://127.0.0.1:" + webSocketPort;
+    }
+
+    static SoundboardProcess start(Path directory) throws Exception {
+        int httpPort = freePort();
+        int webSocketPort = freePort();
+        Path library = Files.createDirectories(directory.resolve("audio-library"));
+        for (String clip : CLIPS) {
+            writeClip(library.resolve(clip));
+        }
+        Path log = directory.resolve("soundboard.log");
+        ProcessBuilder builder = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", classPath(),
+                Soundboard.class.getName());
+        builder.directory(directory.toFile());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(log.toFile());
+        Map<String, String> env = builder.environment();
+        env.put("SOUNDBOARD_HTTP_PORT", Integer.toString(httpPort));
+        env.put("SOUNDBOARD_WEBSOCKET_PORT", Integer.toString(webSocketPort));
+        env.put("SOUNDBOARD_AUDIO_OUTPUT", "none");
+        env.put("SOUNDBOARD_AUDIO_DIR", library.toString());
+        env.put("SOUNDBOARD_SOUND_CONFIG", directory.resolve("sound-selection.json").toString());
+        env.put("SOUNDBOARD_LOGO_CACHE", directory.resolve("logo-cache").toString());
+        env.put("SOUNDBOARD_PLAYER_CACHE", directory.resolve("player-cache.json").toString());
+        env.put("SOUNDBOARD_LIGHT_TIMELINES", directory.resolve("light-timelines").toString());
+        env.put("SOUNDBOARD_LIGHT_SINK", "stub");
+        env.put("SOUNDBOARD_COMMAND_DEBOUNCE", "goal_push_panthers=0,goal_push_alternate=0");
+
+        SoundboardProcess soundboard = new SoundboardProcess(builder.start(), log, httpPort, webSocketPort);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(START_TIMEOUT_SECONDS);
+        while (!soundboard.answers()) {
+            if (!soundboard.process.isAlive() || System.nanoTime() > deadline) {
+                soundboard.close();
+                throw new IllegalStateException("Soundboard did not start:\n" + soundboard.logTail());
+            }
+            Thread.sleep(200);
+        }
+        return soundboard;
+    }
+
+    // POSTs one command to /api/commands and returns its entry in the results.
+    JsonObject command(String name) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/commands"))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"cmd\":\"" + name + "\"}"))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException(name + " answered " + response.statusCode() + ": " + response.body());
+        }
+        return JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("results").get(0).getAsJsonObject();
+    }
+
+    // GETs a path and returns the HTTP status, or -1 if the request failed outright.
+    int get(String path, Duration timeout) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout).GET().build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    String logTail() {
+        try {
+            List<String> lines = Files.readAllLines(log);
+            return String.join("\n", lines.subList(Math.max(0, lines.size() - 40), lines.size()));
+        } catch (IOException e) {
+            return "(no log: " + e.getMessage() + ")";
+        }
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Latency at the given quantile (0..1) of the samples, by nearest rank.
+    static long percentile(List<Long> samples, double quantile) {
+        List<Long> sorted = new ArrayList<>(samples);
+        sorted.sort(null);
+        int rank = (int) Math.ceil(quantile * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    // The main classes and resources where the build put them, and the jars they run with;
+    // the test classes and anything else in a directory stay out of the child.
+    private static String classPath() throws URISyntaxException {
+        Set<String> entries = new LinkedHashSet<>();
+        entries.add(Paths.get(Soundboard.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        URL resource = Soundboard.class.getResource("/public");
+        if (resource != null && "file".equals(resource.getProtocol())) {
+            entries.add(Paths.get(resource.toURI()).getParent().toString());
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.endsWith(".jar")) {
+                entries.add(entry);
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean answers() {
+        HttpClient probe = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(500)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/metrics")).timeout(Duration.ofSeconds(2)).GET().build();
+        try {
+            return probe.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Two seconds of a steady tone, long enough that pushes overlap playing voices.
+    private static void writeClip(Path path) throws IOException {
+        float rate = AudioMixer.SAMPLE_RATE;
+        int frames = (int) (rate * 2);
+        ByteBuffer bytes = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        short[] frame = new short[2];
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(frame, (short) Math.round(Math.sin(2 * Math.PI * 440 * i / rate) * 8000));
+            bytes.putShort(frame[0]).putShort(frame[1]);
+        }
+        AudioFormat format = new AudioFormat(rate, 16, 2, true, false);
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(bytes.array()), format, frames)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, path.toFile());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Library files the sound bank has not loaded are analyzed from a decoding stream. The stream
+// must hand the analyzers exactly the samples a full decode would, and must leave the PCM
+// cache alone.
+class StreamingAnalysisTest {
+    @TempDir
+    Path library;
+
+    @Test
+    void streamMatchesAFullDecodeAtEveryChunkSize() throws Exception {
+        writeWav(library.resolve("mono.wav"), 22050f, 1, 3.3);
+        writeWav(library.resolve("stereo.wav"), 48000f, 2, 2.7);
+        SoundBank bank = new SoundBank(library, library.resolve(".pcm-cache"), new Gson());
+
+        for (String file : new String[]{"mono.wav", "stereo.wav"}) {
+            short[] decoded = decode(file);
+            for (int chunkFrames : new int[]{1, 441, 4410, 100_000}) {
+                assertArrayEquals(decoded, streamed(bank, file, chunkFrames), file + " in chunks of " + chunkFrames);
+            }
+        }
+    }
+
+    @Test
+    void loudnessFromTheStreamEqualsLoudnessFromMemory() throws Exception {
+        writeWav(library.resolve("clip.wav"), 22050f, 1, 4.2);
+        SoundBank bank = new SoundBank(library, library.resolve(".pcm-cache"), new Gson());
+
+        LoudnessAnalyzer.Result fromMemory = LoudnessAnalyzer.analyze(ShortBuffer.wrap(decode("clip.wav")));
+        LoudnessAnalyzer.Result fromStream;
+        try (PcmSound.Stream stream = bank.stream("clip.wav")) {
+            fromStream = LoudnessAnalyzer.analyze(stream);
+        }
+
+        assertEquals(fromMemory.integratedLufs, fromStream.integratedLufs, 1e-9);
+        assertEquals(fromMemory.truePeakDbtp, fromStream.truePeakDbtp, 1e-9);
+        assertEquals(fromMemory.leadingSilenceFrames, fromStream.leadingSilenceFrames);
+        assertEquals(fromMemory.trailingSilenceFrames, fromStream.trailingSilenceFrames);
+        assertEquals(fromMemory.frames, fromStream.frames);
+        assertEquals(fromMemory.gainOffsetDb, fromStream.gainOffsetDb, 1e-9);
+    }
+
+    @Test
+    void beatsFromTheStreamEqualBeatsFromMemory() throws Exception {
+        writeWav(library.resolve("clicks.wav"), 22050f, 1, 12.3);
+        SoundBank bank = new SoundBank(library, library.resolve(".pcm-cache"), new Gson());
+
+        BeatAnalyzer.Result fromMemory = BeatAnalyzer.analyze(ShortBuffer.wrap(decode("clicks.wav")));
+        BeatAnalyzer.Result fromStream;
+        try (PcmSound.Stream stream = bank.stream("clicks.wav")) {
+            fromStream = BeatAnalyzer.analyze(stream);
+        }
+
+        assertTrue(fromMemory.bpm > 0, "The click track should have a tempo");
+        assertEquals(fromMemory.bpm, fromStream.bpm);
+        assertEquals(fromMemory.confidence, fromStream.confidence);
+        assertArrayEquals(fromMemory.beatsMillis, fromStream.beatsMillis);
+        assertArrayEquals(fromMemory.onsetsMillis, fromStream.onsetsMillis);
+        assertArrayEquals(fromMemory.onsetStrengths, fromStream.onsetStrengths);
+    }
+
+    @Test
+    void analyzingUnloadedFilesLeavesThePcmCacheEmpty() throws Exception {
+        writeWav(library.resolve("a.wav"), 44100f, 2, 1.5);
+        writeWav(library.resolve("b.wav"), 22050f, 1, 1.5);
+        Path cache = library.resolve(".pcm-cache");
+        SoundBank bank = new SoundBank(library, cache, new Gson());
+        LoudnessAnalyzer loudness = new LoudnessAnalyzer(bank, cache, new Gson(), 1);
+        BeatAnalyzer beats = new BeatAnalyzer(bank, cache, new Gson(), 1, (file, result) -> { });
+
+        for (String file : new String[]{"a.wav", "b.wav"}) {
+            loudness.submit(file);
+            beats.submit(file);
+        }
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while ((loudness.results().size() < 2 || beats.results().size() < 2) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(2, loudness.results().size());
+        assertEquals(2, beats.results().size());
+        assertNull(bank.loaded("a.wav"));
+        try (Stream<Path> files = Files.list(cache)) {
+            assertFalse(files.anyMatch(path -> path.toString().endsWith(".pcm")), "Analysis decoded into the PCM cache");
+        }
+    }
+
+    private short[] decode(String file) throws Exception {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(library.resolve(file).toFile())) {
+            ShortBuffer samples = PcmSound.decode(file, in).samples;
+            short[] out = new short[samples.remaining()];
+            samples.get(out);
+            return out;
+        }
+    }
+
+    private static short[] streamed(SoundBank bank, String file, int chunkFrames) throws Exception {
+        ShortBuffer out = ShortBuffer.allocate(1 << 20);
+        short[] chunk = new short[chunkFrames * AudioMixer.CHANNELS];
+        try (PcmSound.Stream stream = bank.stream(file)) {
+            int count;
+            while ((count = stream.read(chunk, chunkFrames)) > 0) {
+                out.put(chunk, 0, count * AudioMixer.CHANNELS);
+            }
+        }
+        short[] samples = new short[out.position()];
+        out.flip().get(samples);
+        return samples;
+    }
+
+    // A swept tone with clicks at 120 BPM and a silent lead-in, so rate conversion, peaks,
+    // silence trimming and onsets all matter.
+    private static void writeWav(Path path, float rate, int channels, double seconds) throws IOException {
+        int frames = (int) (rate * seconds);
+        ByteBuffer bytes = ByteBuffer.allocate(frames * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            double t = i / rate;
+            double level = t < 0.25 ? 0 : 0.3;
+            double click = (t - 0.25) % 0.5 < 0.01 && t >= 0.25 ? 0.6 : 0;  // 120 BPM
+            for (int c = 0; c < channels; c++) {
+                double tone = Math.sin(2 * Math.PI * (220 + 300 * t + 50 * c) * t);
+                bytes.putShort((short) Math.round((tone * level + click * Math.sin(2 * Math.PI * 2000 * t)) * 32767));
+            }
+        }
+        AudioFormat format = new AudioFormat(rate, 16, channels, true, false);
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(bytes.array()), format, frames)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, path.toFile());
+        }
+    }
+}
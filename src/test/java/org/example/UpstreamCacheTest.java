@@ -0,0 +1,202 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// UpstreamCache against a local stub standing in for the stats API. The stub counts calls per
+// path, answers conditional requests with 304 when the ETag matches, and can be made slow or
+// failing per test.
+class UpstreamCacheTest {
+    private HttpServer server;
+    private ExecutorService refresher;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final List<String> conditional = new CopyOnWriteArrayList<>();
+    private volatile long delayMillis;
+    private volatile int status = 200;
+    private volatile int version = 1;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            calls.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            sleep(delayMillis);
+            String etag = "\"v" + version + "\"";
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null) {
+                conditional.add(path);
+            }
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+            } else if (etag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = ("{\"path\":\"" + path + "\",\"version\":" + version + "}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        refresher = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void stopStub() throws InterruptedException {
+        refresher.shutdown();
+        refresher.awaitTermination(2, TimeUnit.SECONDS);  // Let a last background refresh finish against the stub
+        server.stop(0);
+    }
+
+    @Test
+    void freshEntriesAreServedWithoutAskingTheUpstream() {
+        UpstreamCache cache = cache(60_000, 60_000, 16);
+        String first = cache.get(url("/landing/1"));
+        String second = cache.get(url("/landing/1"));
+
+        assertEquals(first, second);
+        assertTrue(first.contains("\"version\":1"));
+        assertEquals(1, calls("/landing/1"));
+    }
+
+    @Test
+    void concurrentMissesShareOneUpstreamRequest() throws Exception {
+        delayMillis = 300;
+        UpstreamCache cache = cache(60_000, 60_000, 16);
+        ExecutorService callers = Executors.newFixedThreadPool(12);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            results.add(callers.submit(() -> {
+                start.await();
+                return cache.get(url("/play-by-play/7"));
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS).contains("/play-by-play/7"));
+        }
+        callers.shutdown();
+
+        assertEquals(1, calls("/play-by-play/7"));
+    }
+
+    @Test
+    void staleEntriesAreServedWhileOneConditionalRequestRevalidates() throws Exception {
+        UpstreamCache cache = cache(50, 60_000, 16);
+        String original = cache.get(url("/landing/2"));
+        Thread.sleep(100);
+
+        delayMillis = 300;
+        long started = System.nanoTime();
+        String stale = cache.get(url("/landing/2"));
+        long servedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        cache.get(url("/landing/2"));
+
+        assertEquals(original, stale);
+        assertTrue(servedMillis < 150, "Stale hit waited " + servedMillis + " ms for the upstream");
+        awaitCalls("/landing/2", 2);
+        Thread.sleep(400);
+        assertEquals(2, calls("/landing/2"), "Concurrent stale hits should share one revalidation");
+        assertEquals(List.of("/landing/2"), conditional);
+
+        delayMillis = 0;
+        assertEquals(original, cache.get(url("/landing/2")), "A 304 keeps the cached body");
+    }
+
+    @Test
+    void changedUpstreamBodyReplacesTheEntryOnRevalidation() throws Exception {
+        UpstreamCache cache = cache(50, 60_000, 16);
+        cache.get(url("/landing/3"));
+        version = 2;
+        Thread.sleep(100);
+
+        cache.get(url("/landing/3"));
+        awaitCalls("/landing/3", 2);
+        refresher.submit(() -> { }).get(2, TimeUnit.SECONDS);
+
+        assertTrue(cache.get(url("/landing/3")).contains("\"version\":2"));
+    }
+
+    @Test
+    void failuresFallBackToTheCachedBodyAndMissesReturnNull() {
+        UpstreamCache cache = cache(0, 60_000, 16);
+        String cached = cache.get(url("/player/8"));
+        status = 503;
+
+        assertEquals(cached, cache.fetchNow(url("/player/8")));
+        assertNull(cache.get(url("/player/9")));
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() {
+        UpstreamCache cache = cache(60_000, 60_000, 2);
+        cache.get(url("/player/a"));
+        cache.get(url("/player/b"));
+        cache.get(url("/player/a"));
+        cache.get(url("/player/c"));  // Evicts b, the least recently used
+
+        cache.get(url("/player/a"));
+        cache.get(url("/player/b"));
+
+        assertEquals(1, calls("/player/a"));
+        assertEquals(2, calls("/player/b"));
+    }
+
+    private UpstreamCache cache(long freshMillis, long staleMillis, int maxEntries) {
+        return new UpstreamCache("test", freshMillis, staleMillis, maxEntries, refresher, BlockingIo.limit("test-stub", 16));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private int calls(String path) {
+        AtomicInteger count = calls.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private void awaitCalls(String path, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (calls(path) < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, calls(path));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
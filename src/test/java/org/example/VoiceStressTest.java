@@ -0,0 +1,271 @@
+package org.example;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Hammers the voices with push/release/all_stop style sequences (play, fadeOut, stop) from
+// several threads while a render thread mixes, the way Tyrus, Spark and the command thread
+// can reach the mixer at once. Whatever the interleaving, the last command a voice gets
+// decides how it ends up: a final play is heard at full level, never left muted by an
+// earlier fade, and a final stop is silent.
+class VoiceStressTest {
+    private static final short LEVEL = 10000;
+    private static final int VOICES = 5;
+    private static final int THREADS = 8;
+    private static final int COMMANDS_PER_THREAD = 400;
+    private static final FadeProfile PROFILE = new FadeProfile(FadeCurve.LINEAR, 30, 15);
+
+    @RepeatedTest(5)
+    void lastCommandWinsWhateverTheInterleaving() throws Exception {
+        AudioMixer mixer = AudioMixer.offline();
+        List<Voice> voices = new ArrayList<>();
+        for (int i = 0; i < VOICES; i++) {
+            voices.add(new Voice(mixer, "role-" + i));
+        }
+        PcmSound loop = constant(10);
+        PcmSound sting = constant(0.02);  // Ends on its own while the others race it
+        Renderer renderer = new Renderer(mixer, voices);
+        renderer.start();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread sender = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < COMMANDS_PER_THREAD; i++) {
+                    long startAt = random.nextBoolean() ? 0 : System.nanoTime() + random.nextInt(3_000_000);
+                    int roll = random.nextInt(10);
+                    if (roll < 4) {
+                        voices.get(random.nextInt(VOICES)).play(random.nextBoolean() ? loop : sting, 0f, PROFILE, startAt);
+                    } else if (roll < 8) {
+                        voices.get(random.nextInt(VOICES)).fadeOut(PROFILE, startAt);
+                    } else if (roll < 9) {
+                        voices.get(random.nextInt(VOICES)).stop();
+                    } else {
+                        for (Voice voice : voices) {
+                            voice.stop();  // all_stop
+                        }
+                    }
+                    if (random.nextInt(8) == 0) {
+                        LockSupport.parkNanos(random.nextInt(200_000));
+                    }
+                }
+            });
+            sender.start();
+            senders.add(sender);
+        }
+        start.countDown();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        boolean[] playing = new boolean[VOICES];
+        for (int i = 0; i < VOICES; i++) {
+            playing[i] = i % 2 == 0;
+            if (playing[i]) {
+                voices.get(i).play(loop, 0f, PROFILE);
+            } else {
+                voices.get(i).stop();
+            }
+        }
+        renderer.settle(PROFILE.millis + PROFILE.reverseMillis + 20);
+        float[][] heard = renderer.finish();
+
+        for (int i = 0; i < VOICES; i++) {
+            Voice voice = voices.get(i);
+            if (playing[i]) {
+                assertEquals(Voice.Phase.PLAYING, voice.phase(), voice.name + " did not restart");
+                for (float sample : heard[i]) {
+                    assertEquals(LEVEL, sample, 1f, voice.name + " restarted below full level");
+                }
+            } else {
+                assertEquals(Voice.Phase.IDLE, voice.phase(), voice.name + " did not stop");
+                for (float sample : heard[i]) {
+                    assertEquals(0f, sample, voice.name + " was audible after stop");
+                }
+            }
+        }
+    }
+
+    @RepeatedTest(5)
+    void onlyOneOfRacingFadesIsPosted() throws Exception {
+        AudioMixer mixer = AudioMixer.offline();
+        Voice voice = new Voice(mixer, "crowd");
+        voice.play(constant(10), 0f, PROFILE);
+        long generation = voice.state().generation;
+
+        AtomicInteger won = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> releasers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread releaser = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (voice.fadeOut(PROFILE)) {
+                    won.incrementAndGet();
+                }
+            });
+            releaser.start();
+            releasers.add(releaser);
+        }
+        start.countDown();
+        for (Thread releaser : releasers) {
+            releaser.join();
+        }
+
+        assertEquals(1, won.get());
+        assertEquals(Voice.Phase.FADING, voice.phase());
+        assertEquals(generation, voice.state().generation, "A fade must not start a new generation");
+    }
+
+    // The window the random run can only hit by luck: a push arrives while the render thread
+    // is mixing the last buffer of the previous clip, so the clip ends after the new play was
+    // accepted but before the mixer has applied it.
+    @Test
+    void aClipEndingLateDoesNotCancelThePlayThatReplacedIt() {
+        AudioMixer mixer = AudioMixer.offline();
+        Voice voice = new Voice(mixer, "goal");
+        PcmSound sting = constant(AudioMixer.BUFFER_FRAMES * 3 / (double) AudioMixer.SAMPLE_RATE);
+        float[] mix = new float[AudioMixer.BUFFER_FRAMES * AudioMixer.CHANNELS];
+        voice.play(sting, 0f, PROFILE);
+        for (int b = 0; b < 3; b++) {
+            mixer.renderBuffer();
+            voice.render(mix, AudioMixer.BUFFER_FRAMES);
+        }
+
+        mixer.renderBuffer();
+        voice.play(constant(10), 0f, PROFILE);  // Accepted mid-buffer, applied at the next one
+        voice.render(mix, AudioMixer.BUFFER_FRAMES);
+        assertEquals(Voice.Phase.PLAYING, voice.phase(), "The old clip's end cancelled the new play");
+
+        mixer.renderBuffer();
+        Arrays.fill(mix, 0f);
+        voice.render(mix, AudioMixer.BUFFER_FRAMES);
+        assertEquals(LEVEL, mix[0], 1f);
+        assertEquals(Voice.Phase.PLAYING, voice.phase());
+    }
+
+    // What the command acks rely on: a push replayed before it landed is heard from the
+    // replay, while one stopped first never is.
+    @Test
+    void aReplayedPlayIsAppliedWithItsReplayAndAStoppedOneIsNot() {
+        AudioMixer mixer = AudioMixer.offline();
+        Voice voice = new Voice(mixer, "goal");
+        PcmSound clip = constant(1);
+        List<Long> applied = new ArrayList<>();
+        voice.play(clip, 0f, PROFILE, 0, 0, applied::add);
+        voice.play(clip, 0f, PROFILE, 0, 0, applied::add);
+        mixer.renderBuffer();
+        assertEquals(2, applied.size());
+        assertTrue(applied.get(0) != 0);
+        assertEquals(applied.get(1), applied.get(0), "The replaced play should land with its replay");
+
+        applied.clear();
+        voice.play(clip, 0f, PROFILE, 0, 0, applied::add);
+        voice.stop();
+        mixer.renderBuffer();
+        assertEquals(List.of(0L), applied);
+    }
+
+    @Test
+    void everyPlayAndStopStartsItsOwnGeneration() throws Exception {
+        AudioMixer mixer = AudioMixer.offline();
+        Voice voice = new Voice(mixer, "song");
+        PcmSound clip = constant(1);
+        long before = voice.state().generation;
+
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int index = t;
+            Thread sender = new Thread(() -> {
+                for (int i = 0; i < COMMANDS_PER_THREAD; i++) {
+                    if ((i + index) % 2 == 0) {
+                        voice.play(clip, 0f, PROFILE);
+                    } else {
+                        voice.stop();
+                    }
+                }
+            });
+            sender.start();
+            senders.add(sender);
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        assertEquals(before + (long) THREADS * COMMANDS_PER_THREAD, voice.state().generation);
+    }
+
+    // Mixes on its own thread in real time, so scheduled starts come due as they would live.
+    // Each voice is rendered into its own buffer so the last one can be checked per voice.
+    private static final class Renderer extends Thread {
+        private final AudioMixer mixer;
+        private final List<Voice> voices;
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final float[][] last;
+
+        Renderer(AudioMixer mixer, List<Voice> voices) {
+            super("test-render");
+            this.mixer = mixer;
+            this.voices = voices;
+            this.last = new float[voices.size()][AudioMixer.BUFFER_FRAMES * AudioMixer.CHANNELS];
+        }
+
+        @Override
+        public void run() {
+            while (running.get()) {
+                mixer.renderBuffer();
+                for (int v = 0; v < voices.size(); v++) {
+                    Arrays.fill(last[v], 0f);
+                    voices.get(v).render(last[v], AudioMixer.BUFFER_FRAMES);
+                }
+                LockSupport.parkNanos(200_000);
+            }
+        }
+
+        // Waits until nothing is scheduled and then long enough for any fade to finish.
+        void settle(long millis) throws InterruptedException {
+            Thread.sleep(5);  // Let the render thread take the commands just posted
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (mixer.scheduledCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(mixer.scheduledCount() == 0, "Scheduled commands never came due");
+            Thread.sleep(millis);
+        }
+
+        float[][] finish() throws InterruptedException {
+            running.set(false);
+            join();
+            return last;
+        }
+    }
+
+    private static PcmSound constant(double seconds) {
+        short[] samples = new short[(int) (seconds * AudioMixer.SAMPLE_RATE) * AudioMixer.CHANNELS];
+        Arrays.fill(samples, LEVEL);
+        return new PcmSound("constant", ShortBuffer.wrap(samples));
+    }
+}